@@ -0,0 +1,575 @@
+package ai.test.sdk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A durable outbox for training updates. Payloads are appended to a segmented log on disk, one json object per line, and a background sender drains the log in order, so that tests never
+ * wait on uploads and updates are not lost to network errors. The sender records how far it got in an offset file, so anything left over after a crash, or at the end of a run, is sent by
+ * the next outbox opened on the same directory.
+ *
+ * <p>
+ * An outbox directory may only be used by one outbox at a time, which is enforced with a file lock.
+ * </p>
+ */
+final class ActionOutbox implements Closeable
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(ActionOutbox.class);
+
+	/**
+	 * Segments are rolled once they exceed this many bytes.
+	 */
+	private static final long SEGMENT_SIZE = 1 << 20;
+
+	/**
+	 * The maximum number of payloads sent before the offset is committed.
+	 */
+	private static final int BATCH_SIZE = 32;
+
+	/**
+	 * The number of bytes read from a segment at a time.
+	 */
+	private static final int READ_SIZE = 1 << 16;
+
+	/**
+	 * The interval between flushes with {@link FsyncPolicy#INTERVAL}, in milliseconds.
+	 */
+	private static final long FSYNC_INTERVAL = 1000;
+
+	/**
+	 * The maximum number of milliseconds the sender sleeps when the log is empty, in case a wake up was missed.
+	 */
+	private static final long IDLE_WAIT = 1000;
+
+	/**
+	 * The initial and maximum number of milliseconds to wait before retrying after a failed send.
+	 */
+	private static final long MIN_BACKOFF = 1000, MAX_BACKOFF = 60000;
+
+	/**
+	 * The directory containing the log
+	 */
+	private final Path dir;
+
+	/**
+	 * When appended payloads are forced to disk
+	 */
+	private final FsyncPolicy fsync;
+
+	/**
+	 * Sends a payload. Returns {@code true} if the payload was sent (or can never be sent, and should be dropped), and {@code false} if it should be retried later.
+	 */
+	private final Predicate<String> sender;
+
+	/**
+	 * Held for as long as this outbox is open, to keep other outboxes out of {@code dir}.
+	 */
+	private final FileLock dirLock;
+
+	/**
+	 * Guards the writer state and wakes up the sender
+	 */
+	private final Object writeLock = new Object();
+
+	/**
+	 * The sequence number of the segment being appended to
+	 */
+	private volatile long writeSeq;
+
+	/**
+	 * The channel to the segment being appended to
+	 */
+	private FileChannel writer;
+
+	/**
+	 * The value of {@code System.nanoTime()} when {@code writer} was last forced
+	 */
+	private long lastForce;
+
+	/**
+	 * The sequence number of the segment the sender is reading
+	 */
+	private long readSeq;
+
+	/**
+	 * The offset in segment {@code readSeq} of the first payload which has not been sent
+	 */
+	private long readOffset;
+
+	/**
+	 * The sender task
+	 */
+	private Future<?> task;
+
+	/**
+	 * Set when this outbox is closed
+	 */
+	private volatile boolean closed;
+
+	/**
+	 * Constructor, creates a new ActionOutbox
+	 * 
+	 * @param dir The directory containing the log
+	 * @param fsync When appended payloads are forced to disk
+	 * @param sender Sends a payload
+	 * @param dirLock The lock on {@code dir}
+	 */
+	private ActionOutbox(Path dir, FsyncPolicy fsync, Predicate<String> sender, FileLock dirLock)
+	{
+		this.dir = dir;
+		this.fsync = fsync;
+		this.sender = sender;
+		this.dirLock = dirLock;
+	}
+
+	/**
+	 * Opens an outbox, and starts draining anything left in it by a previous outbox.
+	 * 
+	 * @param dir The directory containing the log. It is created if it does not exist.
+	 * @param fsync When appended payloads are forced to disk
+	 * @param sender Sends a payload. Returns {@code true} if the payload was sent (or can never be sent, and should be dropped), and {@code false} if it should be retried later.
+	 * @param executor Runs the sender
+	 * @return The outbox
+	 * @throws IOException If the outbox could not be opened, or is in use.
+	 */
+	public static ActionOutbox open(Path dir, FsyncPolicy fsync, Predicate<String> sender, ExecutorService executor) throws IOException
+	{
+		Files.createDirectories(dir);
+
+		FileChannel lockChannel = FileChannel.open(dir.resolve("outbox.lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		FileLock dirLock;
+		try
+		{
+			dirLock = lockChannel.tryLock();
+		}
+		catch (OverlappingFileLockException e)
+		{
+			dirLock = null;
+		}
+		if (dirLock == null)
+		{
+			lockChannel.close();
+			throw new IOException(dir + " is in use by another outbox");
+		}
+
+		ActionOutbox outbox = new ActionOutbox(dir, fsync, sender, dirLock);
+		try
+		{
+			outbox.recover();
+		}
+		catch (IOException | RuntimeException e)
+		{
+			outbox.closeFiles();
+			throw e;
+		}
+
+		outbox.task = executor.submit(outbox::drain);
+		return outbox;
+	}
+
+	/**
+	 * Appends a payload to the log. This returns as soon as the payload is written (and forced to disk, depending on the fsync policy).
+	 * 
+	 * @param payload The payload to append, as json. This must not contain any raw line breaks.
+	 * @throws IOException If the payload could not be written
+	 */
+	public void append(String payload) throws IOException
+	{
+		ByteBuffer b = StandardCharsets.UTF_8.encode(payload + '\n');
+
+		synchronized (writeLock)
+		{
+			if (closed)
+				throw new IOException("The outbox is closed");
+
+			if (writer.size() >= SEGMENT_SIZE)
+			{
+				writer.force(false);
+				writer.close();
+				writer = openSegment(writeSeq + 1);
+				writeSeq++;
+			}
+
+			while (b.hasRemaining())
+				writer.write(b);
+
+			if (fsync == FsyncPolicy.ALWAYS || fsync == FsyncPolicy.INTERVAL && System.nanoTime() - lastForce >= TimeUnit.MILLISECONDS.toNanos(FSYNC_INTERVAL))
+			{
+				writer.force(false);
+				lastForce = System.nanoTime();
+			}
+
+			writeLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Waits up to {@code timeout} milliseconds for everything appended so far to be sent, then stops the sender. Anything not sent is left on disk for the next outbox.
+	 * 
+	 * @param timeout The maximum number of milliseconds to wait
+	 */
+	public void close(long timeout)
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		try
+		{
+			synchronized (writeLock)
+			{
+				while (!drained() && System.nanoTime() < deadline)
+					writeLock.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (IOException e)
+		{
+			log.debug("Unable to check if the outbox is drained: {}", e.getMessage());
+		}
+
+		close();
+	}
+
+	/**
+	 * Stops the sender immediately. Anything not sent is left on disk for the next outbox.
+	 */
+	@Override
+	public void close()
+	{
+		synchronized (writeLock)
+		{
+			if (closed)
+				return;
+
+			closed = true;
+			writeLock.notifyAll();
+		}
+
+		task.cancel(true);
+		closeFiles();
+	}
+
+	/**
+	 * Closes the segment being appended to and releases the lock on the directory. The lock is released even if the segment could not be closed.
+	 */
+	private void closeFiles()
+	{
+		synchronized (writeLock)
+		{
+			try
+			{
+				if (writer != null)
+				{
+					writer.force(false);
+					writer.close();
+				}
+			}
+			catch (IOException e)
+			{
+				log.debug("Unable to close the outbox: {}", e.getMessage());
+			}
+
+			try
+			{
+				dirLock.release();
+				dirLock.channel().close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Unable to unlock the outbox: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Restores the state of the log from disk: reads the committed offset, deletes segments which were already sent, and drops any partially written payload from the last segment. A corrupt
+	 * offset file is moved aside, and the log is sent again from its first segment.
+	 * 
+	 * @throws IOException If the log could not be read
+	 */
+	private void recover() throws IOException
+	{
+		TreeSet<Long> segments = segments();
+
+		long[] committed = committedOffset();
+		if (committed != null)
+		{
+			readSeq = committed[0];
+			readOffset = committed[1];
+		}
+		else if (!segments.isEmpty())
+			readSeq = segments.first();
+
+		for (long seq : segments.headSet(readSeq))
+			Files.deleteIfExists(segment(seq));
+
+		writeSeq = segments.isEmpty() ? readSeq : Math.max(readSeq, segments.last());
+
+		// a crash part way through an append leaves a partial line, which would corrupt the next payload
+		try (FileChannel c = FileChannel.open(segment(writeSeq), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE))
+		{
+			long size = c.size(), end = size;
+			ByteBuffer b = ByteBuffer.allocate(1);
+			while (end > 0 && c.read(b.clear(), end - 1) == 1 && b.get(0) != '\n')
+				end--;
+			if (end < size)
+			{
+				log.warn("Dropping {} bytes of a partially written update from the outbox", size - end);
+				c.truncate(end);
+			}
+		}
+
+		writer = openSegment(writeSeq);
+
+		log.debug("Opened the outbox in {}, resuming from segment {} at offset {}", dir, readSeq, readOffset);
+	}
+
+	/**
+	 * Reads the offset committed by a previous outbox. If the offset file is corrupt, it is renamed to {@code outbox.offset.corrupt}, so that it can be inspected.
+	 * 
+	 * @return The sequence number of the segment being read and the offset in it of the first payload which has not been sent, or {@code null} if there is no valid offset file.
+	 * @throws IOException If the offset file could not be read or moved aside
+	 */
+	private long[] committedOffset() throws IOException
+	{
+		Path offsetFile = dir.resolve("outbox.offset");
+		if (!Files.exists(offsetFile))
+			return null;
+
+		String contents = Files.readString(offsetFile).trim();
+		if (contents.matches("\\d{1,18} \\d{1,18}"))
+		{
+			String[] l = contents.split(" ");
+			long seq = Long.parseLong(l[0]), offset = Long.parseLong(l[1]);
+			if (!Files.exists(segment(seq)) || offset <= Files.size(segment(seq)))
+				return new long[] { seq, offset };
+		}
+
+		log.warn("The outbox offset file in {} is corrupt, resending the outbox from the start", dir);
+		Files.move(offsetFile, dir.resolve("outbox.offset.corrupt"), StandardCopyOption.REPLACE_EXISTING);
+		return null;
+	}
+
+	/**
+	 * Sends payloads until this outbox is closed.
+	 */
+	private void drain()
+	{
+		long backoff = MIN_BACKOFF;
+		while (!closed)
+			try
+			{
+				List<Long> ends = new ArrayList<>();
+				List<String> batch = readBatch(ends);
+				if (batch.isEmpty())
+				{
+					if (!nextSegment())
+						synchronized (writeLock)
+						{
+							writeLock.notifyAll(); // wake anyone waiting for the outbox to drain
+							if (!closed)
+								writeLock.wait(IDLE_WAIT);
+						}
+
+					continue;
+				}
+
+				int sent = 0;
+				while (sent < batch.size() && sender.test(batch.get(sent)))
+					sent++;
+
+				if (sent > 0)
+					commit(readSeq, ends.get(sent - 1));
+
+				if (sent < batch.size())
+				{
+					log.debug("Unable to send an update, retrying in {}ms", backoff);
+					Thread.sleep(backoff);
+					backoff = Math.min(MAX_BACKOFF, backoff * 2);
+				}
+				else
+					backoff = MIN_BACKOFF;
+			}
+			catch (InterruptedException e)
+			{
+				return;
+			}
+			catch (Throwable e)
+			{
+				if (closed) // e.g. interrupted part way through reading a segment
+					return;
+
+				log.warn("The outbox sender failed, retrying: {}", e.getMessage());
+				try
+				{
+					Thread.sleep(MAX_BACKOFF);
+				}
+				catch (InterruptedException e2)
+				{
+					return;
+				}
+			}
+	}
+
+	/**
+	 * Reads the next complete payloads from the segment being read.
+	 * 
+	 * @param ends Populated with the offset just past each payload returned
+	 * @return Up to {@code BATCH_SIZE} payloads, or an empty {@code List} if there are none available in the segment.
+	 * @throws IOException If the segment could not be read
+	 */
+	private List<String> readBatch(List<Long> ends) throws IOException
+	{
+		List<String> batch = new ArrayList<>();
+
+		Path p = segment(readSeq);
+		if (!Files.exists(p))
+			return batch;
+
+		try (FileChannel c = FileChannel.open(p, StandardOpenOption.READ))
+		{
+			ByteBuffer b = ByteBuffer.allocate(READ_SIZE);
+			long position = readOffset;
+			while (batch.size() < BATCH_SIZE && c.read(b, position + b.position()) > 0)
+			{
+				b.flip();
+
+				int start = 0;
+				for (int i = 0; i < b.limit() && batch.size() < BATCH_SIZE; i++)
+					if (b.get(i) == '\n')
+					{
+						batch.add(StandardCharsets.UTF_8.decode(b.duplicate().limit(i).position(start)).toString());
+						ends.add(position + i + 1);
+						start = i + 1;
+					}
+
+				position += start;
+				b.position(start).compact();
+
+				if (start == 0 && !b.hasRemaining()) // a payload larger than the buffer
+					b = ByteBuffer.allocate(b.capacity() * 2).put(b.flip());
+			}
+		}
+
+		return batch;
+	}
+
+	/**
+	 * Moves on to the next segment if the segment being read has been completely sent and is no longer being appended to. The completed segment is deleted.
+	 * 
+	 * @return {@code true} if the sender moved on to the next segment
+	 * @throws IOException If the offset could not be committed
+	 */
+	private boolean nextSegment() throws IOException
+	{
+		if (readSeq >= writeSeq || Files.exists(segment(readSeq)) && Files.size(segment(readSeq)) > readOffset)
+			return false;
+
+		long completed = readSeq;
+		commit(readSeq + 1, 0);
+		Files.deleteIfExists(segment(completed));
+
+		return true;
+	}
+
+	/**
+	 * Determines whether everything appended so far has been sent. The write lock must be held.
+	 * 
+	 * @return {@code true} if everything appended so far has been sent
+	 * @throws IOException If the segment being appended to could not be read
+	 */
+	private boolean drained() throws IOException
+	{
+		return readSeq == writeSeq && readOffset >= writer.size();
+	}
+
+	/**
+	 * Records the position of the sender, so that it can resume from there after a restart.
+	 * 
+	 * @param seq The sequence number of the segment being read
+	 * @param offset The offset in the segment of the first payload which has not been sent
+	 * @throws IOException If the offset could not be written
+	 */
+	private void commit(long seq, long offset) throws IOException
+	{
+		Path tmp = dir.resolve("outbox.offset.tmp");
+		try (FileChannel c = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			c.write(StandardCharsets.UTF_8.encode(seq + " " + offset));
+			if (fsync != FsyncPolicy.NEVER)
+				c.force(false);
+		}
+		Files.move(tmp, dir.resolve("outbox.offset"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		synchronized (writeLock)
+		{
+			readSeq = seq;
+			readOffset = offset;
+			writeLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Lists the sequence numbers of the segments in the log.
+	 * 
+	 * @return The sequence numbers of the segments, in order.
+	 * @throws IOException If the directory could not be read
+	 */
+	private TreeSet<Long> segments() throws IOException
+	{
+		TreeSet<Long> l = new TreeSet<>();
+		try (Stream<Path> s = Files.list(dir))
+		{
+			s.map(p -> p.getFileName().toString()).filter(n -> n.matches("outbox-\\d+\\.log")).forEach(n -> l.add(Long.parseLong(n.substring(7, n.length() - 4))));
+		}
+
+		return l;
+	}
+
+	/**
+	 * Gets the path to a segment.
+	 * 
+	 * @param seq The sequence number of the segment
+	 * @return The path to the segment
+	 */
+	private Path segment(long seq)
+	{
+		return dir.resolve(String.format("outbox-%020d.log", seq));
+	}
+
+	/**
+	 * Opens a segment for appending, creating it if necessary.
+	 * 
+	 * @param seq The sequence number of the segment
+	 * @return A channel to the segment
+	 * @throws IOException If the segment could not be opened
+	 */
+	private FileChannel openSegment(long seq) throws IOException
+	{
+		return FileChannel.open(segment(seq), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+}
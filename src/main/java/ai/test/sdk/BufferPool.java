@@ -0,0 +1,117 @@
+package ai.test.sdk;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * A bounded pool of reusable byte arrays, shared by every {@code TestAiDriver} in the JVM. Screenshots are several MB each, so allocating fresh arrays for every lookup produces a steady stream
+ * of humongous allocations, which are expensive for G1 to collect when many sessions run in parallel. Arrays are rounded up to a multiple of {@link #CHUNK_SIZE}, so that screenshots of the
+ * same viewport reuse the same arrays.
+ *
+ * <p>
+ * Arrays are pooled by size class, so that requests for streaming chunks are never served with (and never hold on to) arrays sized for a whole screenshot. Chunk sized arrays are kept in
+ * their own pool. Larger arrays are served best fit, and only if they are at most {@link #MAX_SLACK} times larger than requested.
+ * </p>
+ */
+final class BufferPool
+{
+	/**
+	 * The size of the arrays used as scratch space for streaming, and the granularity of all array sizes.
+	 */
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	/**
+	 * The maximum total size of the arrays held by the shared pool, in bytes
+	 */
+	private static final long MAX_POOLED_BYTES = 64L * 1024 * 1024;
+
+	/**
+	 * The largest a pooled array may be, relative to the size requested, to be used for a request. Larger arrays are left for requests they fit better.
+	 */
+	private static final double MAX_SLACK = 1.25;
+
+	/**
+	 * The pool shared by every {@code TestAiDriver} in the JVM
+	 */
+	static final BufferPool SHARED = new BufferPool(MAX_POOLED_BYTES);
+
+	/**
+	 * The maximum total size of the arrays held by this pool, in bytes
+	 */
+	private final long maxPooledBytes;
+
+	/**
+	 * The arrays of {@link #CHUNK_SIZE} bytes available for reuse, most recently released first
+	 */
+	private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+
+	/**
+	 * The larger arrays available for reuse, keyed by size, most recently released first
+	 */
+	private final TreeMap<Integer, ArrayDeque<byte[]>> large = new TreeMap<>();
+
+	/**
+	 * The total size of the arrays in this pool, in bytes
+	 */
+	private long pooledBytes;
+
+	/**
+	 * Constructor, creates a new BufferPool
+	 * 
+	 * @param maxPooledBytes The maximum total size of the arrays held by this pool, in bytes
+	 */
+	BufferPool(long maxPooledBytes)
+	{
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * Takes an array from this pool, allocating a new one if none fit. The array should be returned with {@link #release(byte[])} once it is no longer used.
+	 * 
+	 * @param minSize The minimum size of the array
+	 * @return An array of at least {@code minSize} bytes. Its contents are undefined.
+	 */
+	public synchronized byte[] acquire(int minSize)
+	{
+		int size = (int) Math.min(Integer.MAX_VALUE - 8, ((long) Math.max(minSize, 1) + CHUNK_SIZE - 1) / CHUNK_SIZE * CHUNK_SIZE);
+
+		byte[] b = null;
+		if (size == CHUNK_SIZE)
+			b = chunks.poll();
+		else
+		{
+			Map.Entry<Integer, ArrayDeque<byte[]>> e = large.ceilingEntry(size);
+			if (e != null && e.getKey() <= size * MAX_SLACK)
+			{
+				b = e.getValue().pop();
+				if (e.getValue().isEmpty())
+					large.remove(e.getKey());
+			}
+		}
+
+		if (b == null)
+			return new byte[size];
+
+		pooledBytes -= b.length;
+		return b;
+	}
+
+	/**
+	 * Returns an array to this pool. If the pool is full, the array is left for the garbage collector instead.
+	 * 
+	 * @param b The array, which must have been taken from this pool and must no longer be used by the caller.
+	 */
+	public synchronized void release(byte[] b)
+	{
+		if (pooledBytes + b.length > maxPooledBytes)
+			return;
+
+		if (b.length == CHUNK_SIZE)
+			chunks.push(b);
+		else
+			large.computeIfAbsent(b.length, k -> new ArrayDeque<>()).push(b);
+
+		pooledBytes += b.length;
+	}
+}
@@ -0,0 +1,690 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.StaleElementReferenceException;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.RemoteWebElement;
+import org.openqa.selenium.remote.Response;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ai.test.sdk.ScoringStage.Box;
+import ai.test.sdk.ScoringStage.Candidate;
+
+/**
+ * A snapshot of the geometry and basic properties of every element on the page, which are the candidates considered when matching a bounding box returned by test.ai to an element. Tables are
+ * collected up front so that scoring candidates does not require any calls to the browser.
+ */
+public final class CandidateTable
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(CandidateTable.class);
+
+	/**
+	 * Collects the rect, tag name, visibility, and z-index of every element in the document in a single round trip. Rects are relative to the top left corner of the document, matching
+	 * {@code WebElement.getRect()}.
+	 */
+	private static final String COLLECT_SCRIPT = "var all = document.getElementsByTagName('*'), sx = window.pageXOffset, sy = window.pageYOffset, out = new Array(all.length);" //
+			+ "for (var i = 0; i < all.length; i++) {" //
+			+ "  var e = all[i], r = e.getBoundingClientRect(), s = window.getComputedStyle(e), z = parseInt(s.zIndex, 10);" //
+			+ "  out[i] = [e, r.left + sx, r.top + sy, r.width, r.height, e.tagName.toLowerCase(), r.width > 0 && r.height > 0 && s.visibility !== 'hidden' && s.display !== 'none', isNaN(z) ? 0 : z];" //
+			+ "}" //
+			+ "return out;";
+
+	/**
+	 * Like {@code COLLECT_SCRIPT}, but also descends into open shadow roots and reports the content offset of each same-origin (i)frame. If {@code arguments[0]} is {@code false}, rects are
+	 * relative to the frame's viewport rather than its document, so they can be translated by the frame's offset in its parent.
+	 */
+	private static final String COLLECT_DEEP_SCRIPT = "var top = arguments[0], sx = top ? window.pageXOffset : 0, sy = top ? window.pageYOffset : 0, out = [], frames = [];" //
+			+ "var visit = function(root) {" //
+			+ "  var all = root.querySelectorAll('*');" //
+			+ "  for (var i = 0; i < all.length; i++) {" //
+			+ "    var e = all[i], r = e.getBoundingClientRect(), s = window.getComputedStyle(e), z = parseInt(s.zIndex, 10), t = e.tagName.toLowerCase();" //
+			+ "    out.push([e, r.left + sx, r.top + sy, r.width, r.height, t, r.width > 0 && r.height > 0 && s.visibility !== 'hidden' && s.display !== 'none', isNaN(z) ? 0 : z]);" //
+			+ "    if (t === 'iframe' || t === 'frame') {" //
+			+ "      try { if (e.contentDocument) frames.push([e, r.left + sx + e.clientLeft + parseFloat(s.paddingLeft), r.top + sy + e.clientTop + parseFloat(s.paddingTop)]); } catch (x) {}" //
+			+ "    }" //
+			+ "    if (e.shadowRoot) visit(e.shadowRoot);" //
+			+ "  }" //
+			+ "};" //
+			+ "visit(document);" //
+			+ "return { elements: out, frames: frames };";
+
+	/**
+	 * The maximum number of frames to descend into when collecting candidates in deep mode. Each frame costs three round trips to the browser.
+	 */
+	private static final int MAX_FRAMES = 10;
+
+	/**
+	 * The maximum depth of nested frames to descend into when collecting candidates in deep mode.
+	 */
+	private static final int MAX_FRAME_DEPTH = 3;
+
+	/**
+	 * The width and height of each cell in the spatial index, in pixels.
+	 */
+	private static final int CELL_SIZE = 128;
+
+	/**
+	 * Elements spanning more than this many cells are not added to individual cells of the spatial index, and are instead checked on every query.
+	 */
+	private static final int MAX_CELLS = 64;
+
+	/**
+	 * The elements in this table, in document order. Entries are {@code null} for tables loaded from a recording.
+	 */
+	private final WebElement[] elements;
+
+	/**
+	 * The x coordinate of each element
+	 */
+	private final int[] x;
+
+	/**
+	 * The y coordinate of each element
+	 */
+	private final int[] y;
+
+	/**
+	 * The width of each element
+	 */
+	private final int[] width;
+
+	/**
+	 * The height of each element
+	 */
+	private final int[] height;
+
+	/**
+	 * The tag name of each element. Entries may be {@code null} if the tag name could not be determined.
+	 */
+	private final String[] tagNames;
+
+	/**
+	 * Indicates whether each element is displayed
+	 */
+	private final boolean[] displayed;
+
+	/**
+	 * The computed z-index of each element
+	 */
+	private final int[] zIndex;
+
+	/**
+	 * Maps each cell of the spatial index to the indices of the elements which overlap it. Lazily built by {@link #containing(double, double)}.
+	 */
+	private Map<Long, List<Integer>> cells;
+
+	/**
+	 * The indices of elements which span too many cells to be added to {@code cells}.
+	 */
+	private List<Integer> large;
+
+	/**
+	 * Constructor, creates a new, empty CandidateTable with space for {@code size} elements.
+	 * 
+	 * @param size The number of elements in the table
+	 */
+	private CandidateTable(int size)
+	{
+		elements = new WebElement[size];
+		x = new int[size];
+		y = new int[size];
+		width = new int[size];
+		height = new int[size];
+		tagNames = new String[size];
+		displayed = new boolean[size];
+		zIndex = new int[size];
+	}
+
+	/**
+	 * Collects a {@code CandidateTable} from the current page. This uses a single injected script if possible, falling back to querying each element individually if the browser rejects the
+	 * script.
+	 * 
+	 * @param driver The driver to use
+	 * @param deep Set {@code true} to also collect elements in open shadow roots and same-origin (i)frames.
+	 * @return A {@code CandidateTable} of every element on the current page.
+	 */
+	static CandidateTable collect(RemoteWebDriver driver, boolean deep)
+	{
+		return collect(driver, deep, 1, null);
+	}
+
+	/**
+	 * Collects a {@code CandidateTable} from the current page. This uses a single injected script if possible, falling back to querying each element individually if the browser rejects the
+	 * script. When querying each element, up to {@code parallelism} queries are sent at once.
+	 * 
+	 * @param driver The driver to use
+	 * @param deep Set {@code true} to also collect elements in open shadow roots and same-origin (i)frames.
+	 * @param parallelism The maximum number of element queries to send at once. Set 1 to query elements one at a time.
+	 * @param executor Runs the element queries when {@code parallelism} is greater than 1
+	 * @return A {@code CandidateTable} of every element on the current page.
+	 */
+	static CandidateTable collect(RemoteWebDriver driver, boolean deep, int parallelism, ExecutorService executor)
+	{
+		try
+		{
+			return fromScriptResult(deep ? collectDeep(driver) : (List<?>) driver.executeScript(COLLECT_SCRIPT));
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to collect candidates with a script, falling back to querying each element: {}", e.getMessage());
+		}
+
+		List<WebElement> elements = driver.findElementsByXPath("//*");
+		return parallelism > 1 && elements.stream().allMatch(RemoteWebElement.class::isInstance) ? fromElements(driver, elements, parallelism, executor) : fromElements(elements);
+	}
+
+	/**
+	 * Collects the rows of a {@code CandidateTable} from the page, its open shadow roots, and a bounded number of same-origin (i)frames. Elements found in frames are wrapped in a
+	 * {@link FramedWebElement} and their rects are translated into page coordinates. Screenshots are always of the top-level browsing context, so the driver is switched to it first, and left
+	 * there.
+	 * 
+	 * @param driver The driver to use
+	 * @return The rows of the {@code CandidateTable}, in the format returned by {@code COLLECT_SCRIPT}.
+	 */
+	private static List<?> collectDeep(RemoteWebDriver driver)
+	{
+		driver.switchTo().defaultContent();
+		Map<?, ?> top = (Map<?, ?>) driver.executeScript(COLLECT_DEEP_SCRIPT, true);
+
+		List<Object> rows = new ArrayList<>((List<?>) top.get("elements"));
+		collectFrames(driver, (List<?>) top.get("frames"), List.of(), 0, 0, rows, new int[] { MAX_FRAMES });
+
+		return rows;
+	}
+
+	/**
+	 * Descends into each of the specified frames and collects their elements, translated into page coordinates. The driver is returned to the current browsing context afterwards.
+	 * 
+	 * @param driver The driver to use
+	 * @param frames The frames to descend into, as reported by {@code COLLECT_DEEP_SCRIPT}
+	 * @param path The frame elements which were switched into to reach {@code frames}, outermost first
+	 * @param dx The x offset of the current browsing context, relative to the page
+	 * @param dy The y offset of the current browsing context, relative to the page
+	 * @param rows The rows to add collected elements to
+	 * @param budget The number of frames which may still be descended into, as a single element array. This is decremented for each frame.
+	 */
+	private static void collectFrames(RemoteWebDriver driver, List<?> frames, List<WebElement> path, double dx, double dy, List<Object> rows, int[] budget)
+	{
+		for (Object o : frames)
+		{
+			if (budget[0]-- <= 0)
+			{
+				log.debug("Reached the limit of {} frames, skipping the remaining frames", MAX_FRAMES);
+				return;
+			}
+
+			List<?> f = (List<?>) o;
+			double fx = dx + ((Number) f.get(1)).doubleValue(), fy = dy + ((Number) f.get(2)).doubleValue();
+
+			List<WebElement> framePath = new ArrayList<>(path);
+			framePath.add((WebElement) f.get(0));
+
+			boolean switched = false;
+			try
+			{
+				driver.switchTo().frame((WebElement) f.get(0));
+				switched = true;
+
+				Map<?, ?> r = (Map<?, ?>) driver.executeScript(COLLECT_DEEP_SCRIPT, false);
+				for (Object e : (List<?>) r.get("elements"))
+				{
+					List<Object> row = new ArrayList<>((List<?>) e);
+					row.set(0, new FramedWebElement(driver, (WebElement) row.get(0), framePath, (int) fx, (int) fy));
+					row.set(1, ((Number) row.get(1)).doubleValue() + fx);
+					row.set(2, ((Number) row.get(2)).doubleValue() + fy);
+
+					rows.add(row);
+				}
+
+				if (framePath.size() < MAX_FRAME_DEPTH)
+					collectFrames(driver, (List<?>) r.get("frames"), framePath, fx, fy, rows, budget);
+			}
+			catch (Throwable e)
+			{
+				log.debug("Unable to collect candidates from frame {}: {}", f.get(0), e.getMessage());
+			}
+			finally
+			{
+				if (switched)
+					driver.switchTo().parentFrame();
+			}
+		}
+	}
+
+	/**
+	 * Builds a {@code CandidateTable} from the result of {@code COLLECT_SCRIPT}.
+	 * 
+	 * @param rows The result of running {@code COLLECT_SCRIPT}
+	 * @return The {@code CandidateTable}
+	 */
+	static CandidateTable fromScriptResult(List<?> rows)
+	{
+		CandidateTable t = new CandidateTable(rows.size());
+		for (int i = 0; i < rows.size(); i++)
+		{
+			List<?> row = (List<?>) rows.get(i);
+
+			t.elements[i] = (WebElement) row.get(0);
+			t.x[i] = ((Number) row.get(1)).intValue();
+			t.y[i] = ((Number) row.get(2)).intValue();
+			t.width[i] = ((Number) row.get(3)).intValue();
+			t.height[i] = ((Number) row.get(4)).intValue();
+			t.tagNames[i] = (String) row.get(5);
+			t.displayed[i] = Boolean.TRUE.equals(row.get(6));
+			t.zIndex[i] = ((Number) row.get(7)).intValue();
+		}
+
+		return t;
+	}
+
+	/**
+	 * Builds a {@code CandidateTable} by querying each element for its rect and tag name. Stale elements are given an empty rect, which excludes them from matching. Any other failure is thrown.
+	 * 
+	 * @param elements The elements to use, in document order
+	 * @return The {@code CandidateTable}
+	 */
+	static CandidateTable fromElements(List<WebElement> elements)
+	{
+		CandidateTable t = new CandidateTable(elements.size());
+		for (int i = 0; i < elements.size(); i++)
+		{
+			WebElement e = t.elements[i] = elements.get(i);
+			try
+			{
+				t.setRect(i, e.getRect());
+				if (t.width[i] > 0 && t.height[i] > 0) // elements with no area can never be matched, so skip the round trip
+					t.tagNames[i] = String.valueOf(e.getTagName()).toLowerCase(Locale.ROOT); // matching COLLECT_SCRIPT
+			}
+			catch (StaleElementReferenceException x)
+			{
+				log.debug("Stale reference to element '{}', excluding it from matching", e);
+			}
+		}
+
+		return t;
+	}
+
+	/**
+	 * Builds a {@code CandidateTable} by querying each element for its rect and tag name, with up to {@code parallelism} queries in flight at once. Queries are sent directly through the
+	 * driver's {@code CommandExecutor}. The result is the same as {@link #fromElements(List)}. Stale elements are given an empty rect, which excludes them from matching. Any other failure stops the
+	 * remaining queries, and is thrown.
+	 * 
+	 * @param driver The driver the elements belong to
+	 * @param elements The elements to use, in document order. These must all be {@code RemoteWebElement}s.
+	 * @param parallelism The maximum number of queries to send at once
+	 * @param executor Runs the queries
+	 * @return The {@code CandidateTable}
+	 */
+	static CandidateTable fromElements(RemoteWebDriver driver, List<WebElement> elements, int parallelism, ExecutorService executor)
+	{
+		CandidateTable t = new CandidateTable(elements.size());
+		AtomicInteger next = new AtomicInteger();
+
+		List<Future<?>> workers = new ArrayList<>();
+		for (int w = 0; w < Math.min(parallelism, elements.size()); w++)
+			workers.add(executor.submit(() -> {
+				try
+				{
+					for (int i; (i = next.getAndIncrement()) < elements.size();)
+					{
+						WebElement e = t.elements[i] = elements.get(i);
+						try
+						{
+							Map<?, ?> r = (Map<?, ?>) execute(driver, DriverCommand.GET_ELEMENT_RECT, e);
+							t.setRect(i, new Rectangle(intValue(r.get("x")), intValue(r.get("y")), intValue(r.get("height")), intValue(r.get("width"))));
+							if (t.width[i] > 0 && t.height[i] > 0)
+								t.tagNames[i] = String.valueOf(execute(driver, DriverCommand.GET_ELEMENT_TAG_NAME, e)).toLowerCase(Locale.ROOT);
+						}
+						catch (StaleElementReferenceException x)
+						{
+							log.debug("Stale reference to element '{}', excluding it from matching", e);
+						}
+					}
+				}
+				catch (RuntimeException x)
+				{
+					next.set(elements.size()); // stops the other workers, rather than waiting for this one to be reached below
+					throw x;
+				}
+			}));
+
+		try
+		{
+			for (Future<?> f : workers)
+				f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new WebDriverException("Interrupted while collecting candidates", e);
+		}
+		catch (ExecutionException e)
+		{
+			throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new WebDriverException(e.getCause());
+		}
+		finally
+		{
+			next.set(elements.size()); // stops the remaining workers if one failed
+		}
+
+		return t;
+	}
+
+	/**
+	 * Sends a command about an element directly through the driver's {@code CommandExecutor}, so that it can be sent from any thread.
+	 * 
+	 * @param driver The driver the element belongs to
+	 * @param command The name of the command, from {@code DriverCommand}
+	 * @param e The element
+	 * @return The value returned by the command
+	 * @throws WebDriverException If the command failed, e.g. {@code StaleElementReferenceException} if the element is stale.
+	 */
+	private static Object execute(RemoteWebDriver driver, String command, WebElement e)
+	{
+		long start = System.currentTimeMillis();
+
+		Response r;
+		try
+		{
+			r = driver.getCommandExecutor().execute(new Command(driver.getSessionId(), command, Map.of("id", ((RemoteWebElement) e).getId())));
+		}
+		catch (IOException x)
+		{
+			throw new WebDriverException(x);
+		}
+
+		return driver.getErrorHandler().throwIfResponseFailed(r, System.currentTimeMillis() - start).getValue();
+	}
+
+	/**
+	 * Converts a number returned by the browser to an {@code int}.
+	 * 
+	 * @param o The number
+	 * @return {@code o} as an {@code int}, or 0 if it is not a number.
+	 */
+	private static int intValue(Object o)
+	{
+		return o instanceof Number ? ((Number) o).intValue() : 0;
+	}
+
+	/**
+	 * Sets the rect of an element in this table. Elements with a non-empty rect are considered displayed.
+	 * 
+	 * @param i The index of the element
+	 * @param r The rect of the element
+	 */
+	void setRect(int i, Rectangle r)
+	{
+		x[i] = r.x;
+		y[i] = r.y;
+		width[i] = r.width;
+		height[i] = r.height;
+		displayed[i] = r.width > 0 && r.height > 0;
+	}
+
+	/**
+	 * Loads a {@code CandidateTable} which was previously recorded with {@link #toJson()}. Loaded tables have no associated {@code WebElement}s, which makes them suitable for evaluating
+	 * scoring stages offline.
+	 * 
+	 * @param jo The recorded table
+	 * @return The {@code CandidateTable}
+	 */
+	public static CandidateTable fromJson(JsonObject jo)
+	{
+		JsonArray rows = jo.getAsJsonArray("candidates");
+
+		CandidateTable t = new CandidateTable(rows.size());
+		for (int i = 0; i < rows.size(); i++)
+		{
+			JsonArray row = rows.get(i).getAsJsonArray();
+
+			t.x[i] = row.get(0).getAsInt();
+			t.y[i] = row.get(1).getAsInt();
+			t.width[i] = row.get(2).getAsInt();
+			t.height[i] = row.get(3).getAsInt();
+			t.tagNames[i] = row.get(4).isJsonNull() ? null : row.get(4).getAsString();
+			t.displayed[i] = row.get(5).getAsBoolean();
+			t.zIndex[i] = row.get(6).getAsInt();
+		}
+
+		return t;
+	}
+
+	/**
+	 * Ranks the candidates in this table against a bounding box by running them through each of the specified scoring stages in order. This does not make any calls to the browser, so it can
+	 * be used to replay tables recorded with {@link #toJson()} offline.
+	 * 
+	 * @param box The bounding box to match, in page coordinates
+	 * @param stages The scoring stages to apply
+	 * @return The ranked candidates, best first.
+	 */
+	public List<Candidate> rank(Box box, List<ScoringStage> stages)
+	{
+		return MatchUtils.rank(this, box, stages);
+	}
+
+	/**
+	 * Records this {@code CandidateTable} as json, so that it can be loaded with {@link #fromJson(JsonObject)}.
+	 * 
+	 * @return This table, as json.
+	 */
+	public JsonObject toJson()
+	{
+		JsonArray rows = new JsonArray(size());
+		for (int i = 0; i < size(); i++)
+		{
+			JsonArray row = new JsonArray(7);
+			row.add(x[i]);
+			row.add(y[i]);
+			row.add(width[i]);
+			row.add(height[i]);
+			row.add(tagNames[i]);
+			row.add(displayed[i]);
+			row.add(zIndex[i]);
+
+			rows.add(row);
+		}
+
+		JsonObject jo = new JsonObject();
+		jo.add("candidates", rows);
+
+		return jo;
+	}
+
+	/**
+	 * Gets the number of elements in this table.
+	 * 
+	 * @return The number of elements in this table.
+	 */
+	public int size()
+	{
+		return elements.length;
+	}
+
+	/**
+	 * Gets an element in this table.
+	 * 
+	 * @param i The index of the element
+	 * @return The element at index {@code i}, or {@code null} if this table was loaded from a recording.
+	 */
+	WebElement element(int i)
+	{
+		return elements[i];
+	}
+
+	/**
+	 * Gets the x coordinate of an element, relative to the upper left corner of the page.
+	 * 
+	 * @param i The index of the element
+	 * @return The x coordinate of the element
+	 */
+	public int x(int i)
+	{
+		return x[i];
+	}
+
+	/**
+	 * Gets the y coordinate of an element, relative to the upper left corner of the page.
+	 * 
+	 * @param i The index of the element
+	 * @return The y coordinate of the element
+	 */
+	public int y(int i)
+	{
+		return y[i];
+	}
+
+	/**
+	 * Gets the width of an element.
+	 * 
+	 * @param i The index of the element
+	 * @return The width of the element
+	 */
+	public int width(int i)
+	{
+		return width[i];
+	}
+
+	/**
+	 * Gets the height of an element.
+	 * 
+	 * @param i The index of the element
+	 * @return The height of the element
+	 */
+	public int height(int i)
+	{
+		return height[i];
+	}
+
+	/**
+	 * Gets the tag name of an element.
+	 * 
+	 * @param i The index of the element
+	 * @return The lower case tag name of the element, or {@code null} if it is not known.
+	 */
+	public String tagName(int i)
+	{
+		return tagNames[i];
+	}
+
+	/**
+	 * Determines if an element is displayed.
+	 * 
+	 * @param i The index of the element
+	 * @return {@code true} if the element is displayed.
+	 */
+	public boolean isDisplayed(int i)
+	{
+		return displayed[i];
+	}
+
+	/**
+	 * Gets the computed z-index of an element.
+	 * 
+	 * @param i The index of the element
+	 * @return The computed z-index of the element, or 0 if it is {@code auto}.
+	 */
+	public int zIndex(int i)
+	{
+		return zIndex[i];
+	}
+
+	/**
+	 * Finds the elements whose rect contains the specified point. The first call builds a spatial index of this table in O(n) time, after which each call only considers the elements near
+	 * the point.
+	 * 
+	 * @param px The x coordinate of the point
+	 * @param py The y coordinate of the point
+	 * @return The indices of the elements which contain the point, in document order.
+	 */
+	synchronized List<Integer> containing(double px, double py)
+	{
+		if (cells == null)
+			index();
+
+		List<Integer> l = new ArrayList<>();
+		for (int i : cells.getOrDefault(cellKey(Math.floorDiv((int) Math.floor(px), CELL_SIZE), Math.floorDiv((int) Math.floor(py), CELL_SIZE)), List.of()))
+			if (contains(i, px, py))
+				l.add(i);
+
+		for (int i : large)
+			if (contains(i, px, py))
+				l.add(i);
+
+		l.sort(null);
+		return l;
+	}
+
+	/**
+	 * Builds the spatial index used by {@link #containing(double, double)}.
+	 */
+	private void index()
+	{
+		cells = new HashMap<>();
+		large = new ArrayList<>();
+
+		for (int i = 0; i < size(); i++)
+		{
+			if (width[i] <= 0 || height[i] <= 0)
+				continue;
+
+			int cx = Math.floorDiv(x[i], CELL_SIZE), cy = Math.floorDiv(y[i], CELL_SIZE), cxx = Math.floorDiv(x[i] + width[i], CELL_SIZE), cyy = Math.floorDiv(y[i] + height[i], CELL_SIZE);
+			if ((long) (cxx - cx + 1) * (cyy - cy + 1) > MAX_CELLS)
+			{
+				large.add(i);
+				continue;
+			}
+
+			for (int a = cx; a <= cxx; a++)
+				for (int b = cy; b <= cyy; b++)
+					cells.computeIfAbsent(cellKey(a, b), k -> new ArrayList<>()).add(i);
+		}
+	}
+
+	/**
+	 * Determines if the rect of an element strictly contains the specified point.
+	 * 
+	 * @param i The index of the element
+	 * @param px The x coordinate of the point
+	 * @param py The y coordinate of the point
+	 * @return {@code true} if the rect of the element at index {@code i} contains the point.
+	 */
+	private boolean contains(int i, double px, double py)
+	{
+		return px > x[i] && px < x[i] + width[i] && py > y[i] && py < y[i] + height[i];
+	}
+
+	/**
+	 * Computes the key of a cell in the spatial index.
+	 * 
+	 * @param cx The column of the cell
+	 * @param cy The row of the cell
+	 * @return The key of the cell
+	 */
+	private static long cellKey(int cx, int cy)
+	{
+		return (long) cx << 32 | cy & 0xffffffffL;
+	}
+}
@@ -0,0 +1,172 @@
+package ai.test.sdk;
+
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import ai.test.sdk.PerformanceStats.Counter;
+
+/**
+ * Reuses the last screenshot and page source captured from the browser while the page has not changed, so that back-to-back lookups on an unchanged screen only pay for one capture. Entries
+ * are validated with a {@link PageEpoch}, which also picks up navigations and interactions performed through a {@code TestAiDriver}. Screenshots additionally expire after a maximum age, since
+ * not every visual change (e.g. animations, video, or canvas drawing) mutates the DOM. Each validation costs one call to {@code executeScript}, so the cache only pays off where captures are
+ * slower than that, and never where the browser rejects scripts (every lookup misses).
+ *
+ * <p>
+ * At most one screenshot and one page source are held at a time. Concurrent lookups which miss wait for the capture already in progress instead of starting their own.
+ * </p>
+ *
+ * <p>
+ * A screenshot captured as base64 is a third larger than its raw bytes. While screenshots are sent as raw bytes, base64 screenshots are decoded before they are cached, so only the raw bytes are
+ * retained. While they are sent in forms, the base64 String is retained instead, since decoding it would mean encoding it again for every lookup.
+ * </p>
+ */
+final class CaptureCache
+{
+	/**
+	 * Used to determine if the page has changed
+	 */
+	private final PageEpoch pageEpoch;
+
+	/**
+	 * Used to count cache hits
+	 */
+	private final PerformanceStats stats;
+
+	/**
+	 * Determines if screenshots are currently sent as raw bytes, and so should be cached decoded.
+	 */
+	private final BooleanSupplier rawScreenshots;
+
+	/**
+	 * The maximum age of a cached screenshot, in nanoseconds
+	 */
+	private final long maxAge;
+
+	/**
+	 * Guards the cached screenshot, and is held while a screenshot is captured.
+	 */
+	private final Object screenshotLock = new Object();
+
+	/**
+	 * Guards the cached page source, and is held while a page source is fetched.
+	 */
+	private final Object pageSourceLock = new Object();
+
+	/**
+	 * The cached screenshot, or {@code null} if there is none. The cache holds its own reference to this screenshot, see {@link Screenshot#retain()}.
+	 */
+	private Screenshot screenshot;
+
+	/**
+	 * The epoch of the page when {@code screenshot} was captured
+	 */
+	private long screenshotEpoch;
+
+	/**
+	 * The value of {@code System.nanoTime()} when {@code screenshot} was captured
+	 */
+	private long screenshotTime;
+
+	/**
+	 * The cached page source, or {@code null} if there is none.
+	 */
+	private String pageSource;
+
+	/**
+	 * The epoch of the page when {@code pageSource} was fetched
+	 */
+	private long pageSourceEpoch;
+
+	/**
+	 * Constructor, creates a new CaptureCache
+	 * 
+	 * @param pageEpoch Used to determine if the page has changed
+	 * @param stats Used to count cache hits
+	 * @param rawScreenshots Determines if screenshots are currently sent as raw bytes, and so should be cached decoded.
+	 * @param maxAgeMillis The maximum age of a cached screenshot, in milliseconds
+	 */
+	CaptureCache(PageEpoch pageEpoch, PerformanceStats stats, BooleanSupplier rawScreenshots, long maxAgeMillis)
+	{
+		this.pageEpoch = pageEpoch;
+		this.stats = stats;
+		this.rawScreenshots = rawScreenshots;
+		maxAge = maxAgeMillis * 1000 * 1000;
+	}
+
+	/**
+	 * Gets a screenshot of the current page, reusing the cached one if the page has not changed since it was captured.
+	 * 
+	 * @param capture Captures a new screenshot
+	 * @param toFile Set {@code true} if the screenshot must be backed by a file. A cached screenshot held on the heap is not reused in this case.
+	 * @return A screenshot of the current page. The caller must close this when it is done with it.
+	 */
+	public Screenshot screenshot(Supplier<Screenshot> capture, boolean toFile)
+	{
+		synchronized (screenshotLock)
+		{
+			long epoch = pageEpoch.current(), now = System.nanoTime(); // read before capturing, so changes made during the capture invalidate it
+			if (screenshot != null && screenshotEpoch == epoch && now - screenshotTime < maxAge && (!toFile || screenshot.inFile()))
+			{
+				stats.increment(Counter.CAPTURE_HITS);
+				return screenshot.retain();
+			}
+
+			Screenshot s = capture.get();
+			if (rawScreenshots.getAsBoolean())
+				s = s.decoded();
+
+			if (screenshot != null)
+				screenshot.close();
+
+			screenshot = s.retain();
+			screenshotEpoch = epoch;
+			screenshotTime = now;
+
+			return s;
+		}
+	}
+
+	/**
+	 * Gets the source of the current page, reusing the cached one if the page has not changed since it was fetched.
+	 * 
+	 * @param fetch Fetches the page source, returning {@code null} if it could not be fetched.
+	 * @return The source of the current page, or {@code null} if it could not be fetched.
+	 */
+	public String pageSource(Supplier<String> fetch)
+	{
+		synchronized (pageSourceLock)
+		{
+			long epoch = pageEpoch.current();
+			if (pageSource != null && pageSourceEpoch == epoch)
+			{
+				stats.increment(Counter.CAPTURE_HITS);
+				return pageSource;
+			}
+
+			String s = fetch.get();
+			pageSource = s;
+			pageSourceEpoch = epoch;
+
+			return s;
+		}
+	}
+
+	/**
+	 * Discards the cached screenshot and page source.
+	 */
+	public void invalidate()
+	{
+		synchronized (screenshotLock)
+		{
+			if (screenshot != null)
+				screenshot.close();
+
+			screenshot = null;
+		}
+
+		synchronized (pageSourceLock)
+		{
+			pageSource = null;
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+import okhttp3.Response;
+
+/**
+ * Chooses how screenshots are sent to the classify endpoint: as raw bytes in a multipart request, or base64 encoded in a form. Multipart requests are used if streaming uploads are enabled, or
+ * if the server advertised support for them during checkin. If the server rejects a multipart request as unsupported, the request is resent as a form, and forms are used for the rest of the
+ * run, whatever streaming uploads are set to.
+ */
+final class ClassifyTransport
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(ClassifyTransport.class);
+
+	/**
+	 * Indicates whether screenshots should be streamed to test.ai as raw bytes in a multipart request, instead of as base64 in a form.
+	 */
+	private volatile boolean streamingUpload;
+
+	/**
+	 * Indicates whether the server advertised support for multipart classify requests during checkin. Screenshots are sent as raw bytes in a multipart request when this is set, even if
+	 * streaming uploads are disabled.
+	 */
+	private volatile boolean multipartClassify;
+
+	/**
+	 * Indicates whether the server rejected a multipart classify request as unsupported. Forms are always used once this is set.
+	 */
+	private volatile boolean multipartRejected;
+
+	/**
+	 * Enables streaming uploads. When enabled, multipart requests are used unless the server has rejected one.
+	 * 
+	 * @param streamingUpload Set {@code true} to enable streaming uploads.
+	 * @return This {@code ClassifyTransport}, for chaining convenience.
+	 */
+	public ClassifyTransport setStreamingUpload(boolean streamingUpload)
+	{
+		this.streamingUpload = streamingUpload;
+		return this;
+	}
+
+	/**
+	 * Determines if streaming uploads are enabled. Screenshots should be captured to a file when they are.
+	 * 
+	 * @return {@code true} if streaming uploads are enabled
+	 */
+	public boolean streamingUpload()
+	{
+		return streamingUpload;
+	}
+
+	/**
+	 * Reads the classify formats the server advertised in its response to checkin.
+	 * 
+	 * @param checkin The response to checkin, as json.
+	 */
+	public void checkin(JsonObject checkin)
+	{
+		if (JsonUtils.arrayContains(checkin, "classify_formats", "multipart"))
+		{
+			multipartClassify = true;
+			log.debug("The server accepts multipart classify requests");
+		}
+	}
+
+	/**
+	 * Determines if classify requests are currently sent as multipart requests.
+	 * 
+	 * @return {@code true} if screenshots are sent as raw bytes, or {@code false} if they are sent base64 encoded in a form.
+	 */
+	public boolean multipart()
+	{
+		return !multipartRejected && (streamingUpload || multipartClassify);
+	}
+
+	/**
+	 * Sends a classify request in the current transport, falling back to a form if the server rejects a multipart request as unsupported.
+	 * 
+	 * @param sender Sends the request
+	 * @return The response from the server
+	 * @throws IOException Network error
+	 */
+	public Response send(Sender sender) throws IOException
+	{
+		boolean multipart = multipart();
+		Response resp = sender.send(multipart);
+		if (multipart && resp.code() == 415)
+		{
+			resp.close();
+			multipartRejected = true;
+			log.info("The server does not accept multipart classify requests, falling back to forms");
+
+			resp = sender.send(false);
+		}
+
+		return resp;
+	}
+
+	/**
+	 * Sends a classify request in a given transport.
+	 */
+	@FunctionalInterface
+	interface Sender
+	{
+		/**
+		 * Sends a classify request.
+		 * 
+		 * @param multipart Set {@code true} to send the screenshot as raw bytes in a multipart request, or {@code false} to send it base64 encoded in a form.
+		 * @return The response from the server
+		 * @throws IOException Network error
+		 */
+		Response send(boolean multipart) throws IOException;
+	}
+}
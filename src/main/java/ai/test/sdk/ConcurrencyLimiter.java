@@ -0,0 +1,482 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.google.gson.JsonObject;
+
+import okhttp3.Response;
+
+/**
+ * An adaptive limit on the number of concurrent requests to a test.ai server, shared by every endpoint of the server and by every {@code TestAiDriver} in the JVM which talks to it. The
+ * limit is adjusted with AIMD: it grows by about one for each limit's worth of requests which complete without queueing at the server, and shrinks multiplicatively when requests to an
+ * endpoint start queueing at the server, or when the server reports that it is overloaded.
+ *
+ * <p>
+ * Queueing is detected per endpoint, by comparing the median latency of the most recent requests with the median over a longer window. Comparing medians with medians means that a mix of
+ * small and large uploads does not look like queueing, as long as the mix does not change.
+ * </p>
+ *
+ * <p>
+ * Requests over the limit wait in this JVM rather than piling up at the server. Waiting requests are admitted in priority order: blocking requests (e.g. lookups a test is waiting on) ahead
+ * of background requests (e.g. training uploads and prefetches), and otherwise first come, first served.
+ * </p>
+ */
+final class ConcurrencyLimiter
+{
+	/**
+	 * The limiters for each server, keyed by URL
+	 */
+	private static final Map<String, ConcurrencyLimiter> LIMITERS = new ConcurrentHashMap<>();
+
+	/**
+	 * The initial limit. This matches the limit on concurrent requests set on the HTTP client, so that the limiter only holds requests back once the server has shown signs of strain.
+	 */
+	private static final double INITIAL_LIMIT = NetUtils.MAX_REQUESTS_PER_HOST;
+
+	/**
+	 * The lowest the limit may go
+	 */
+	private static final double MIN_LIMIT = 1;
+
+	/**
+	 * The highest the limit may go
+	 */
+	private static final double MAX_LIMIT = 64;
+
+	/**
+	 * Requests to an endpoint are considered to be queueing at the server if their recent median latency exceeds the longer-term median by this factor.
+	 */
+	private static final double TOLERANCE = 2;
+
+	/**
+	 * The factor to shrink the limit by when requests are queueing at the server. This is applied at most once per {@link #RECENT_SAMPLES} requests to each endpoint.
+	 */
+	private static final double LATENCY_BACKOFF = 0.75;
+
+	/**
+	 * The factor to shrink the limit by when the server reports that it is overloaded, or a request fails
+	 */
+	private static final double ERROR_BACKOFF = 0.5;
+
+	/**
+	 * The number of the most recent requests to each endpoint whose median latency is checked for queueing
+	 */
+	private static final int RECENT_SAMPLES = 16;
+
+	/**
+	 * The number of requests to each endpoint whose median latency is considered normal. Older requests are forgotten, so that the limiter adapts if the server permanently slows down.
+	 */
+	private static final int TYPICAL_SAMPLES = 512;
+
+	/**
+	 * Orders waiting requests: blocking before background, then by arrival.
+	 */
+	private static final Comparator<Waiter> PRIORITY = Comparator.comparing((Waiter w) -> w.background).thenComparingLong(w -> w.seq);
+
+	/**
+	 * Guards the state of this limiter
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/**
+	 * The requests waiting to be admitted, in the order they will be admitted
+	 */
+	private final PriorityQueue<Waiter> waiters = new PriorityQueue<>(PRIORITY);
+
+	/**
+	 * The recent latencies of each endpoint, keyed by endpoint name
+	 */
+	private final Map<String, LatencyWindow> latencies = new HashMap<>();
+
+	/**
+	 * Records how long requests waited to be admitted, in nanoseconds.
+	 */
+	private final LatencyHistogram queueDelay = new LatencyHistogram();
+
+	/**
+	 * The current limit
+	 */
+	private double limit;
+
+	/**
+	 * The number of requests in flight
+	 */
+	private int inFlight;
+
+	/**
+	 * The number of requests which have waited, used to order waiters which arrived at the same priority
+	 */
+	private long arrivals;
+
+	/**
+	 * The number of requests which completed with the server overloaded
+	 */
+	private long overloads;
+
+	/**
+	 * Constructor, creates a new ConcurrencyLimiter
+	 * 
+	 * @param initialLimit The initial limit
+	 */
+	ConcurrencyLimiter(double initialLimit)
+	{
+		limit = initialLimit;
+	}
+
+	/**
+	 * Gets the limiter for a server, creating it if necessary.
+	 * 
+	 * @param url The base URL of the server
+	 * @return The limiter for {@code url}
+	 */
+	public static ConcurrencyLimiter forServer(String url)
+	{
+		return LIMITERS.computeIfAbsent(url, k -> new ConcurrencyLimiter(INITIAL_LIMIT));
+	}
+
+	/**
+	 * Sends a request once this limiter admits it, and adjusts the limit based on its outcome. Responses which report that the server is overloaded, and failures to connect to or read from
+	 * the server, shrink the limit. Requests which are cancelled or interrupted (e.g. because a prefetch was abandoned) give up their slot without adjusting the limit, since they say nothing
+	 * about the server.
+	 * 
+	 * @param endpoint The endpoint the request is sent to
+	 * @param background Set {@code true} if nothing is blocked waiting on the request, so it should yield to requests which are.
+	 * @param call Sends the request
+	 * @return The response from the server
+	 * @throws IOException Network error, or if this thread was interrupted while waiting to send the request.
+	 */
+	public Response execute(String endpoint, boolean background, Callable<Response> call) throws IOException
+	{
+		try
+		{
+			acquire(background);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting to send a request to " + endpoint);
+		}
+
+		boolean adjust = false, overloaded = false;
+		long start = System.nanoTime();
+		try
+		{
+			Response r = call.call();
+			adjust = true;
+			overloaded = r.code() == 429 || r.code() == 502 || r.code() == 503 || r.code() == 504;
+
+			return r;
+		}
+		catch (IOException e)
+		{
+			adjust = overloaded = !cancelled(e);
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			throw e;
+		}
+		catch (Exception e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			if (adjust)
+				release(endpoint, System.nanoTime() - start, overloaded);
+			else
+				cancel();
+		}
+	}
+
+	/**
+	 * Determines if a request failed because it was cancelled or interrupted, rather than because of the server.
+	 * 
+	 * @param e The exception the request failed with
+	 * @return {@code true} if the request was cancelled or interrupted
+	 */
+	private static boolean cancelled(IOException e)
+	{
+		return e instanceof InterruptedIOException && !(e instanceof SocketTimeoutException) || Thread.currentThread().isInterrupted() || "Canceled".equals(e.getMessage());
+	}
+
+	/**
+	 * Waits until a request may be sent. Every successful call must be followed by a call to {@link #release(String, long, boolean)} or {@link #cancel()}.
+	 * 
+	 * @param background Set {@code true} if nothing is blocked waiting on the request, so it should yield to blocking requests.
+	 * @throws InterruptedException If this thread was interrupted while waiting
+	 */
+	public void acquire(boolean background) throws InterruptedException
+	{
+		long start = System.nanoTime();
+
+		lock.lockInterruptibly();
+		try
+		{
+			if (waiters.isEmpty() && inFlight < (int) limit)
+				inFlight++;
+			else
+			{
+				Waiter w = new Waiter(background, arrivals++, lock.newCondition());
+				waiters.add(w);
+				try
+				{
+					while (!w.admitted)
+						w.turn.await();
+				}
+				catch (InterruptedException e)
+				{
+					if (w.admitted) // too late, pass the slot on
+					{
+						inFlight--;
+						admit();
+					}
+					else
+						waiters.remove(w);
+
+					throw e;
+				}
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		queueDelay.record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Marks a request as complete, and adjusts the limit based on its outcome.
+	 * 
+	 * @param endpoint The endpoint the request was sent to
+	 * @param latencyNanos The latency of the request, in nanoseconds
+	 * @param overloaded Set {@code true} if the request failed, or the server reported that it is overloaded.
+	 */
+	public void release(String endpoint, long latencyNanos, boolean overloaded)
+	{
+		lock.lock();
+		try
+		{
+			inFlight--;
+
+			if (overloaded)
+			{
+				overloads++;
+				limit = Math.max(MIN_LIMIT, limit * ERROR_BACKOFF);
+			}
+			else if (latencies.computeIfAbsent(endpoint, k -> new LatencyWindow()).add(latencyNanos))
+				limit = Math.max(MIN_LIMIT, limit * LATENCY_BACKOFF);
+			else
+				limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+
+			admit();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Marks a request as complete without adjusting the limit, for requests which were cancelled or interrupted.
+	 */
+	public void cancel()
+	{
+		lock.lock();
+		try
+		{
+			inFlight--;
+			admit();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Gets the current limit.
+	 * 
+	 * @return The current limit
+	 */
+	int limit()
+	{
+		lock.lock();
+		try
+		{
+			return (int) limit;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Admits waiting requests in priority order, for as long as there is room under the limit. The lock must be held.
+	 */
+	private void admit()
+	{
+		while (inFlight < (int) limit && !waiters.isEmpty())
+		{
+			Waiter w = waiters.poll();
+			w.admitted = true;
+			inFlight++;
+			w.turn.signal();
+		}
+	}
+
+	/**
+	 * Creates a report of the state of this limiter.
+	 * 
+	 * @return The report, as json.
+	 */
+	public JsonObject report()
+	{
+		JsonObject jo = new JsonObject();
+		lock.lock();
+		try
+		{
+			jo.addProperty("limit", (int) limit);
+			jo.addProperty("in_flight", inFlight);
+			jo.addProperty("overloads", overloads);
+
+			JsonObject medians = new JsonObject();
+			latencies.forEach((k, v) -> medians.addProperty(k, v.median(v.typical()) / (double) TimeUnit.MILLISECONDS.toNanos(1)));
+			jo.add("median_latency_ms", medians);
+		}
+		finally
+		{
+			lock.unlock();
+		}
+
+		jo.add("queue_delay_ms", PerformanceStats.summarize(queueDelay.snapshot()));
+		return jo;
+	}
+
+	/**
+	 * Creates a report of the state of every limiter in the JVM.
+	 * 
+	 * @return The report, as json, keyed by the URL of each server.
+	 */
+	public static JsonObject reportAll()
+	{
+		JsonObject jo = new JsonObject();
+		LIMITERS.forEach((k, v) -> jo.add(k, v.report()));
+
+		return jo;
+	}
+
+	/**
+	 * A request waiting to be admitted.
+	 */
+	private static class Waiter
+	{
+		/**
+		 * Indicates if the request is a background request
+		 */
+		final boolean background;
+
+		/**
+		 * The order in which the request arrived
+		 */
+		final long seq;
+
+		/**
+		 * Signalled when the request is admitted
+		 */
+		final Condition turn;
+
+		/**
+		 * Indicates if the request has been admitted. Guarded by the limiter's lock.
+		 */
+		boolean admitted;
+
+		/**
+		 * Constructor, creates a new Waiter
+		 * 
+		 * @param background Set {@code true} if the request is a background request
+		 * @param seq The order in which the request arrived
+		 * @param turn Signalled when the request is admitted
+		 */
+		Waiter(boolean background, long seq, Condition turn)
+		{
+			this.background = background;
+			this.seq = seq;
+			this.turn = turn;
+		}
+	}
+
+	/**
+	 * The latencies of the most recent requests to an endpoint. Guarded by the limiter's lock.
+	 */
+	private static class LatencyWindow
+	{
+		/**
+		 * The latencies, in nanoseconds, as a ring buffer.
+		 */
+		private final long[] samples = new long[TYPICAL_SAMPLES];
+
+		/**
+		 * The number of latencies recorded, including those which have been overwritten
+		 */
+		private long count;
+
+		/**
+		 * Records a latency. Every {@link ConcurrencyLimiter#RECENT_SAMPLES} latencies, checks whether the median of those latencies is well above the typical median.
+		 * 
+		 * @param nanos The latency, in nanoseconds
+		 * @return {@code true} if requests are queueing at the server
+		 */
+		boolean add(long nanos)
+		{
+			samples[(int) (count++ % TYPICAL_SAMPLES)] = nanos;
+			if (count % RECENT_SAMPLES != 0 || count < 2 * RECENT_SAMPLES)
+				return false;
+
+			return median(RECENT_SAMPLES) > median(typical()) * TOLERANCE;
+		}
+
+		/**
+		 * Gets the number of latencies the typical median is computed over.
+		 * 
+		 * @return The number of latencies held
+		 */
+		int typical()
+		{
+			return (int) Math.min(count, TYPICAL_SAMPLES);
+		}
+
+		/**
+		 * Computes the median of the most recent latencies.
+		 * 
+		 * @param n The number of latencies to compute the median of
+		 * @return The median, in nanoseconds, or 0 if there are no latencies.
+		 */
+		long median(int n)
+		{
+			if (n == 0)
+				return 0;
+
+			long[] recent = new long[n];
+			for (int i = 0; i < n; i++)
+				recent[i] = samples[(int) ((count - 1 - i) % TYPICAL_SAMPLES)];
+
+			Arrays.sort(recent);
+			return recent[n / 2];
+		}
+	}
+}
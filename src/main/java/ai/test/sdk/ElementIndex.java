@@ -0,0 +1,635 @@
+package ai.test.sdk;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A persistent index of resolved elements, so that elements found in one run can be found in later runs without asking test.ai. Entries are keyed by a scope (the URL pattern, viewport
+ * size, and screen density multiplier of the page) and the element's label.
+ *
+ * <p>
+ * The index is an append-only log of binary records in a memory mapped file. Only the offset of the latest record for each key is held on the heap; records are decoded when they are
+ * looked up. Any number of threads may read at once. Writes from all threads and processes sharing the file are serialized with a file lock, and each writer picks up records appended by
+ * others before appending its own. The mapping is grown geometrically, so appends are written straight into it and rarely need a new one. A record's length is written after the rest of
+ * the record, so a record left incomplete by a crashed writer has a length of zero and is overwritten by the next one. When superseded records make up most of the file, the live records
+ * are rewritten to a new file, which atomically replaces the old one.
+ * </p>
+ */
+final class ElementIndex implements Closeable
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(ElementIndex.class);
+
+	/**
+	 * Computes the scope of the current page. Returns {@code [href, innerWidth, innerHeight]}.
+	 */
+	static final String SCOPE_SCRIPT = "return [location.href, innerWidth, innerHeight];";
+
+	/**
+	 * Describes the element in {@code arguments[0]} so that it can be found again. Returns {@code [xpath, tagName, x, y, width, height, href, innerWidth, innerHeight]}, or {@code null} if
+	 * the element is not in the top-level document (e.g. it is in a shadow root).
+	 */
+	static final String DESCRIBE_SCRIPT = "var e = arguments[0];" //
+			+ "if (!e || e.getRootNode() !== document) return null;" //
+			+ "var p = '';" //
+			+ "for (var n = e; n && n.nodeType === 1; n = n.parentNode) {" //
+			+ "  var i = 1;" //
+			+ "  for (var s = n.previousElementSibling; s; s = s.previousElementSibling) if (s.localName === n.localName) i++;" //
+			+ "  p = '/*[local-name()=\"' + n.localName + '\"][' + i + ']' + p;" //
+			+ "}" //
+			+ "var r = e.getBoundingClientRect();" //
+			+ "return [p, e.localName, r.left + scrollX, r.top + scrollY, r.width, r.height, location.href, innerWidth, innerHeight];";
+
+	/**
+	 * Finds the element at the xpath in {@code arguments[0]}. Returns {@code [element, tagName, x, y, width, height]}, or {@code null} if there is no such element.
+	 */
+	static final String RESOLVE_SCRIPT = "var e = document.evaluate(arguments[0], document, null, 9, null).singleNodeValue;" //
+			+ "if (!e) return null;" //
+			+ "var r = e.getBoundingClientRect();" //
+			+ "return [e, e.localName, r.left + scrollX, r.top + scrollY, r.width, r.height];";
+
+	/**
+	 * Identifies an element index file
+	 */
+	private static final int MAGIC = 0x54414958;
+
+	/**
+	 * The version of the record format
+	 */
+	private static final short VERSION = 1;
+
+	/**
+	 * The size of the file header ({@code MAGIC} and {@code VERSION}), in bytes.
+	 */
+	private static final int HEADER_SIZE = 6;
+
+	/**
+	 * The file is compacted when it contains at least this many records...
+	 */
+	private static final int COMPACTION_MIN_RECORDS = 256;
+
+	/**
+	 * ...and at least this many records for each live entry.
+	 */
+	private static final int COMPACTION_RATIO = 4;
+
+	/**
+	 * The smallest mapping that a write grows the file to, in bytes.
+	 */
+	private static final int MIN_MAPPING = 64 * 1024;
+
+	/**
+	 * The path to the index file
+	 */
+	private final Path path;
+
+	/**
+	 * Guards the in-memory state of this index
+	 */
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * Maps the key of each entry to the offset of its latest record
+	 */
+	private final Map<String, Integer> offsets = new HashMap<>();
+
+	/**
+	 * The channel to the index file
+	 */
+	private FileChannel channel;
+
+	/**
+	 * Identifies the file {@code channel} is open to, so that replacement by compaction in another process can be detected. This may be {@code null} if the file system does not support it.
+	 */
+	private Object fileKey;
+
+	/**
+	 * The index file, mapped into memory. Past the last record, this is zero filled.
+	 */
+	private MappedByteBuffer buffer;
+
+	/**
+	 * The offset of the end of the last complete record read
+	 */
+	private int end;
+
+	/**
+	 * The number of records read, including superseded records
+	 */
+	private int records;
+
+	/**
+	 * Constructor, creates a new ElementIndex
+	 * 
+	 * @param path The path to the index file
+	 */
+	private ElementIndex(Path path)
+	{
+		this.path = path;
+	}
+
+	/**
+	 * Opens an index file, creating it if it does not exist.
+	 * 
+	 * @param path The path to the index file
+	 * @return The index
+	 * @throws IOException If the index could not be opened
+	 */
+	public static ElementIndex open(Path path) throws IOException
+	{
+		ElementIndex index = new ElementIndex(path);
+		index.lock.writeLock().lock();
+		try
+		{
+			index.reopen();
+			index.scan();
+			if (index.end == 0)
+				index.writeHeader();
+		}
+		finally
+		{
+			index.lock.writeLock().unlock();
+		}
+
+		log.debug("Opened element index {} with {} entries", path, index.offsets.size());
+		return index;
+	}
+
+	/**
+	 * Looks up an entry.
+	 * 
+	 * @param scope The scope of the entry
+	 * @param label The label of the entry
+	 * @return The entry, or {@code null} if there is no such entry.
+	 * @throws IOException If the entry could not be read
+	 */
+	public Entry get(String scope, String label) throws IOException
+	{
+		lock.readLock().lock();
+		try
+		{
+			Integer offset = offsets.get(key(scope, label));
+			if (offset == null)
+				return null;
+
+			DataInputStream in = record(buffer.duplicate(), offset);
+			in.readUTF(); // key
+
+			return new Entry(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readUTF(), in.readUTF(), in.readUTF());
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Adds or replaces an entry. Nothing is written if the entry is unchanged.
+	 * 
+	 * @param scope The scope of the entry
+	 * @param label The label of the entry
+	 * @param entry The entry
+	 * @throws IOException If the entry could not be written
+	 */
+	public void put(String scope, String label, Entry entry) throws IOException
+	{
+		if (entry.equals(get(scope, label)))
+			return;
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0); // length, filled in below
+		out.writeUTF(key(scope, label));
+		out.writeInt(entry.x);
+		out.writeInt(entry.y);
+		out.writeInt(entry.width);
+		out.writeInt(entry.height);
+		out.writeUTF(entry.tagName);
+		out.writeUTF(entry.domPath);
+		out.writeUTF(entry.key);
+
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+
+		lock.writeLock().lock();
+		try
+		{
+			write(record);
+
+			if (records >= COMPACTION_MIN_RECORDS && records >= offsets.size() * COMPACTION_RATIO)
+				compact();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Rewrites the index file with only the latest record for each entry.
+	 * 
+	 * @throws IOException If the index could not be compacted
+	 */
+	public void compact() throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			FileLock l = lockFile();
+			try
+			{
+				refresh();
+
+				Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+				try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE))
+				{
+					ByteBuffer b = buffer.duplicate();
+					out.write(b.limit(HEADER_SIZE).position(0));
+
+					for (int offset : offsets.values())
+						out.write(buffer.duplicate().limit(offset + 4 + buffer.getInt(offset)).position(offset));
+				}
+
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				log.debug("Compacted element index {} from {} records to {}", path, records, offsets.size());
+			}
+			finally
+			{
+				l.release();
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+
+		lock.writeLock().lock();
+		try
+		{
+			reopen();
+			scan();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		lock.writeLock().lock();
+		try
+		{
+			channel.close();
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes the header to a new index file, unless another process wrote it first. The write lock must be held.
+	 * 
+	 * @throws IOException If the header could not be written
+	 */
+	private void writeHeader() throws IOException
+	{
+		FileLock l = lockFile();
+		try
+		{
+			refresh();
+			if (end != 0)
+				return;
+
+			reserve(HEADER_SIZE + 4);
+			buffer.putInt(0, MAGIC).putShort(4, VERSION);
+			end = HEADER_SIZE;
+		}
+		finally
+		{
+			l.release();
+		}
+	}
+
+	/**
+	 * Appends a record to the index file, after picking up any records appended by other processes. The write lock must be held.
+	 * 
+	 * @param record The record to write, starting with space for its length
+	 * @throws IOException If the record could not be written
+	 */
+	private void write(ByteBuffer record) throws IOException
+	{
+		FileLock l = lockFile();
+		try
+		{
+			refresh();
+
+			int length = record.remaining() - 4;
+			reserve(end + 4 + length + 4);
+
+			// the record, then a zero length to end the log in case a crashed writer left a longer record here, and only then this record's length
+			buffer.duplicate().position(end + 4).put(record.position(4));
+			buffer.putInt(end + 4 + length, 0);
+			buffer.putInt(end, length);
+
+			scan();
+		}
+		finally
+		{
+			l.release();
+		}
+	}
+
+	/**
+	 * Picks up any records appended by other processes, mapping the file again only if it has grown past the current mapping. The write lock must be held.
+	 * 
+	 * @throws IOException If the file could not be read
+	 */
+	private void refresh() throws IOException
+	{
+		if (channel.size() > buffer.capacity())
+			remap(channel.size());
+
+		scan();
+	}
+
+	/**
+	 * Makes sure that the mapping covers at least the given number of bytes, growing the file (by at least doubling it) if it does not. The file lock must be held.
+	 * 
+	 * @param size The number of bytes needed
+	 * @throws IOException If the file could not be grown
+	 */
+	private void reserve(long size) throws IOException
+	{
+		if (size > buffer.capacity())
+			remap(Math.min(Integer.MAX_VALUE, Math.max(size, Math.max(MIN_MAPPING, 2L * buffer.capacity()))));
+	}
+
+	/**
+	 * Acquires the lock on the index file, reopening it first if it was replaced by compaction in another process. The write lock must be held.
+	 * 
+	 * @return The lock on the index file
+	 * @throws IOException If the file could not be locked
+	 */
+	private FileLock lockFile() throws IOException
+	{
+		while (true)
+		{
+			FileLock l = channel.lock();
+			Object current = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+			if (current == null || current.equals(fileKey))
+				return l;
+
+			l.release();
+			reopen();
+			scan();
+		}
+	}
+
+	/**
+	 * Opens (or reopens) the index file and forgets everything read from the previous file. The write lock must be held.
+	 * 
+	 * @throws IOException If the file could not be opened
+	 */
+	private void reopen() throws IOException
+	{
+		if (channel != null)
+			channel.close();
+
+		channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+		offsets.clear();
+		end = records = 0;
+
+		remap(channel.size());
+	}
+
+	/**
+	 * Maps the index file into memory, growing the file if it is smaller than the mapping. The write lock must be held.
+	 * 
+	 * @param size The size of the mapping
+	 * @throws IOException If the file could not be mapped
+	 */
+	private void remap(long size) throws IOException
+	{
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+	}
+
+	/**
+	 * Reads the keys of any complete records after {@code end}. The write lock must be held.
+	 * 
+	 * @throws IOException If the file is not an element index
+	 */
+	private void scan() throws IOException
+	{
+		if (end == 0)
+		{
+			if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) == 0 && buffer.getShort(4) == 0) // not written yet
+				return;
+			else if (buffer.getInt(0) != MAGIC || buffer.getShort(4) != VERSION)
+				throw new IOException(String.format("%s is not a version %d element index", path, VERSION));
+
+			end = HEADER_SIZE;
+		}
+
+		while (end + 4 <= buffer.limit())
+		{
+			int length = buffer.getInt(end);
+			if (length <= 0 || end + 4 + length > buffer.limit())
+				break;
+
+			offsets.put(record(buffer.duplicate(), end).readUTF(), end);
+			end += 4 + length;
+			records++;
+		}
+	}
+
+	/**
+	 * Gets a stream over the contents of a record, after its length.
+	 * 
+	 * @param b A view of the mapped index file
+	 * @param offset The offset of the record
+	 * @return A stream over the contents of the record
+	 */
+	private static DataInputStream record(ByteBuffer b, int offset)
+	{
+		byte[] bytes = new byte[b.getInt(offset)];
+		b.position(offset + 4);
+		b.get(bytes);
+
+		return new DataInputStream(new ByteArrayInputStream(bytes));
+	}
+
+	/**
+	 * Creates the key of an entry.
+	 * 
+	 * @param scope The scope of the entry
+	 * @param label The label of the entry
+	 * @return The key of the entry
+	 */
+	private static String key(String scope, String label)
+	{
+		return scope + '\n' + label;
+	}
+
+	/**
+	 * Creates the scope for a page.
+	 * 
+	 * @param url The URL of the page
+	 * @param viewportWidth The width of the viewport
+	 * @param viewportHeight The height of the viewport
+	 * @param multiplier The screen density multiplier
+	 * @return The scope for the page
+	 */
+	static String scope(String url, long viewportWidth, long viewportHeight, double multiplier)
+	{
+		return String.format("%s %dx%d %s", LabelPrefetcher.pattern(url), viewportWidth, viewportHeight, multiplier);
+	}
+
+	/**
+	 * Creates the scope for a page from the result of a script.
+	 * 
+	 * @param r The result of {@link #SCOPE_SCRIPT} or {@link #DESCRIBE_SCRIPT}
+	 * @param i The index of the page's URL in {@code r}. The viewport width and height must follow it.
+	 * @param multiplier The screen density multiplier
+	 * @return The scope for the page
+	 */
+	static String scope(List<?> r, int i, double multiplier)
+	{
+		return scope((String) r.get(i), ((Number) r.get(i + 1)).longValue(), ((Number) r.get(i + 2)).longValue(), multiplier);
+	}
+
+	/**
+	 * An element in the index. Coordinates are in CSS pixels, relative to the page.
+	 */
+	static final class Entry
+	{
+		/**
+		 * The maximum number of pixels each coordinate of an element may have moved by for it to be considered unchanged.
+		 */
+		private static final int MAX_DRIFT = 2;
+
+		/**
+		 * The x coordinate of the element (upper left corner)
+		 */
+		final int x;
+
+		/**
+		 * The y coordinate of the element (upper left corner)
+		 */
+		final int y;
+
+		/**
+		 * The width of the element
+		 */
+		final int width;
+
+		/**
+		 * The height of the element
+		 */
+		final int height;
+
+		/**
+		 * The tag name of the element
+		 */
+		final String tagName;
+
+		/**
+		 * An xpath which locates the element
+		 */
+		final String domPath;
+
+		/**
+		 * The key assigned to the element by test.ai. This is the empty String if there is none.
+		 */
+		final String key;
+
+		/**
+		 * Constructor, creates a new Entry
+		 * 
+		 * @param x The x coordinate of the element (upper left corner)
+		 * @param y The y coordinate of the element (upper left corner)
+		 * @param width The width of the element
+		 * @param height The height of the element
+		 * @param tagName The tag name of the element
+		 * @param domPath An xpath which locates the element
+		 * @param key The key assigned to the element by test.ai. This may be {@code null}.
+		 */
+		Entry(int x, int y, int width, int height, String tagName, String domPath, String key)
+		{
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.tagName = tagName;
+			this.domPath = domPath;
+			this.key = Objects.requireNonNullElse(key, "");
+		}
+
+		/**
+		 * Creates an Entry from the result of a script.
+		 * 
+		 * @param r The result of {@link ElementIndex#DESCRIBE_SCRIPT} or {@link ElementIndex#RESOLVE_SCRIPT}
+		 * @param domPath An xpath which locates the element
+		 * @param key The key assigned to the element by test.ai. This may be {@code null}.
+		 * @return The new Entry
+		 */
+		static Entry of(List<?> r, String domPath, String key)
+		{
+			return new Entry(((Number) r.get(2)).intValue(), ((Number) r.get(3)).intValue(), ((Number) r.get(4)).intValue(), ((Number) r.get(5)).intValue(), (String) r.get(1), domPath, key);
+		}
+
+		/**
+		 * Determines if {@code o} has the same tag name as this Entry, and is in approximately the same place.
+		 * 
+		 * @param o The Entry to compare with
+		 * @return {@code true} if {@code o} is the same element as this Entry
+		 */
+		boolean sameElement(Entry o)
+		{
+			return tagName.equals(o.tagName) && Math.abs(x - o.x) <= MAX_DRIFT && Math.abs(y - o.y) <= MAX_DRIFT && Math.abs(width - o.width) <= MAX_DRIFT
+					&& Math.abs(height - o.height) <= MAX_DRIFT;
+		}
+
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (!(obj instanceof Entry))
+				return false;
+
+			Entry o = (Entry) obj;
+			return x == o.x && y == o.y && width == o.width && height == o.height && tagName.equals(o.tagName) && domPath.equals(o.domPath) && Objects.equals(key, o.key);
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(x, y, width, height, tagName, domPath, key);
+		}
+	}
+}
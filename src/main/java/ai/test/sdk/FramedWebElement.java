@@ -0,0 +1,274 @@
+package ai.test.sdk;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.WrapsElement;
+import org.openqa.selenium.interactions.Coordinates;
+import org.openqa.selenium.interactions.Locatable;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Wraps a {@code WebElement} which lives inside one or more (i)frames. Each call switches from the top-level browsing context into the element's frame, performs the call, then switches back
+ * to the top-level browsing context, so the element can be used as if it were part of the page regardless of which frame the driver is in. Locations are translated into the coordinate space
+ * of the page.
+ *
+ * <p>
+ * Selenium {@code Actions} unwrap elements with {@link #getWrappedElement()} and perform their actions in the driver's current browsing context, so they only work with elements found in
+ * frames once the driver has been switched into the element's frame.
+ * </p>
+ */
+final class FramedWebElement implements WebElement, WrapsElement, Locatable
+{
+	/**
+	 * The driver to switch frames with
+	 */
+	private final RemoteWebDriver driver;
+
+	/**
+	 * The wrapped element
+	 */
+	private final WebElement element;
+
+	/**
+	 * The frame elements to switch into, outermost first, to reach {@code element} from the top-level browsing context.
+	 */
+	private final List<WebElement> framePath;
+
+	/**
+	 * The x offset of the innermost frame's content, relative to the page the element was found from
+	 */
+	private final int dx;
+
+	/**
+	 * The y offset of the innermost frame's content, relative to the page the element was found from
+	 */
+	private final int dy;
+
+	/**
+	 * Constructor, creates a new FramedWebElement
+	 * 
+	 * @param driver The driver to switch frames with
+	 * @param element The element to wrap
+	 * @param framePath The frame elements to switch into, outermost first, to reach {@code element} from the top-level browsing context.
+	 * @param dx The x offset of the innermost frame's content
+	 * @param dy The y offset of the innermost frame's content
+	 */
+	FramedWebElement(RemoteWebDriver driver, WebElement element, List<WebElement> framePath, int dx, int dy)
+	{
+		this.driver = driver;
+		this.element = element;
+		this.framePath = framePath;
+		this.dx = dx;
+		this.dy = dy;
+	}
+
+	/**
+	 * Switches from the top-level browsing context into the frame containing the wrapped element, runs {@code fn}, and then switches back to the top-level browsing context.
+	 * 
+	 * @param <T> The return type of {@code fn}
+	 * @param fn The function to run
+	 * @return The result of {@code fn}
+	 */
+	private <T> T inFrame(Supplier<T> fn)
+	{
+		driver.switchTo().defaultContent();
+		try
+		{
+			for (WebElement f : framePath)
+				driver.switchTo().frame(f);
+
+			return fn.get();
+		}
+		finally
+		{
+			driver.switchTo().defaultContent();
+		}
+	}
+
+	/**
+	 * Switches into the frame containing the wrapped element, runs {@code fn}, and then switches back out.
+	 * 
+	 * @param fn The function to run
+	 */
+	private void runInFrame(Runnable fn)
+	{
+		inFrame(() -> {
+			fn.run();
+			return null;
+		});
+	}
+
+	@Override
+	public void click()
+	{
+		runInFrame(element::click);
+	}
+
+	@Override
+	public void submit()
+	{
+		runInFrame(element::submit);
+	}
+
+	@Override
+	public void sendKeys(CharSequence... keysToSend)
+	{
+		runInFrame(() -> element.sendKeys(keysToSend));
+	}
+
+	@Override
+	public void clear()
+	{
+		runInFrame(element::clear);
+	}
+
+	@Override
+	public String getTagName()
+	{
+		return inFrame(element::getTagName);
+	}
+
+	@Override
+	public String getAttribute(String name)
+	{
+		return inFrame(() -> element.getAttribute(name));
+	}
+
+	@Override
+	public boolean isSelected()
+	{
+		return inFrame(element::isSelected);
+	}
+
+	@Override
+	public boolean isEnabled()
+	{
+		return inFrame(element::isEnabled);
+	}
+
+	@Override
+	public String getText()
+	{
+		return inFrame(element::getText);
+	}
+
+	@Override
+	public List<WebElement> findElements(By by)
+	{
+		return inFrame(() -> element.findElements(by));
+	}
+
+	@Override
+	public WebElement findElement(By by)
+	{
+		return inFrame(() -> element.findElement(by));
+	}
+
+	@Override
+	public boolean isDisplayed()
+	{
+		return inFrame(element::isDisplayed);
+	}
+
+	@Override
+	public Point getLocation()
+	{
+		return inFrame(element::getLocation).moveBy(dx, dy);
+	}
+
+	@Override
+	public Dimension getSize()
+	{
+		return inFrame(element::getSize);
+	}
+
+	@Override
+	public Rectangle getRect()
+	{
+		Rectangle r = inFrame(element::getRect);
+		return new Rectangle(r.x + dx, r.y + dy, r.height, r.width);
+	}
+
+	@Override
+	public String getCssValue(String propertyName)
+	{
+		return inFrame(() -> element.getCssValue(propertyName));
+	}
+
+	@Override
+	public <X> X getScreenshotAs(OutputType<X> target) throws WebDriverException
+	{
+		return inFrame(() -> element.getScreenshotAs(target));
+	}
+
+	@Override
+	public WebElement getWrappedElement()
+	{
+		return element;
+	}
+
+	@Override
+	public Coordinates getCoordinates()
+	{
+		return new FramedCoordinates(inFrame(((Locatable) element)::getCoordinates));
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format("%s in frame %s", element, framePath);
+	}
+
+	/**
+	 * Resolves the {@code Coordinates} of the wrapped element inside its frame, translating page coordinates into the coordinate space of the page.
+	 */
+	private class FramedCoordinates implements Coordinates
+	{
+		/**
+		 * The coordinates of the wrapped element, which must be resolved inside its frame
+		 */
+		private final Coordinates coordinates;
+
+		/**
+		 * Constructor, creates a new FramedCoordinates
+		 * 
+		 * @param coordinates The coordinates of the wrapped element
+		 */
+		FramedCoordinates(Coordinates coordinates)
+		{
+			this.coordinates = coordinates;
+		}
+
+		@Override
+		public Point onScreen()
+		{
+			return inFrame(coordinates::onScreen);
+		}
+
+		@Override
+		public Point inViewPort()
+		{
+			return inFrame(coordinates::inViewPort);
+		}
+
+		@Override
+		public Point onPage()
+		{
+			return inFrame(coordinates::onPage).moveBy(dx, dy);
+		}
+
+		@Override
+		public Object getAuxiliary()
+		{
+			return coordinates.getAuxiliary();
+		}
+	}
+}
@@ -0,0 +1,22 @@
+package ai.test.sdk;
+
+/**
+ * When training updates written to the outbox are forced to disk. See {@link TestAiDriver#setTrainingOutbox(java.nio.file.Path, FsyncPolicy)}.
+ */
+public enum FsyncPolicy
+{
+	/**
+	 * After every update. Nothing is lost if the machine crashes, at the cost of a disk flush per update.
+	 */
+	ALWAYS,
+
+	/**
+	 * At most once per second. Up to a second of the latest updates may be lost if the machine crashes.
+	 */
+	INTERVAL,
+
+	/**
+	 * Never; the operating system decides. Updates survive the JVM crashing, but not necessarily the machine.
+	 */
+	NEVER
+}
@@ -0,0 +1,106 @@
+package ai.test.sdk;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.openqa.selenium.WebElement;
+
+/**
+ * Caches the elements found by locator lookups, so that repeated lookups of the same locator on an unchanged page can skip the browser and test.ai entirely. Entries are keyed by lookup
+ * strategy, search term, and element name, and are only valid for the {@link PageEpoch} they were found in. Epochs never repeat and change whenever the DOM is mutated or the browser switches
+ * to another window or frame, so the cache only ever holds entries for the current epoch and is emptied as soon as a newer one is seen.
+ *
+ * <p>
+ * The cache is bounded, and evicts the least recently used entry when full.
+ * </p>
+ */
+final class HandleCache
+{
+	/**
+	 * The maximum number of entries
+	 */
+	private final int maxEntries;
+
+	/**
+	 * The cached elements, in access order
+	 */
+	private final LinkedHashMap<String, WebElement> handles = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * The epoch the cached elements were found in
+	 */
+	private long epoch = -1;
+
+	/**
+	 * Constructor, creates a new HandleCache
+	 * 
+	 * @param maxEntries The maximum number of entries
+	 */
+	HandleCache(int maxEntries)
+	{
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * Gets a cached element.
+	 * 
+	 * @param strategy The lookup strategy (e.g. {@code id})
+	 * @param using The search term
+	 * @param elementName The name of the element
+	 * @param epoch The current epoch of the page
+	 * @return The element found by the same lookup in {@code epoch}, or {@code null} if there is none.
+	 */
+	public synchronized WebElement get(String strategy, String using, String elementName, long epoch)
+	{
+		return epoch == this.epoch ? handles.get(key(strategy, using, elementName)) : null;
+	}
+
+	/**
+	 * Caches an element.
+	 * 
+	 * @param strategy The lookup strategy (e.g. {@code id})
+	 * @param using The search term
+	 * @param elementName The name of the element
+	 * @param epoch The epoch of the page before the element was looked up
+	 * @param e The element which was found
+	 */
+	public synchronized void put(String strategy, String using, String elementName, long epoch, WebElement e)
+	{
+		if (epoch < this.epoch)
+			return;
+		if (epoch > this.epoch)
+		{
+			handles.clear();
+			this.epoch = epoch;
+		}
+
+		handles.put(key(strategy, using, elementName), e);
+		if (handles.size() > maxEntries)
+		{
+			Iterator<String> i = handles.keySet().iterator();
+			i.next();
+			i.remove();
+		}
+	}
+
+	/**
+	 * Empties this cache.
+	 */
+	public synchronized void clear()
+	{
+		handles.clear();
+	}
+
+	/**
+	 * Creates the key of a lookup.
+	 * 
+	 * @param strategy The lookup strategy
+	 * @param using The search term
+	 * @param elementName The name of the element
+	 * @return The key
+	 */
+	private static String key(String strategy, String using, String elementName)
+	{
+		return strategy + '\n' + elementName + '\n' + using;
+	}
+}
@@ -0,0 +1,291 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import ai.test.sdk.PerformanceStats.Counter;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Response;
+
+/**
+ * Sends hedged requests to cut the tail latency of an endpoint. A request is sent as normal, and if it has not completed once it has taken longer than most requests to the endpoint (the
+ * observed p95), an identical request is sent. Whichever responds first is used, and the other is cancelled.
+ *
+ * <p>
+ * The number of hedges is capped at a percentage of all requests, so that a server which is slow across the board is not sent even more load. No requests are hedged until enough latencies
+ * have been observed to estimate the p95.
+ * </p>
+ */
+final class Hedger
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(Hedger.class);
+
+	/**
+	 * The percentile of observed latencies after which a request is hedged
+	 */
+	private static final double PERCENTILE = 95;
+
+	/**
+	 * The number of latencies which must be observed before requests are hedged
+	 */
+	private static final long MIN_SAMPLES = 20;
+
+	/**
+	 * Requests are never hedged sooner than this, in nanoseconds, so that fast endpoints are not hedged on noise.
+	 */
+	private static final long MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(50);
+
+	/**
+	 * The maximum number of hedges, as a percentage of all requests
+	 */
+	private final int maxExtraPercent;
+
+	/**
+	 * Used to count hedges
+	 */
+	private final PerformanceStats stats;
+
+	/**
+	 * The latencies of individual requests, in nanoseconds
+	 */
+	private final LatencyHistogram latencies = new LatencyHistogram();
+
+	/**
+	 * The number of requests sent through this {@code Hedger}, not including hedges
+	 */
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * The number of hedges sent
+	 */
+	private final AtomicLong hedges = new AtomicLong();
+
+	/**
+	 * Constructor, creates a new Hedger
+	 * 
+	 * @param maxExtraPercent The maximum number of hedges, as a percentage of all requests
+	 * @param stats Used to count hedges
+	 */
+	Hedger(int maxExtraPercent, PerformanceStats stats)
+	{
+		this.maxExtraPercent = maxExtraPercent;
+		this.stats = stats;
+	}
+
+	/**
+	 * Executes a call, hedging it with a clone of itself if it is slow. The body of the call's request must be writable more than once.
+	 * 
+	 * @param call The call to execute. This must not have been executed yet.
+	 * @return The first response received
+	 * @throws IOException If every request which was sent failed, or if this thread was interrupted while waiting.
+	 */
+	public Response execute(Call call) throws IOException
+	{
+		requests.incrementAndGet();
+
+		long[] snapshot = latencies.snapshot();
+		if (LatencyHistogram.count(snapshot) < MIN_SAMPLES)
+			return timed(call);
+
+		Race race = new Race();
+		race.start(call);
+		try
+		{
+			try
+			{
+				return race.result.get(Math.max(MIN_DELAY, LatencyHistogram.percentile(snapshot, PERCENTILE)), TimeUnit.NANOSECONDS);
+			}
+			catch (TimeoutException e)
+			{
+				if (tryAcquireHedge() && race.start(call.clone()))
+				{
+					stats.increment(Counter.HEDGES);
+					log.debug("Hedging a slow request to {}", call.request().url());
+				}
+			}
+
+			return race.result.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			race.result.thenAccept(Response::close); // in case a response arrives anyway
+			throw new InterruptedIOException("Interrupted while waiting for a response from " + call.request().url());
+		}
+		catch (ExecutionException e)
+		{
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+		finally
+		{
+			race.cancelLosers();
+		}
+	}
+
+	/**
+	 * Executes a call without hedging it, recording its latency.
+	 * 
+	 * @param call The call to execute
+	 * @return The response
+	 * @throws IOException Network error
+	 */
+	private Response timed(Call call) throws IOException
+	{
+		long start = System.nanoTime();
+		Response r = NetUtils.execute(call);
+		latencies.record(System.nanoTime() - start);
+
+		return r;
+	}
+
+	/**
+	 * Takes one hedge from the budget, if there is one left.
+	 * 
+	 * @return {@code true} if a hedge may be sent.
+	 */
+	private boolean tryAcquireHedge()
+	{
+		while (true)
+		{
+			long h = hedges.get();
+			if ((h + 1) * 100 > requests.get() * maxExtraPercent)
+				return false;
+			if (hedges.compareAndSet(h, h + 1))
+				return true;
+		}
+	}
+
+	/**
+	 * Races calls for the same request against each other. The first response completes {@code result}, and the race only fails once every call has failed.
+	 */
+	private class Race
+	{
+		/**
+		 * Completed with the first response, or the last failure
+		 */
+		final CompletableFuture<Response> result = new CompletableFuture<>();
+
+		/**
+		 * The calls in this race
+		 */
+		private final List<Call> calls = new ArrayList<>();
+
+		/**
+		 * The call which produced the winning response, or {@code null} if there is none yet.
+		 */
+		private Call winner;
+
+		/**
+		 * The number of calls which have not completed yet
+		 */
+		private int outstanding;
+
+		/**
+		 * Sends a call, unless the race is already over.
+		 * 
+		 * @param call The call to send
+		 * @return {@code true} if {@code call} was sent.
+		 */
+		synchronized boolean start(Call call)
+		{
+			if (result.isDone())
+				return false;
+
+			calls.add(call);
+			outstanding++;
+			call.enqueue(new Leg());
+
+			return true;
+		}
+
+		/**
+		 * Cancels every call except the winner.
+		 */
+		synchronized void cancelLosers()
+		{
+			for (Call c : calls)
+				if (c != winner)
+					c.cancel();
+		}
+
+		/**
+		 * Called when a call in this race has responded.
+		 * 
+		 * @param call The call
+		 * @param response Its response
+		 */
+		void responded(Call call, Response response)
+		{
+			boolean won, hedged;
+			synchronized (this)
+			{
+				outstanding--;
+				won = winner == null;
+				hedged = call != calls.get(0);
+				if (won)
+					winner = call;
+			}
+
+			if (!won)
+				response.close();
+			else
+			{
+				if (hedged) // counted first, so the win is reported by the time the caller has the response
+					stats.increment(Counter.HEDGE_WINS);
+				result.complete(response);
+			}
+		}
+
+		/**
+		 * Called when a call in this race has failed.
+		 * 
+		 * @param e The failure
+		 */
+		synchronized void failed(IOException e)
+		{
+			if (--outstanding == 0)
+				result.completeExceptionally(e);
+		}
+
+		/**
+		 * Reports the outcome of one call in the race, and records its latency.
+		 */
+		private class Leg implements Callback
+		{
+			/**
+			 * The value of {@code System.nanoTime()} when this call was sent
+			 */
+			private final long start = System.nanoTime();
+
+			@Override
+			public void onResponse(Call call, Response response)
+			{
+				latencies.record(System.nanoTime() - start);
+				responded(call, response);
+			}
+
+			@Override
+			public void onFailure(Call call, IOException e)
+			{
+				if (!call.isCanceled())
+					latencies.record(System.nanoTime() - start);
+
+				failed(e);
+			}
+		}
+	}
+}
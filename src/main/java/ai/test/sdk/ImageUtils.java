@@ -0,0 +1,105 @@
+package ai.test.sdk;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.ImageIO;
+
+import org.openqa.selenium.Rectangle;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Shared image manipulation utilities for screenshots sent to the test.ai API.
+ */
+final class ImageUtils
+{
+	/**
+	 * Determines the region of a screenshot which should be sent to test.ai, given the last known location of an element.
+	 * 
+	 * @param last The last known bounding box of the element, in CSS pixels (i.e. not scaled by {@code multiplier})
+	 * @param margin The number of CSS pixels to pad each side of {@code last} by
+	 * @param multiplier The screen density multiplier
+	 * @param imgWidth The width of the screenshot, in screenshot pixels
+	 * @param imgHeight The height of the screenshot, in screenshot pixels
+	 * @return The region of interest, in screenshot pixels and clamped to the bounds of the screenshot, or {@code null} if the region does not intersect the screenshot.
+	 */
+	public static Rectangle regionOfInterest(Rectangle last, int margin, double multiplier, int imgWidth, int imgHeight)
+	{
+		int x = (int) Math.max(0, Math.floor((last.x - margin) * multiplier)), y = (int) Math.max(0, Math.floor((last.y - margin) * multiplier));
+		int xx = (int) Math.min(imgWidth, Math.ceil((last.x + last.width + margin) * multiplier)), yy = (int) Math.min(imgHeight, Math.ceil((last.y + last.height + margin) * multiplier));
+
+		return xx > x && yy > y ? new Rectangle(x, y, yy - y, xx - x) : null;
+	}
+
+	/**
+	 * Translates a bounding box returned by the test.ai API from the coordinate space of a cropped screenshot to that of the full screenshot.
+	 * 
+	 * @param box The bounding box to translate. This is modified in place.
+	 * @param dx The x offset of the crop, in screenshot pixels
+	 * @param dy The y offset of the crop, in screenshot pixels
+	 */
+	public static void translateBox(JsonObject box, int dx, int dy)
+	{
+		box.addProperty("x", JsonUtils.doubleFromJson(box, "x") + dx);
+		box.addProperty("y", JsonUtils.doubleFromJson(box, "y") + dy);
+	}
+
+	/**
+	 * Decodes an image from raw bytes (e.g. a screenshot obtained via {@code OutputType.BYTES}).
+	 * 
+	 * @param b The encoded image
+	 * @return The decoded image
+	 * @throws IOException If {@code b} could not be decoded
+	 */
+	public static BufferedImage read(byte[] b) throws IOException
+	{
+		return ImageIO.read(new ByteArrayInputStream(b));
+	}
+
+	/**
+	 * Determines the width of an encoded image. PNG images are not decoded to do this, the width is read from their header.
+	 * 
+	 * @param b The encoded image
+	 * @return The width of the image, in pixels
+	 * @throws IOException If {@code b} could not be decoded
+	 */
+	public static int width(byte[] b) throws IOException
+	{
+		if (b.length >= 24 && b[12] == 'I' && b[13] == 'H' && b[14] == 'D' && b[15] == 'R') // the first chunk of a PNG
+			return ByteBuffer.wrap(b, 16, 4).getInt();
+
+		return read(b).getWidth();
+	}
+
+	/**
+	 * Crops an image to the specified region and encodes the result as PNG.
+	 * 
+	 * @param img The image to crop
+	 * @param r The region to crop to, in image pixels
+	 * @return The cropped region, encoded as PNG
+	 * @throws IOException If the cropped image could not be encoded
+	 */
+	public static byte[] crop(BufferedImage img, Rectangle r) throws IOException
+	{
+		return toPNG(img.getSubimage(r.x, r.y, r.width, r.height));
+	}
+
+	/**
+	 * Encodes an image as PNG.
+	 * 
+	 * @param img The image to encode
+	 * @return {@code img}, encoded as PNG
+	 * @throws IOException If {@code img} could not be encoded
+	 */
+	public static byte[] toPNG(BufferedImage img) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ImageIO.write(img, "png", out);
+
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,42 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * A request payload which serializes itself directly to a {@code JsonWriter}, so that no intermediate {@code JsonObject} tree or String needs to be built before it is sent.
+ */
+@FunctionalInterface
+interface JsonPayload
+{
+	/**
+	 * Writes this payload as a single json value.
+	 * 
+	 * @param w The writer to write to
+	 * @throws IOException If {@code w} could not be written to
+	 */
+	void writeTo(JsonWriter w) throws IOException;
+
+	/**
+	 * Serializes this payload to a String. Only use this where a String is actually needed (e.g. to persist the payload), prefer {@link NetUtils.JsonBody} for sending it.
+	 * 
+	 * @return This payload, as json.
+	 */
+	default String toJson()
+	{
+		StringWriter sw = new StringWriter();
+		try
+		{
+			writeTo(new JsonWriter(sw));
+		}
+		catch (IOException e) // StringWriter does not throw
+		{
+			throw new UncheckedIOException(e);
+		}
+
+		return sw.toString();
+	}
+}
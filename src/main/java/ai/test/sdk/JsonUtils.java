@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 
 import okhttp3.Response;
 
@@ -91,4 +92,17 @@ final class JsonUtils
 		return jo.has(key) ? jo.get(key).getAsBoolean() : false;
 	}
 
+	/**
+	 * Convenience method, determines if an array associated with the specified key on a JsonObject contains a String.
+	 * 
+	 * @param jo The JsonObject to check
+	 * @param key The key associated with the array to check
+	 * @param value The String to look for
+	 * @return {@code true} if the value associated with {@code key} is an array containing {@code value}, or false if {@code key} was not in {@code jo} or is not an array.
+	 */
+	public static boolean arrayContains(JsonObject jo, String key, String value)
+	{
+		return jo.has(key) && jo.get(key).isJsonArray() && jo.getAsJsonArray(key).contains(new JsonPrimitive(value));
+	}
+
 }
@@ -0,0 +1,354 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Prefetches classification results for the labels most likely to be looked up after a navigation. The labels looked up on each URL pattern are recorded, and after each navigation the most
+ * frequently used labels for the new page are classified in the background, using a single screenshot and page source. Results are only used while the page is unchanged since they were
+ * captured, and any prefetch still in progress is cancelled by the next navigation.
+ *
+ * <p>
+ * Many drivers and grids are not safe to send concurrent commands to within a session, so the page is captured on the thread which navigated, and only the classify requests run in the
+ * background.
+ * </p>
+ */
+final class LabelPrefetcher
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(LabelPrefetcher.class);
+
+	/**
+	 * The maximum number of labels to prefetch after each navigation.
+	 */
+	private static final int MAX_LABELS = 8;
+
+	/**
+	 * The browser session to capture pages from and classify labels with
+	 */
+	private final Session session;
+
+	/**
+	 * Bounds the number of classify requests in flight at once.
+	 */
+	private final Semaphore permits;
+
+	/**
+	 * Maps each URL pattern to the number of times each label was looked up on pages matching that pattern.
+	 */
+	private final Map<String, Map<String, Integer>> usage = new ConcurrentHashMap<>();
+
+	/**
+	 * The prefetched results for the current page, keyed by label.
+	 */
+	private final Map<String, Prefetched> results = new ConcurrentHashMap<>();
+
+	/**
+	 * The tasks started for the current navigation.
+	 */
+	private final List<Future<?>> inFlight = new ArrayList<>();
+
+	/**
+	 * Incremented on each navigation. Tasks belonging to an earlier generation discard their results.
+	 */
+	private int generation;
+
+	/**
+	 * Constructor, creates a new LabelPrefetcher
+	 * 
+	 * @param session The browser session to capture pages from and classify labels with
+	 * @param parallelism The maximum number of classify requests to have in flight at once
+	 */
+	LabelPrefetcher(Session session, int parallelism)
+	{
+		this.session = session;
+		permits = new Semaphore(parallelism);
+	}
+
+	/**
+	 * Records that {@code label} was looked up on {@code url}.
+	 * 
+	 * @param url The URL of the page {@code label} was looked up on
+	 * @param label The label which was looked up
+	 */
+	public void record(String url, String label)
+	{
+		usage.computeIfAbsent(pattern(url), k -> new ConcurrentHashMap<>()).merge(label, 1, Integer::sum);
+	}
+
+	/**
+	 * Cancels any prefetch in progress, discards all prefetched results, and starts prefetching the likely labels for the page the browser is now on. If there are any, the page is captured
+	 * on the calling thread, so this must be called from the thread which drives the browser.
+	 */
+	public void navigated()
+	{
+		int gen;
+		synchronized (this)
+		{
+			cancel();
+			gen = generation;
+		}
+
+		try
+		{
+			List<String> labels = likelyLabels(session.currentUrl());
+			if (labels.isEmpty())
+				return;
+
+			long epoch = session.epoch();
+			String pageSource = session.pageSource();
+			Screenshot screenshot = session.screenshot();
+
+			log.debug("Prefetching {}", labels);
+
+			synchronized (this)
+			{
+				if (gen != generation)
+				{
+					screenshot.close();
+					return;
+				}
+
+				inFlight.add(session.executor().submit(() -> prefetch(gen, epoch, labels, screenshot, pageSource)));
+			}
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to capture the page to prefetch: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Cancels any prefetch in progress and discards all prefetched results.
+	 */
+	public synchronized void cancel()
+	{
+		generation++;
+		inFlight.forEach(f -> f.cancel(true));
+		inFlight.clear();
+		results.clear();
+	}
+
+	/**
+	 * Removes and returns the prefetched result for {@code label}, if there is one and the page has not changed since it was captured.
+	 * 
+	 * @param label The label to get the prefetched result for
+	 * @return The response from the test.ai API, or {@code null} if there is no usable prefetched result for {@code label}.
+	 */
+	public JsonObject take(String label)
+	{
+		Prefetched p = results.remove(label);
+		return p != null && p.epoch == session.epoch() ? p.response : null;
+	}
+
+	/**
+	 * Classifies the likely labels for a captured page. No commands are sent to the browser.
+	 * 
+	 * @param gen The generation this prefetch belongs to
+	 * @param epoch The epoch of the page when {@code screenshot} and {@code pageSource} were captured
+	 * @param labels The labels to classify
+	 * @param screenshot The screenshot of the page, which is closed once every label has been classified.
+	 * @param pageSource The source of the page
+	 */
+	private void prefetch(int gen, long epoch, List<String> labels, Screenshot screenshot, String pageSource)
+	{
+		try (screenshot)
+		{
+			List<Future<?>> tasks = new ArrayList<>();
+			synchronized (this)
+			{
+				if (gen != generation)
+					return;
+
+				for (String label : labels)
+					tasks.add(session.executor().submit(() -> classify(gen, epoch, label, screenshot, pageSource)));
+
+				inFlight.addAll(tasks);
+			}
+
+			for (Future<?> f : tasks) // the screenshot must remain open until every task is done with it
+				f.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		catch (Throwable e)
+		{
+			log.debug("Prefetch failed: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Classifies a single label, and stores the result if it was successful.
+	 * 
+	 * @param gen The generation this prefetch belongs to
+	 * @param epoch The epoch of the page when {@code screenshot} and {@code pageSource} were captured
+	 * @param label The label to classify
+	 * @param screenshot The screenshot of the page
+	 * @param pageSource The source of the page
+	 * @return The response from the test.ai API
+	 * @throws Exception If the request failed or the task was cancelled
+	 */
+	private JsonObject classify(int gen, long epoch, String label, Screenshot screenshot, String pageSource) throws Exception
+	{
+		permits.acquire();
+		try
+		{
+			JsonObject r = session.classify(label, screenshot, pageSource);
+
+			synchronized (this)
+			{
+				if (gen == generation && JsonUtils.booleanFromJson(r, "success"))
+					results.put(label, new Prefetched(r, epoch));
+			}
+
+			return r;
+		}
+		finally
+		{
+			permits.release();
+		}
+	}
+
+	/**
+	 * Determines the labels most frequently looked up on pages matching the pattern of {@code url}.
+	 * 
+	 * @param url The URL to get the likely labels for
+	 * @return The likely labels, most frequently used first.
+	 */
+	private List<String> likelyLabels(String url)
+	{
+		Map<String, Integer> counts = usage.get(pattern(url));
+		if (counts == null)
+			return List.of();
+
+		return counts.entrySet().stream().sorted(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder())).limit(MAX_LABELS).map(Map.Entry::getKey)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Determines the pattern of a URL. The query and fragment are dropped, and path segments containing digits (e.g. ids) are replaced with {@code *}.
+	 * 
+	 * @param url The URL to get the pattern of
+	 * @return The pattern of {@code url}
+	 */
+	static String pattern(String url)
+	{
+		if (url == null)
+			return "";
+
+		int end = url.length();
+		for (char c : new char[] { '?', '#' })
+		{
+			int i = url.indexOf(c);
+			if (i >= 0 && i < end)
+				end = i;
+		}
+
+		int scheme = url.indexOf("://"), pathStart = scheme < 0 ? -1 : url.indexOf('/', scheme + 3);
+		if (pathStart < 0 || pathStart > end)
+			return url.substring(0, end);
+
+		StringBuilder sb = new StringBuilder(url.substring(0, pathStart));
+		for (String segment : url.substring(pathStart + 1, end).split("/", -1))
+			sb.append('/').append(segment.chars().anyMatch(Character::isDigit) ? "*" : segment);
+
+		return sb.toString();
+	}
+
+	/**
+	 * The browser session a {@code LabelPrefetcher} captures pages from, and the test.ai server it classifies labels with.
+	 */
+	interface Session
+	{
+		/**
+		 * Gets the URL of the page the browser is on.
+		 * 
+		 * @return The URL of the current page
+		 */
+		String currentUrl();
+
+		/**
+		 * Determines the current epoch of the page, see {@link PageEpoch#current()}.
+		 * 
+		 * @return The current epoch of the page
+		 */
+		long epoch();
+
+		/**
+		 * Fetches the source of the current page.
+		 * 
+		 * @return The page source
+		 */
+		String pageSource();
+
+		/**
+		 * Captures a screenshot of the current page.
+		 * 
+		 * @return The screenshot, which the caller must close.
+		 */
+		Screenshot screenshot();
+
+		/**
+		 * Gets the {@code ExecutorService} to run prefetches on.
+		 * 
+		 * @return The {@code ExecutorService}
+		 */
+		ExecutorService executor();
+
+		/**
+		 * Classifies a label as a background request.
+		 * 
+		 * @param label The label to classify
+		 * @param screenshot The screenshot of the page
+		 * @param pageSource The source of the page
+		 * @return The response from the test.ai API, as json.
+		 * @throws IOException Network error
+		 */
+		JsonObject classify(String label, Screenshot screenshot, String pageSource) throws IOException;
+	}
+
+	/**
+	 * A prefetched classification result.
+	 */
+	private static class Prefetched
+	{
+		/**
+		 * The response from the test.ai API
+		 */
+		final JsonObject response;
+
+		/**
+		 * The epoch of the page when the screenshot and page source sent to test.ai were captured
+		 */
+		final long epoch;
+
+		/**
+		 * Constructor, creates a new Prefetched
+		 * 
+		 * @param response The response from the test.ai API
+		 * @param epoch The epoch of the page when the screenshot and page source sent to test.ai were captured
+		 */
+		Prefetched(JsonObject response, long epoch)
+		{
+			this.response = response;
+			this.epoch = epoch;
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package ai.test.sdk;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, lock-free histogram of latencies, in nanoseconds. Buckets are laid out as in an HDR histogram: each power of two is split into {@code 2^(SUB_BUCKET_BITS - 1)} linear
+ * sub-buckets, so every recorded value is reported to within about 6% of its true value, over the entire range of a {@code long}. Recording a value is a single atomic increment.
+ */
+final class LatencyHistogram
+{
+	/**
+	 * The number of bits of precision kept for each value.
+	 */
+	private static final int SUB_BUCKET_BITS = 5;
+
+	/**
+	 * The number of sub-buckets in each power of two above {@code 2^SUB_BUCKET_BITS}.
+	 */
+	private static final int HALF_SUB_BUCKETS = 1 << (SUB_BUCKET_BITS - 1);
+
+	/**
+	 * The number of buckets needed to cover every non-negative {@code long}.
+	 */
+	private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 2) * HALF_SUB_BUCKETS;
+
+	/**
+	 * The number of values recorded in each bucket
+	 */
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/**
+	 * Records a value.
+	 * 
+	 * @param nanos The value to record. Negative values are recorded as 0.
+	 */
+	public void record(long nanos)
+	{
+		counts.incrementAndGet(bucket(Math.max(nanos, 0)));
+	}
+
+	/**
+	 * Takes a snapshot of this histogram. Values recorded while the snapshot is being taken may or may not be included.
+	 * 
+	 * @return The number of values in each bucket.
+	 */
+	public long[] snapshot()
+	{
+		long[] l = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++)
+			l[i] = counts.get(i);
+
+		return l;
+	}
+
+	/**
+	 * Counts the values in a snapshot.
+	 * 
+	 * @param snapshot A snapshot from {@link #snapshot()}
+	 * @return The number of values in {@code snapshot}
+	 */
+	public static long count(long[] snapshot)
+	{
+		long n = 0;
+		for (long c : snapshot)
+			n += c;
+
+		return n;
+	}
+
+	/**
+	 * Determines the value at a percentile of a snapshot.
+	 * 
+	 * @param snapshot A snapshot from {@link #snapshot()}
+	 * @param percentile The percentile, between 0 and 100. Use 100 for the maximum value.
+	 * @return The highest value equivalent to the value at {@code percentile}, or 0 if {@code snapshot} is empty.
+	 */
+	public static long percentile(long[] snapshot, double percentile)
+	{
+		long total = count(snapshot), target = Math.max(1, (long) Math.ceil(total * percentile / 100)), seen = 0;
+		if (total == 0)
+			return 0;
+
+		for (int i = 0; i < snapshot.length; i++)
+			if ((seen += snapshot[i]) >= target)
+				return highestEquivalentValue(i);
+
+		return highestEquivalentValue(snapshot.length - 1);
+	}
+
+	/**
+	 * Determines the bucket a value is recorded in.
+	 * 
+	 * @param v The value. This must be non-negative.
+	 * @return The index of the bucket for {@code v}
+	 */
+	static int bucket(long v)
+	{
+		if (v < 2 * HALF_SUB_BUCKETS)
+			return (int) v;
+
+		int shift = 63 - Long.numberOfLeadingZeros(v) - (SUB_BUCKET_BITS - 1);
+		return shift * HALF_SUB_BUCKETS + (int) (v >>> shift);
+	}
+
+	/**
+	 * Determines the highest value recorded in a bucket.
+	 * 
+	 * @param bucket The index of the bucket
+	 * @return The highest value which is recorded in {@code bucket}
+	 */
+	static long highestEquivalentValue(int bucket)
+	{
+		if (bucket < 2 * HALF_SUB_BUCKETS)
+			return bucket;
+
+		int shift = bucket / HALF_SUB_BUCKETS - 1;
+		long sub = bucket % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+
+		return ((sub + 1) << shift) - 1; // wraps to Long.MAX_VALUE for the last bucket
+	}
+}
@@ -1,22 +1,18 @@
 package ai.test.sdk;
 
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
 
 import org.openqa.selenium.NoSuchElementException;
-import org.openqa.selenium.Rectangle;
-import org.openqa.selenium.StaleElementReferenceException;
 import org.openqa.selenium.WebElement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.JsonObject;
 
-import ai.test.sdk.CollectionUtils.Tuple;
+import ai.test.sdk.ScoringStage.Box;
+import ai.test.sdk.ScoringStage.Candidate;
 
 /**
  * Static methods for matching bounding boxes to underlying Selenium elements.
@@ -31,6 +27,33 @@ class MatchUtils
 	 */
 	private static Logger log = LoggerFactory.getLogger(MatchUtils.class);
 
+	/**
+	 * Matches each bounding box in {@code arguments[0]} (as {@code [x, y, width, height]}, in page coordinates) to an element on the page, applying the same scoring as
+	 * {@link ScoringStage#DEFAULT}: IOU, center hit, then the input/button preference. Returns {@code [element, score]} for each box, or {@code null} if nothing contains its center.
+	 */
+	private static final String MATCH_SCRIPT = "var boxes = arguments[0], all = document.getElementsByTagName('*'), sx = window.pageXOffset, sy = window.pageYOffset, rects = new Array(all.length), out = [];" //
+			+ "for (var i = 0; i < all.length; i++) {" //
+			+ "  var r = all[i].getBoundingClientRect();" //
+			+ "  rects[i] = [Math.trunc(r.left + sx), Math.trunc(r.top + sy), Math.trunc(r.width), Math.trunc(r.height)];" //
+			+ "}" //
+			+ "for (var b = 0; b < boxes.length; b++) {" //
+			+ "  var x = boxes[b][0], y = boxes[b][1], w = boxes[b][2], h = boxes[b][3], cx = x + w / 2, cy = y + h / 2, hits = [], best = null;" //
+			+ "  for (var i = 0; i < rects.length; i++) {" //
+			+ "    var q = rects[i];" //
+			+ "    if (!(cx > q[0] && cx < q[0] + q[2] && cy > q[1] && cy < q[1] + q[3])) continue;" //
+			+ "    var dx = Math.min(x + w, q[0] + q[2]) - Math.max(x, q[0]), dy = Math.min(y + h, q[1] + q[3]) - Math.max(y, q[1]), o = dx >= 0 && dy >= 0 ? dx * dy : 0, s = o / (w * h + q[2] * q[3] - o);" //
+			+ "    if (s > 0) hits.push([i, s]);" //
+			+ "  }" //
+			+ "  hits.sort(function(m, n) { return n[1] - m[1]; });" // stable, so ties stay in document order as in the JVM
+			+ "  for (var j = 0; j < hits.length && !best; j++) {" //
+			+ "    var t = all[hits[j][0]].tagName.toLowerCase();" //
+			+ "    if (t === 'input' || t === 'button' && hits[j][1] > hits[0][1] * 0.9) best = hits[j];" //
+			+ "  }" //
+			+ "  best = best || hits[0];" //
+			+ "  out.push(best ? [all[best[0]], best[1]] : null);" //
+			+ "}" //
+			+ "return out;";
+
 	/**
 	 * Matches a bounding box returned by the test.ai API to a selenium WebElement on the current page.
 	 * 
@@ -40,115 +63,197 @@ class MatchUtils
 	 */
 	public static WebElement matchBoundingBoxToSeleniumElement(JsonObject boundingBox, TestAiDriver driver)
 	{
-		HashMap<String, Double> newBox = new HashMap<>();
-		newBox.put("x", boundingBox.get("x").getAsDouble() / driver.multiplier);
-		newBox.put("y", boundingBox.get("y").getAsDouble() / driver.multiplier);
-		newBox.put("width", boundingBox.get("width").getAsDouble() / driver.multiplier);
-		newBox.put("height", boundingBox.get("height").getAsDouble() / driver.multiplier);
+		if (inBrowser(driver))
+			try
+			{
+				WebElement e = matchInBrowser(List.of(boundingBox), driver).get(0);
+				if (e == null)
+					throw new NoSuchElementException("Could not find any web element under the center of the bounding box");
+
+				return e;
+			}
+			catch (NoSuchElementException e)
+			{
+				throw e;
+			}
+			catch (Throwable e)
+			{
+				log.debug("Unable to match in the browser, falling back to matching in the JVM: {}", e.getMessage());
+			}
+
+		return matchInJVM(boundingBox, driver);
+	}
+
+	/**
+	 * Matches a bounding box returned by the test.ai API to a selenium WebElement on the current page, by collecting every candidate element and ranking them in the JVM.
+	 * 
+	 * @param boundingBox The json representing the element returned by the test.ai API.
+	 * @param driver The {@code TestAiDriver} to use
+	 * @return The best-matching, underlying {@code WebElement} which best fits the parameters specified by {@code boudingBox}
+	 */
+	private static WebElement matchInJVM(JsonObject boundingBox, TestAiDriver driver)
+	{
+		CandidateTable table = CandidateTable.collect(driver.driver, driver.deepMatching, driver.rectParallelism, driver.rectParallelism > 1 ? driver.executor() : null);
 
-		List<WebElement> elements = driver.driver.findElementsByXPath("//*");
-		List<Double> iouScores = new ArrayList<>();
+		List<Candidate> ranked = rank(table, toBox(boundingBox, driver.multiplier), driver.scoringStages);
+		if (ranked.isEmpty())
+			throw new NoSuchElementException("Could not find any web element under the center of the bounding box");
+
+		return table.element(ranked.get(0).index);
+	}
 
-		for (WebElement e : elements)
+	/**
+	 * Matches bounding boxes returned by the test.ai API to selenium WebElements on the current page. All boxes are matched against a single snapshot of the page, and each box only
+	 * considers the elements which contain its center, so matching k boxes against a page with n elements costs O(n + k) rather than O(n * k).
+	 * 
+	 * @param boundingBoxes The json representing the elements returned by the test.ai API.
+	 * @param driver The {@code TestAiDriver} to use
+	 * @return The best-matching, underlying {@code WebElement} for each entry in {@code boundingBoxes}, in the same order. Entries are {@code null} for boxes which could not be matched.
+	 */
+	public static List<WebElement> matchBoundingBoxesToSeleniumElements(List<JsonObject> boundingBoxes, TestAiDriver driver)
+	{
+		if (inBrowser(driver))
 			try
 			{
-				iouScores.add(iouBoxes(newBox, e.getRect()));
+				return matchInBrowser(boundingBoxes, driver);
 			}
-			catch (StaleElementReferenceException x)
+			catch (Throwable e)
 			{
-				log.debug("Stale reference to element '{}', setting score of 0", e);
-				iouScores.add(0.0);
+				log.debug("Unable to match in the browser, falling back to matching in the JVM: {}", e.getMessage());
 			}
 
-		List<Tuple<Double, WebElement>> composite = new ArrayList<>();
-		for (int i = 0; i < iouScores.size(); i++)
-			composite.add(new Tuple<>(iouScores.get(i), elements.get(i)));
+		return matchAllInJVM(boundingBoxes, driver);
+	}
 
-		Collections.sort(composite, (o1, o2) -> o2.k.compareTo(o1.k)); // sort the composite values in reverse (descending) order
-		composite = composite.stream().filter(x -> x.k > 0).filter(x -> centerHit(newBox, x.v.getRect())).collect(Collectors.toList());
+	/**
+	 * Matches bounding boxes returned by the test.ai API to selenium WebElements on the current page, by collecting every candidate element and ranking them in the JVM.
+	 * 
+	 * @param boundingBoxes The json representing the elements returned by the test.ai API.
+	 * @param driver The {@code TestAiDriver} to use
+	 * @return The best-matching, underlying {@code WebElement} for each entry in {@code boundingBoxes}, in the same order. Entries are {@code null} for boxes which could not be matched.
+	 */
+	private static List<WebElement> matchAllInJVM(List<JsonObject> boundingBoxes, TestAiDriver driver)
+	{
+		CandidateTable table = CandidateTable.collect(driver.driver, driver.deepMatching, driver.rectParallelism, driver.rectParallelism > 1 ? driver.executor() : null);
 
-		if (composite.size() == 0)
-			throw new NoSuchElementException("Could not find any web element under the center of the bounding box");
+		List<WebElement> l = new ArrayList<>(boundingBoxes.size());
+		for (JsonObject bb : boundingBoxes)
+		{
+			Box box = toBox(bb, driver.multiplier);
 
-		for (Tuple<Double, WebElement> t : composite)
-			if (t.v.getTagName().equals("input") || t.v.getTagName().equals(("button")) && t.k > composite.get(0).k * 0.9)
-				return t.v;
+			List<Candidate> initial = new ArrayList<>();
+			for (int i : table.containing(box.x + box.width / 2, box.y + box.height / 2))
+				initial.add(new Candidate(i));
 
-		return composite.get(0).v;
+			List<Candidate> ranked = rank(table, box, driver.scoringStages, initial);
+			l.add(ranked.isEmpty() ? null : table.element(ranked.get(0).index));
+		}
+
+		return l;
 	}
 
 	/**
-	 * Calculate the IOU score of two rectangles. This is derived from the overlap and areas of both rectangles.
+	 * Determines if bounding boxes should be matched in the browser. {@code MATCH_SCRIPT} only implements the default scoring stages, and does not descend into shadow roots or frames.
 	 * 
-	 * @param box1 The first box The first rectangle to check (the json returned from the test.ai API)
-	 * @param box2 The second box The second rectangle to check (the Rectangle from the selenium WebElement)
-	 * @return The IOU score of the two rectangles. Higher score means relative to other scores (obtained from comparisons between other pairs of rectangles) means better match.
+	 * @param driver The {@code TestAiDriver} to use
+	 * @return {@code true} if bounding boxes should be matched in the browser.
 	 */
-	private static double iouBoxes(Map<String, Double> box1, Rectangle box2)
+	private static boolean inBrowser(TestAiDriver driver)
 	{
-		return iou(box1.get("x"), box1.get("y"), box1.get("width"), box1.get("height"), (double) box2.x, (double) box2.y, (double) box2.width, (double) box2.height);
+		return driver.inBrowserMatching && !driver.deepMatching && driver.scoringStages.equals(ScoringStage.DEFAULT);
 	}
 
 	/**
-	 * Calculate the IOU score of two rectangles. This is derived from the overlap and areas of both rectangles.
+	 * Matches bounding boxes returned by the test.ai API to selenium WebElements on the current page with {@code MATCH_SCRIPT}, in a single round trip which only returns the winning elements.
+	 * If cross-checking is enabled, each box is also matched in the JVM, and the JVM's match is used if the two disagree.
 	 * 
-	 * @param x The x coordinate of the first box (upper left corner)
-	 * @param y The y coordinate of the first box (upper left corner)
-	 * @param w The width of the first box
-	 * @param h The height of the first box
-	 * @param xx The x coordinate of the second box (upper left corner)
-	 * @param yy The y coordinate of the second box (upper left corner)
-	 * @param ww The width of the second box
-	 * @param hh The height of the second box
-	 * @return The IOU value of both boxes.
+	 * @param boundingBoxes The json representing the elements returned by the test.ai API.
+	 * @param driver The {@code TestAiDriver} to use
+	 * @return The best-matching, underlying {@code WebElement} for each entry in {@code boundingBoxes}, in the same order. Entries are {@code null} for boxes which could not be matched.
 	 */
-	private static double iou(double x, double y, double w, double h, double xx, double yy, double ww, double hh)
+	private static List<WebElement> matchInBrowser(List<JsonObject> boundingBoxes, TestAiDriver driver)
 	{
-		double overlap = areaOverlap(x, y, w, h, xx, yy, ww, hh);
-		return overlap / (area(w, h) + area(ww, hh) - overlap);
+		List<List<Double>> boxes = new ArrayList<>(boundingBoxes.size());
+		for (JsonObject bb : boundingBoxes)
+		{
+			Box box = toBox(bb, driver.multiplier);
+			boxes.add(List.of(box.x, box.y, box.width, box.height));
+		}
+
+		List<?> results = (List<?>) driver.driver.executeScript(MATCH_SCRIPT, boxes);
+
+		List<WebElement> l = new ArrayList<>(results.size());
+		for (Object o : results)
+		{
+			List<?> r = (List<?>) o;
+			if (r != null)
+				log.trace("Matched {} in the browser with a score of {}", r.get(0), r.get(1));
+
+			l.add(r == null ? null : (WebElement) r.get(0));
+		}
+
+		if (driver.matchCrossCheck)
+		{
+			List<WebElement> expected = matchAllInJVM(boundingBoxes, driver);
+			for (int i = 0; i < l.size(); i++)
+				if (!Objects.equals(l.get(i), expected.get(i)))
+				{
+					log.warn("In-browser match {} disagrees with the JVM's match {} for {}, using the JVM's match", l.get(i), expected.get(i), boundingBoxes.get(i));
+					l.set(i, expected.get(i));
+				}
+		}
+
+		return l;
 	}
 
 	/**
-	 * Determines the amount of area overlap between two rectangles
+	 * Ranks the candidates in {@code table} against {@code box} by running them through each of the specified scoring stages in order. This does not make any calls to the browser.
 	 * 
-	 * @param x The x coordinate of the first box (upper left corner)
-	 * @param y The y coordinate of the first box (upper left corner)
-	 * @param w The width of the first box
-	 * @param h The height of the first box
-	 * @param xx The x coordinate of the second box (upper left corner)
-	 * @param yy The y coordinate of the second box (upper left corner)
-	 * @param ww The width of the second box
-	 * @param hh The height of the second box
-	 * @return The amount of overlap, in square pixels.
+	 * @param table The candidates to rank
+	 * @param box The bounding box to match, in page coordinates
+	 * @param stages The scoring stages to apply
+	 * @return The ranked candidates, best first.
 	 */
-	private static double areaOverlap(double x, double y, double w, double h, double xx, double yy, double ww, double hh)
+	public static List<Candidate> rank(CandidateTable table, Box box, List<ScoringStage> stages)
 	{
-		double dx = Math.min(x + w, xx + ww) - Math.max(x, xx), dy = Math.min(y + h, yy + hh) - Math.max(y, yy);
-		return dx >= 0 && dy >= 0 ? dx * dy : 0;
+		List<Candidate> ranked = new ArrayList<>(table.size());
+		for (int i = 0; i < table.size(); i++)
+			ranked.add(new Candidate(i));
+
+		return rank(table, box, stages, ranked);
 	}
 
 	/**
-	 * Convenience function, calculates the area of a rectangle
+	 * Ranks a subset of the candidates in {@code table} against {@code box} by running them through each of the specified scoring stages in order. This does not make any calls to the
+	 * browser.
 	 * 
-	 * @param w The width of the rectangle
-	 * @param h The height of the rectangle
-	 * @return The area of the rectangle
+	 * @param table The candidate table
+	 * @param box The bounding box to match, in page coordinates
+	 * @param stages The scoring stages to apply
+	 * @param ranked The candidates to rank, in document order.
+	 * @return The ranked candidates, best first.
 	 */
-	private static double area(double w, double h)
+	static List<Candidate> rank(CandidateTable table, Box box, List<ScoringStage> stages, List<Candidate> ranked)
 	{
-		return w * h;
+		for (ScoringStage s : stages)
+		{
+			ranked = s.apply(table, box, ranked);
+			log.trace("{} candidates remain after {}", ranked.size(), s);
+		}
+
+		return ranked;
 	}
 
 	/**
-	 * Determines if center point of {@code box1} falls within the area of {@code box2}
+	 * Converts a bounding box returned by the test.ai API to page coordinates.
 	 * 
-	 * @param box1 The first rectangle to check (the json returned from the test.ai API)
-	 * @param box2 The second rectangle to check (the Rectangle from the selenium WebElement)
-	 * @return {@code true} if the center point of {@code box1} falls within the area of {@code box2}
+	 * @param boundingBox The json representing the element returned by the test.ai API.
+	 * @param multiplier The screen density multiplier
+	 * @return The bounding box, in page coordinates.
 	 */
-	private static boolean centerHit(Map<String, Double> box1, Rectangle box2)
+	static Box toBox(JsonObject boundingBox, double multiplier)
 	{
-		double centerX = box1.get("x") + box1.get("width") / 2, centerY = box1.get("y") + box1.get("height") / 2;
-		return centerX > box2.x && centerX < box2.x + box2.width && centerY > box2.y && centerY < box2.y + box2.height;
+		return new Box(boundingBox.get("x").getAsDouble() / multiplier, boundingBox.get("y").getAsDouble() / multiplier, boundingBox.get("width").getAsDouble() / multiplier,
+				boundingBox.get("height").getAsDouble() / multiplier);
 	}
 }
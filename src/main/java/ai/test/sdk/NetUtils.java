@@ -1,11 +1,19 @@
 package ai.test.sdk;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.security.cert.CertificateException;
 import java.security.cert.X509Certificate;
 import java.time.Duration;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.LongConsumer;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
@@ -13,29 +21,59 @@ import javax.net.ssl.SSLSession;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonWriter;
 
-import okhttp3.FormBody;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
 import okhttp3.HttpUrl;
 import okhttp3.MediaType;
+import okhttp3.MultipartBody;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ByteString;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
+import okio.Utf8;
 
 /**
  * Shared network/http-related utilities and functionality
  * 
  * @author Alexander Wu (alec@test.ai)
- *
+ * 
  */
 final class NetUtils
 {
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(NetUtils.class);
+
+	/**
+	 * The default maximum number of concurrent requests to each host. OkHttp's default of 5 is too low for prefetching, hedging, and parallel lookups over HTTP/1.1.
+	 */
+	static final int MAX_REQUESTS_PER_HOST = 16;
+
 	/**
 	 * The {@code MediaType} representing the json MIME type.
 	 */
 	private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
 
+	/**
+	 * The {@code MediaType} representing the plain text MIME type.
+	 */
+	private static final MediaType TEXT = MediaType.get("text/plain; charset=utf-8");
+
 	/**
 	 * Performs a simple POST to the specified url with the provided client and {@code RequestBody}.
 	 * 
@@ -48,7 +86,50 @@ final class NetUtils
 	 */
 	private static Response basicPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, RequestBody b) throws IOException
 	{
-		return client.newCall(new Request.Builder().url(baseURL.newBuilder().addPathSegment(endpoint).build()).post(b).build()).execute();
+		return execute(newPOST(client, baseURL, endpoint, b));
+	}
+
+	/**
+	 * Prepares a POST to the specified url with the provided client and {@code RequestBody}, without sending it. Use this where the {@code Call} itself is needed, e.g. to cancel or clone it.
+	 * 
+	 * @param client The OkHttp client to use
+	 * @param baseURL The base URL to target
+	 * @param endpoint The endpoint on the baseURL to target.
+	 * @param b The request body to POST.
+	 * @return The {@code Call}, ready to be executed
+	 */
+	static Call newPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, RequestBody b)
+	{
+		return client.newCall(new Request.Builder().url(baseURL.newBuilder().addPathSegment(endpoint).build()).post(b).build());
+	}
+
+	/**
+	 * Executes a call on its client's {@code Dispatcher}, and waits for the response. Unlike {@code Call.execute()}, this honors the dispatcher's limits on concurrent requests, and can be
+	 * interrupted: if the current thread is interrupted while waiting, the call is cancelled so that it stops uploading, and any response which arrives anyway is closed.
+	 * 
+	 * @param call The call to execute. This must not have been executed yet.
+	 * @return The response
+	 * @throws IOException Network error, or if this thread was interrupted while waiting.
+	 */
+	static Response execute(Call call) throws IOException
+	{
+		CompletableFuture<Response> result = new CompletableFuture<>();
+		call.enqueue(new FutureCallback(result));
+		try
+		{
+			return result.get();
+		}
+		catch (InterruptedException e)
+		{
+			call.cancel();
+			result.thenAccept(Response::close);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for a response from " + call.request().url());
+		}
+		catch (ExecutionException e)
+		{
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
 	}
 
 	/**
@@ -63,7 +144,56 @@ final class NetUtils
 	 */
 	public static Response basicPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, JsonObject jo) throws IOException
 	{
-		return basicPOST(client, baseURL, endpoint, RequestBody.create(jo.toString(), JSON));
+		return basicPOST(client, baseURL, endpoint, jo.toString());
+	}
+
+	/**
+	 * Performs a simple POST to the specified url with the provided client and serialized json data.
+	 * 
+	 * @param client The OkHttp client to use
+	 * @param baseURL The base URL to target
+	 * @param endpoint The endpoint on the baseURL to target.
+	 * @param json The json to put in the request body
+	 * @return The response from the server, in the form of a {@code Response} object
+	 * @throws IOException Network error
+	 */
+	public static Response basicPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, String json) throws IOException
+	{
+		return basicPOST(client, baseURL, endpoint, RequestBody.create(json, JSON));
+	}
+
+	/**
+	 * Performs a simple POST to the specified url with the provided client and json payload.
+	 * 
+	 * @param client The OkHttp client to use
+	 * @param baseURL The base URL to target
+	 * @param endpoint The endpoint on the baseURL to target.
+	 * @param json The json to put in the request body
+	 * @param onWritten Called with the size of the body in bytes each time it is written
+	 * @return The response from the server, in the form of a {@code Response} object
+	 * @throws IOException Network error
+	 */
+	public static Response basicPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, String json, LongConsumer onWritten) throws IOException
+	{
+		return basicPOST(client, baseURL, endpoint, counted(RequestBody.create(json, JSON), onWritten));
+	}
+
+	/**
+	 * Performs a simple POST to the specified url with the provided client and json payload. The payload is serialized directly into the request as it is sent, so neither a
+	 * {@code JsonObject} nor a String is built for it.
+	 * 
+	 * @param client The OkHttp client to use
+	 * @param baseURL The base URL to target
+	 * @param endpoint The endpoint on the baseURL to target.
+	 * @param payload The payload to put in the request body
+	 * @param onWritten Called with the size of the body in bytes each time it is written, or {@code null} if this is not needed.
+	 * @return The response from the server, in the form of a {@code Response} object
+	 * @throws IOException Network error
+	 */
+	public static Response basicPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, JsonPayload payload, LongConsumer onWritten) throws IOException
+	{
+		RequestBody body = new JsonBody(payload);
+		return basicPOST(client, baseURL, endpoint, onWritten != null ? counted(body, onWritten) : body);
 	}
 
 	/**
@@ -78,21 +208,115 @@ final class NetUtils
 	 */
 	public static Response basicPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, HashMap<String, String> form) throws IOException
 	{
-		FormBody.Builder fb = new FormBody.Builder();
-		form.forEach(fb::add);
+		return basicPOST(client, baseURL, endpoint, formBody(form));
+	}
+
+	/**
+	 * Performs a multipart form POST to the specified url with the provided client, form data, and files. Values are streamed directly into the request, so no intermediate copies of large
+	 * values (e.g. page sources or screenshots) are made.
+	 * 
+	 * @param client The OkHttp client to use
+	 * @param baseURL The base URL to target
+	 * @param endpoint The endpoint on the baseURL to target.
+	 * @param form The form data to POST
+	 * @param files The files to POST, keyed by form field name.
+	 * @return The response from the server, in the form of a {@code Response} object
+	 * @throws IOException Network error
+	 */
+	public static Response multipartPOST(OkHttpClient client, HttpUrl baseURL, String endpoint, Map<String, String> form, Map<String, RequestBody> files) throws IOException
+	{
+		return basicPOST(client, baseURL, endpoint, multipartBody(form, files));
+	}
+
+	/**
+	 * Builds a url-encoded form {@code RequestBody}. Values are encoded as they are written to the request, so no intermediate copies of large values (e.g. base64 screenshots) are made.
+	 * 
+	 * @param form The form data
+	 * @return The {@code RequestBody}
+	 */
+	static RequestBody formBody(Map<String, String> form)
+	{
+		return new FormBody(form);
+	}
+
+	/**
+	 * Wraps a {@code RequestBody} so that the bytes of the body are counted as they are written to the request. Nothing is measured up front, and a body which is written more than once (e.g.
+	 * when a request is retried or hedged) is counted each time.
+	 * 
+	 * @param body The body to count
+	 * @param onWritten Called with the size of the body in bytes each time it is written
+	 * @return The wrapped {@code RequestBody}
+	 */
+	static RequestBody counted(RequestBody body, LongConsumer onWritten)
+	{
+		return new CountedBody(body, onWritten);
+	}
 
-		return basicPOST(client, baseURL, endpoint, fb.build());
+	/**
+	 * Builds a multipart form {@code RequestBody}. Values are streamed directly into the request, so no intermediate copies of large values (e.g. page sources or screenshots) are made.
+	 * 
+	 * @param form The form data
+	 * @param files The files, keyed by form field name.
+	 * @return The {@code RequestBody}
+	 */
+	static RequestBody multipartBody(Map<String, String> form, Map<String, RequestBody> files)
+	{
+		MultipartBody.Builder mb = new MultipartBody.Builder().setType(MultipartBody.FORM);
+		form.forEach((k, v) -> mb.addFormDataPart(k, null, new TextBody(v)));
+		files.forEach((k, v) -> mb.addFormDataPart(k, k, v));
+
+		return mb.build();
 	}
 
 	/**
-	 * Convenience method, creates a new OkHttpBuilder with timeouts configured.
+	 * Convenience method, creates a new OkHttpBuilder with timeouts and the limit on concurrent requests to each host configured. HTTP/2 is negotiated with servers which support it over TLS.
 	 * 
 	 * @return A OkHttpClient builder with reasonable timeouts configured.
 	 */
 	static OkHttpClient.Builder basicClient()
 	{
 		Duration d = Duration.ofSeconds(60);
-		return new OkHttpClient.Builder().connectTimeout(d).writeTimeout(d).readTimeout(d).callTimeout(d);
+		return new OkHttpClient.Builder().connectTimeout(d).writeTimeout(d).readTimeout(d).callTimeout(d).dispatcher(dispatcher(MAX_REQUESTS_PER_HOST));
+	}
+
+	/**
+	 * Configures an OkHttpClient builder to speak HTTP/2 over cleartext without first negotiating it (h2c with prior knowledge). This is only useful for servers reached over {@code http://},
+	 * such as local stand-ins for test.ai, which would otherwise be spoken to with HTTP/1.1.
+	 * 
+	 * @param b The builder to configure
+	 * @return {@code b}, for chaining convenience.
+	 */
+	static OkHttpClient.Builder priorKnowledge(OkHttpClient.Builder b)
+	{
+		return b.protocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+	}
+
+	/**
+	 * Creates a new {@code Dispatcher} with the specified limit on concurrent requests to each host. The limit only applies to calls made through {@link #execute(Call)} (or otherwise
+	 * enqueued), which is how all requests to test.ai are made.
+	 * 
+	 * @param maxRequestsPerHost The maximum number of concurrent requests to each host
+	 * @return The new {@code Dispatcher}
+	 */
+	static Dispatcher dispatcher(int maxRequestsPerHost)
+	{
+		Dispatcher d = new Dispatcher();
+		d.setMaxRequestsPerHost(maxRequestsPerHost);
+		d.setMaxRequests(Math.max(d.getMaxRequests(), maxRequestsPerHost));
+
+		return d;
+	}
+
+	/**
+	 * Asynchronously opens a connection to {@code baseURL}, so that DNS resolution and the TCP and TLS handshakes are done before the first real request is made. The connection is returned
+	 * to {@code client}'s connection pool for reuse. Any errors are ignored.
+	 * 
+	 * @param client The OkHttp client to warm up
+	 * @param baseURL The base URL to connect to
+	 */
+	static void warmUp(OkHttpClient client, HttpUrl baseURL)
+	{
+		client.newCall(new Request.Builder().url(baseURL).head().build()).enqueue(new WarmUpCallback());
 	}
 
 	/**
@@ -117,11 +341,472 @@ final class NetUtils
 		}
 	}
 
+	/**
+	 * A {@code RequestBody} which encodes a String as UTF-8 directly into the request sink, rather than copying it into an intermediate byte array first.
+	 */
+	static class TextBody extends RequestBody
+	{
+		/**
+		 * The String to write
+		 */
+		private final String s;
+
+		/**
+		 * Constructor, creates a new TextBody
+		 * 
+		 * @param s The String to write
+		 */
+		TextBody(String s)
+		{
+			this.s = s;
+		}
+
+		@Override
+		public MediaType contentType()
+		{
+			return TEXT;
+		}
+
+		@Override
+		public long contentLength()
+		{
+			return Utf8.size(s);
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException
+		{
+			sink.writeUtf8(s);
+		}
+	}
+
+	/**
+	 * A {@code RequestBody} which serializes a {@code JsonPayload} straight to UTF-8 bytes, without building a {@code JsonObject} tree or a String first. The payloads sent this way are
+	 * small, so the bytes are serialized once and kept, which lets the body be sent with a {@code Content-Length} rather than chunked, and resent as is if the request is retried.
+	 */
+	static class JsonBody extends RequestBody
+	{
+		/**
+		 * The payload to write
+		 */
+		private final JsonPayload payload;
+
+		/**
+		 * The serialized payload. Lazily computed by {@link #bytes()}.
+		 */
+		private ByteString bytes;
+
+		/**
+		 * Constructor, creates a new JsonBody
+		 * 
+		 * @param payload The payload to write
+		 */
+		JsonBody(JsonPayload payload)
+		{
+			this.payload = payload;
+		}
+
+		@Override
+		public MediaType contentType()
+		{
+			return JSON;
+		}
+
+		@Override
+		public long contentLength() throws IOException
+		{
+			return bytes().size();
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException
+		{
+			sink.write(bytes());
+		}
+
+		/**
+		 * Serializes the payload, if it has not been already.
+		 * 
+		 * @return The serialized payload
+		 * @throws IOException If the payload could not be serialized
+		 */
+		private synchronized ByteString bytes() throws IOException
+		{
+			if (bytes == null)
+			{
+				Buffer b = new Buffer();
+				JsonWriter w = new JsonWriter(new OutputStreamWriter(b.outputStream(), StandardCharsets.UTF_8));
+				payload.writeTo(w);
+				w.close();
+
+				bytes = b.readByteString();
+			}
+
+			return bytes;
+		}
+	}
+
+	/**
+	 * A {@code RequestBody} which counts the bytes of another as they are written.
+	 */
+	private static class CountedBody extends RequestBody
+	{
+		/**
+		 * The body to count
+		 */
+		private final RequestBody body;
+
+		/**
+		 * Called with the size of the body each time it is written
+		 */
+		private final LongConsumer onWritten;
+
+		/**
+		 * Constructor, creates a new CountedBody
+		 * 
+		 * @param body The body to count
+		 * @param onWritten Called with the size of the body in bytes each time it is written
+		 */
+		CountedBody(RequestBody body, LongConsumer onWritten)
+		{
+			this.body = body;
+			this.onWritten = onWritten;
+		}
+
+		@Override
+		public MediaType contentType()
+		{
+			return body.contentType();
+		}
+
+		@Override
+		public long contentLength() throws IOException
+		{
+			return body.contentLength();
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException
+		{
+			CountingSink counter = new CountingSink(sink);
+			BufferedSink counted = Okio.buffer(counter);
+			body.writeTo(counted);
+			counted.emit(); // not close() or flush(), OkHttp owns the sink
+
+			onWritten.accept(counter.count);
+		}
+	}
+
+	/**
+	 * A {@code RequestBody} which url-encodes form data directly into the request sink, through a chunk borrowed from the {@link BufferPool}. The length of the form is computed with a
+	 * counting pass over it, which does not allocate, so that it is sent with a {@code Content-Length} rather than chunked.
+	 */
+	private static class FormBody extends RequestBody
+	{
+		/**
+		 * The {@code MediaType} of url-encoded forms
+		 */
+		private static final MediaType FORM = MediaType.get("application/x-www-form-urlencoded");
+
+		/**
+		 * Hex digits, for percent-encoding
+		 */
+		private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+
+		/**
+		 * The form data
+		 */
+		private final Map<String, String> form;
+
+		/**
+		 * The length of the encoded form in bytes. Lazily computed by {@link #contentLength()}, and -1 until then.
+		 */
+		private long length = -1;
+
+		/**
+		 * Constructor, creates a new FormBody
+		 * 
+		 * @param form The form data
+		 */
+		FormBody(Map<String, String> form)
+		{
+			this.form = form;
+		}
+
+		@Override
+		public MediaType contentType()
+		{
+			return FORM;
+		}
+
+		@Override
+		public long contentLength() throws IOException
+		{
+			if (length < 0)
+				length = encode(null);
+
+			return length;
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException
+		{
+			encode(sink);
+		}
+
+		/**
+		 * Url-encodes the form.
+		 * 
+		 * @param sink The sink to write to, or {@code null} to only count the bytes.
+		 * @return The length of the encoded form, in bytes.
+		 * @throws IOException If the form could not be written to {@code sink}
+		 */
+		private long encode(BufferedSink sink) throws IOException
+		{
+			try (ChunkWriter w = new ChunkWriter(sink))
+			{
+				boolean first = true;
+				for (Map.Entry<String, String> e : form.entrySet())
+				{
+					if (!first)
+						w.put('&');
+
+					encode(e.getKey(), w);
+					w.put('=');
+					encode(e.getValue(), w);
+					first = false;
+				}
+
+				return w.count;
+			}
+		}
+
+		/**
+		 * Url-encodes a String, as {@code URLEncoder} does with UTF-8. Unpaired surrogates are encoded as {@code ?}.
+		 * 
+		 * @param s The String to encode
+		 * @param w The writer to encode {@code s} to
+		 * @throws IOException If {@code s} could not be written
+		 */
+		private static void encode(String s, ChunkWriter w) throws IOException
+		{
+			for (int i = 0; i < s.length(); i++)
+			{
+				char c = s.charAt(i);
+				if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9' || c == '-' || c == '.' || c == '_' || c == '*')
+					w.put(c);
+				else if (c == ' ')
+					w.put('+');
+				else if (c < 0x80)
+					escape(c, w);
+				else if (c < 0x800)
+				{
+					escape(0xc0 | c >> 6, w);
+					escape(0x80 | c & 0x3f, w);
+				}
+				else if (!Character.isSurrogate(c))
+				{
+					escape(0xe0 | c >> 12, w);
+					escape(0x80 | c >> 6 & 0x3f, w);
+					escape(0x80 | c & 0x3f, w);
+				}
+				else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1)))
+				{
+					int cp = Character.toCodePoint(c, s.charAt(++i));
+					escape(0xf0 | cp >> 18, w);
+					escape(0x80 | cp >> 12 & 0x3f, w);
+					escape(0x80 | cp >> 6 & 0x3f, w);
+					escape(0x80 | cp & 0x3f, w);
+				}
+				else
+					escape('?', w);
+			}
+		}
+
+		/**
+		 * Percent-encodes a byte.
+		 * 
+		 * @param b The byte to encode
+		 * @param w The writer to encode {@code b} to
+		 * @throws IOException If {@code b} could not be written
+		 */
+		private static void escape(int b, ChunkWriter w) throws IOException
+		{
+			w.put('%');
+			w.put(HEX[b >> 4 & 0xf]);
+			w.put(HEX[b & 0xf]);
+		}
+	}
+
+	/**
+	 * Buffers bytes in a chunk borrowed from the {@link BufferPool}, and writes them to a sink whenever the chunk fills up.
+	 */
+	private static class ChunkWriter implements AutoCloseable
+	{
+		/**
+		 * The sink to write to, or {@code null} if bytes are only counted.
+		 */
+		private final BufferedSink sink;
+
+		/**
+		 * The chunk, or {@code null} if bytes are only counted.
+		 */
+		private final byte[] chunk;
+
+		/**
+		 * The number of bytes in {@code chunk}
+		 */
+		private int pos;
+
+		/**
+		 * The total number of bytes put so far
+		 */
+		private long count;
+
+		/**
+		 * Constructor, creates a new ChunkWriter
+		 * 
+		 * @param sink The sink to write to, or {@code null} to only count bytes.
+		 */
+		ChunkWriter(BufferedSink sink)
+		{
+			this.sink = sink;
+			chunk = sink != null ? BufferPool.SHARED.acquire(BufferPool.CHUNK_SIZE) : null;
+		}
+
+		/**
+		 * Puts a byte.
+		 * 
+		 * @param b The byte to put
+		 * @throws IOException If the chunk could not be written to the sink
+		 */
+		void put(int b) throws IOException
+		{
+			count++;
+			if (chunk == null)
+				return;
+
+			chunk[pos++] = (byte) b;
+			if (pos == chunk.length)
+				flush();
+		}
+
+		/**
+		 * Writes the buffered bytes to the sink.
+		 * 
+		 * @throws IOException If the bytes could not be written
+		 */
+		private void flush() throws IOException
+		{
+			sink.write(chunk, 0, pos);
+			pos = 0;
+		}
+
+		/**
+		 * Writes any remaining bytes to the sink, and returns the chunk to the pool.
+		 */
+		@Override
+		public void close() throws IOException
+		{
+			if (chunk == null)
+				return;
+
+			try
+			{
+				flush();
+			}
+			finally
+			{
+				BufferPool.SHARED.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * A {@code Sink} which counts the bytes written through it.
+	 */
+	private static class CountingSink extends ForwardingSink
+	{
+		/**
+		 * The number of bytes written so far
+		 */
+		private long count;
+
+		/**
+		 * Constructor, creates a new CountingSink
+		 * 
+		 * @param delegate The sink to write to
+		 */
+		CountingSink(Sink delegate)
+		{
+			super(delegate);
+		}
+
+		@Override
+		public void write(Buffer source, long byteCount) throws IOException
+		{
+			super.write(source, byteCount);
+			count += byteCount;
+		}
+	}
+
+	/**
+	 * Completes a {@code CompletableFuture} with the outcome of a call.
+	 */
+	private static class FutureCallback implements Callback
+	{
+		/**
+		 * The future to complete
+		 */
+		private final CompletableFuture<Response> result;
+
+		/**
+		 * Constructor, creates a new FutureCallback
+		 * 
+		 * @param result The future to complete
+		 */
+		FutureCallback(CompletableFuture<Response> result)
+		{
+			this.result = result;
+		}
+
+		@Override
+		public void onFailure(Call call, IOException e)
+		{
+			result.completeExceptionally(e);
+		}
+
+		@Override
+		public void onResponse(Call call, Response response)
+		{
+			result.complete(response);
+		}
+	}
+
+	/**
+	 * Discards the response to a warm-up request, releasing its connection back to the pool.
+	 */
+	private static class WarmUpCallback implements Callback
+	{
+		@Override
+		public void onFailure(Call call, IOException e)
+		{
+			log.debug("Unable to warm up a connection to {}: {}", call.request().url(), e.getMessage());
+		}
+
+		@Override
+		public void onResponse(Call call, Response response)
+		{
+			response.close();
+			log.debug("Warmed up a connection to {} using {}", call.request().url(), response.protocol());
+		}
+	}
+
 	/**
 	 * A dummy {@code HostnameVerifier} which doesn't actually do any hostname checking.
 	 * 
 	 * @author Alexander Wu (alec@test.ai)
-	 *
+	 * 
 	 */
 	private static class TrustAllHostnameVerifier implements HostnameVerifier
 	{
@@ -136,7 +821,7 @@ final class NetUtils
 	 * A dummy {@code X509TrustManager} which doesn't actually do any certificate verification.
 	 * 
 	 * @author Alexander Wu (alec@test.ai)
-	 *
+	 * 
 	 */
 	private static class TrustAllX509Manager implements X509TrustManager
 	{
@@ -0,0 +1,94 @@
+package ai.test.sdk;
+
+import java.util.UUID;
+
+import org.openqa.selenium.JavascriptExecutor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tracks whether the page in the browser has changed, so that cached screenshots, element geometry, and classification results can be cheaply validated. A {@code MutationObserver} is
+ * injected into the page, which increments a counter whenever the DOM is mutated, the window is resized, or the page is scrolled or typed into. The counter is read back with a single call
+ * to {@code executeScript}. Navigations replace the page's {@code window}, and with it the injected counter, which is detected and treated as a change.
+ */
+final class PageEpoch
+{
+	/**
+	 * The logger for this class
+	 */
+	private static Logger log = LoggerFactory.getLogger(PageEpoch.class);
+
+	/**
+	 * Reads the counter, installing the observer first if it is not present on the page. Returns {@code token:count}, where {@code token} identifies the installation (and hence the document).
+	 */
+	private static final String SCRIPT = "var w = window, s = w.__testaiEpoch;" //
+			+ "if (!s) {" //
+			+ "  s = w.__testaiEpoch = { token: arguments[0], count: 0 };" //
+			+ "  var bump = function() { s.count++; };" //
+			+ "  new MutationObserver(bump).observe(document, { subtree: true, childList: true, attributes: true, characterData: true });" //
+			+ "  w.addEventListener('resize', bump); w.addEventListener('hashchange', bump); w.addEventListener('popstate', bump);" //
+			+ "  w.addEventListener('scroll', bump, true); w.addEventListener('input', bump, true);" // visible changes which do not mutate the DOM
+			+ "  ['pushState', 'replaceState'].forEach(function(f) { var o = history[f]; history[f] = function() { bump(); return o.apply(this, arguments); }; });" //
+			+ "}" //
+			+ "return s.token + ':' + s.count;";
+
+	/**
+	 * The driver to read the counter with
+	 */
+	private final JavascriptExecutor driver;
+
+	/**
+	 * The last value of the counter read from the page, in the form {@code token:count}.
+	 */
+	private String lastState;
+
+	/**
+	 * The current epoch. This is incremented each time the page is found to have changed.
+	 */
+	private long epoch;
+
+	/**
+	 * Constructor, creates a new PageEpoch
+	 * 
+	 * @param driver The driver to read the counter with
+	 */
+	PageEpoch(JavascriptExecutor driver)
+	{
+		this.driver = driver;
+	}
+
+	/**
+	 * Determines the current epoch of the page. The epoch only changes if the page has changed since the last call to this method or {@link #invalidate()}. This costs one call to
+	 * {@code executeScript}.
+	 * 
+	 * @return The current epoch of the page.
+	 */
+	public synchronized long current()
+	{
+		String state;
+		try
+		{
+			state = String.valueOf(driver.executeScript(SCRIPT, UUID.randomUUID().toString()));
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to read the page epoch, assuming the page changed: {}", e.getMessage());
+			state = null;
+		}
+
+		if (state == null || !state.equals(lastState))
+			epoch++;
+
+		lastState = state;
+		return epoch;
+	}
+
+	/**
+	 * Forces the page to be considered changed on the next call to {@link #current()}, regardless of what the injected counter says. Use this after actions which may not be visible to the
+	 * injected observer (e.g. navigations performed through the driver).
+	 */
+	public synchronized void invalidate()
+	{
+		lastState = null;
+	}
+}
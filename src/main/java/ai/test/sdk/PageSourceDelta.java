@@ -0,0 +1,294 @@
+package ai.test.sdk;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+
+/**
+ * Encodes page sources uploaded during a run as compact deltas against the last full snapshot uploaded during that run. Deltas are computed rsync-style: the snapshot is split into fixed-size
+ * blocks, and a rolling hash is used to find runs of the new page source which can be copied from the snapshot. A delta is encoded as a json array, where each pair of numbers
+ * {@code offset, length} copies a range of the snapshot and each String is inserted verbatim.
+ *
+ * <p>
+ * Deltas are always relative to the last full snapshot rather than the last upload, so the server only needs to retain one snapshot per run (identified by its fingerprint), and concurrent
+ * uploads do not depend on each other.
+ * </p>
+ *
+ * <p>
+ * A new snapshot is pending until its upload is reported as successful with {@link #uploaded(Map, boolean)}. No deltas are sent against a pending snapshot, since the server may not have it
+ * yet, so page sources encoded in the meantime are sent in full without becoming a snapshot.
+ * </p>
+ */
+final class PageSourceDelta
+{
+	/**
+	 * The number of chars in each block of the snapshot.
+	 */
+	private static final int BLOCK_SIZE = 64;
+
+	/**
+	 * The maximum number of deltas to send before sending a full snapshot again.
+	 */
+	private static final int SNAPSHOT_INTERVAL = 20;
+
+	/**
+	 * If the size of the literal text in a delta exceeds this fraction of the size of the page source, then a full snapshot is sent instead.
+	 */
+	private static final double MAX_LITERAL_RATIO = 0.5;
+
+	/**
+	 * The base for the rolling hash
+	 */
+	private static final int B = 31;
+
+	/**
+	 * {@code B ^ (BLOCK_SIZE - 1)}, used to remove the leading char from the rolling hash.
+	 */
+	private static final int B_POW;
+
+	static
+	{
+		int p = 1;
+		for (int i = 1; i < BLOCK_SIZE; i++)
+			p *= B;
+
+		B_POW = p;
+	}
+
+	/**
+	 * The last full snapshot sent to the server. This is {@code null} if no snapshot has been sent yet.
+	 */
+	private String snapshot;
+
+	/**
+	 * The fingerprint of {@code snapshot}
+	 */
+	private String snapshotFingerprint;
+
+	/**
+	 * Maps the hash of each block of {@code snapshot} to the offset of the first block with that hash.
+	 */
+	private Map<Integer, Integer> blocks;
+
+	/**
+	 * The number of deltas sent since {@code snapshot} was sent.
+	 */
+	private int deltasSinceSnapshot;
+
+	/**
+	 * Indicates whether the upload of {@code snapshot} is still in flight
+	 */
+	private boolean snapshotPending;
+
+	/**
+	 * Determines the form fields to send to the server for {@code source}. This is either a full snapshot, in the {@code source} field, or a delta against the last snapshot, in the
+	 * {@code source_delta} field along with the fingerprint of the snapshot in {@code source_base}. While the upload of the last snapshot is still in flight, {@code source} is sent in full in
+	 * the {@code source} field alone. The outcome of the upload must be reported with {@link #uploaded(Map, boolean)}.
+	 * 
+	 * @param source The page source to upload
+	 * @return The form fields to send.
+	 */
+	public synchronized HashMap<String, String> encode(String source)
+	{
+		if (snapshotPending)
+			return CollectionUtils.keyValuesToHM("source", source);
+
+		if (snapshot != null && deltasSinceSnapshot < SNAPSHOT_INTERVAL)
+		{
+			JsonArray ops = diff(source);
+			if (ops != null)
+			{
+				deltasSinceSnapshot++;
+				return CollectionUtils.keyValuesToHM("source_delta", ops.toString(), "source_base", snapshotFingerprint);
+			}
+		}
+
+		snapshot = source;
+		snapshotFingerprint = fingerprint(source);
+		blocks = null;
+		deltasSinceSnapshot = 0;
+		snapshotPending = true;
+
+		return CollectionUtils.keyValuesToHM("source", source, "source_fingerprint", snapshotFingerprint);
+	}
+
+	/**
+	 * Reports the outcome of an upload. Once the upload of a snapshot succeeds, deltas may be sent against it. If any upload fails, the snapshot is forgotten, as the server may not have
+	 * received it, and the next call to {@link #encode(String)} sends a new snapshot.
+	 * 
+	 * @param fields The form fields returned by {@link #encode(String)} for the upload
+	 * @param succeeded Set {@code true} if the server received the upload.
+	 */
+	public synchronized void uploaded(Map<String, String> fields, boolean succeeded)
+	{
+		if (!succeeded)
+		{
+			snapshot = null;
+			blocks = null;
+			snapshotPending = false;
+		}
+		else if (snapshotFingerprint != null && snapshotFingerprint.equals(fields.get("source_fingerprint")))
+			snapshotPending = false;
+	}
+
+	/**
+	 * Determines the form fields to send a page source with again, after an upload of it was received by the server (e.g. when a lookup is retried with a different screenshot). A snapshot
+	 * is referenced with a delta which copies all of it, rather than being sent again. Anything else is sent as it was.
+	 * 
+	 * @param fields The form fields the page source was uploaded with
+	 * @return The form fields to send.
+	 */
+	public static HashMap<String, String> resend(Map<String, String> fields)
+	{
+		String fingerprint = fields.get("source_fingerprint");
+		if (fingerprint == null)
+			return new HashMap<>(fields);
+
+		JsonArray ops = new JsonArray();
+		ops.add(0);
+		ops.add(fields.get("source").length());
+
+		return CollectionUtils.keyValuesToHM("source_delta", ops.toString(), "source_base", fingerprint);
+	}
+
+	/**
+	 * Computes the delta between the last snapshot and {@code source}.
+	 * 
+	 * @param source The page source to compute a delta for
+	 * @return The delta, or {@code null} if the delta is too large to be worth sending.
+	 */
+	private JsonArray diff(String source)
+	{
+		if (blocks == null)
+			indexSnapshot();
+
+		JsonArray ops = new JsonArray();
+		int literalStart = 0, literalChars = 0, maxLiteralChars = (int) (source.length() * MAX_LITERAL_RATIO), i = 0, h = 0;
+		boolean hashValid = false;
+
+		while (i + BLOCK_SIZE <= source.length())
+		{
+			if (!hashValid)
+			{
+				h = hash(source, i);
+				hashValid = true;
+			}
+
+			Integer offset = blocks.get(h);
+			if (offset != null && source.regionMatches(i, snapshot, offset, BLOCK_SIZE))
+			{
+				// extend the match backwards into the pending literal, then forwards as far as possible
+				int start = offset, len = BLOCK_SIZE;
+				while (i > literalStart && start > 0 && source.charAt(i - 1) == snapshot.charAt(start - 1))
+				{
+					i--;
+					start--;
+					len++;
+				}
+				while (i + len < source.length() && start + len < snapshot.length() && source.charAt(i + len) == snapshot.charAt(start + len))
+					len++;
+
+				if (i > literalStart)
+				{
+					ops.add(source.substring(literalStart, i));
+					literalChars += i - literalStart;
+				}
+				ops.add(start);
+				ops.add(len);
+
+				i += len;
+				literalStart = i;
+				hashValid = false;
+			}
+			else
+			{
+				if (i + BLOCK_SIZE < source.length())
+					h = (h - source.charAt(i) * B_POW) * B + source.charAt(i + BLOCK_SIZE);
+				i++;
+			}
+
+			if (literalChars + (i - literalStart) > maxLiteralChars)
+				return null;
+		}
+
+		if (literalStart < source.length())
+		{
+			ops.add(source.substring(literalStart));
+			literalChars += source.length() - literalStart;
+		}
+
+		return literalChars > maxLiteralChars ? null : ops;
+	}
+
+	/**
+	 * Builds the block index of the current snapshot.
+	 */
+	private void indexSnapshot()
+	{
+		blocks = new HashMap<>();
+		for (int i = 0; i + BLOCK_SIZE <= snapshot.length(); i += BLOCK_SIZE)
+			blocks.putIfAbsent(hash(snapshot, i), i);
+	}
+
+	/**
+	 * Computes the rolling hash of the block starting at {@code offset}.
+	 * 
+	 * @param s The String to hash
+	 * @param offset The index of the first char in the block
+	 * @return The hash of the block
+	 */
+	private static int hash(String s, int offset)
+	{
+		int h = 0;
+		for (int i = offset; i < offset + BLOCK_SIZE; i++)
+			h = h * B + s.charAt(i);
+
+		return h;
+	}
+
+	/**
+	 * Computes the fingerprint of a page source. This is the 64-bit FNV-1a hash of its UTF-16 chars, as hex.
+	 * 
+	 * @param s The page source
+	 * @return The fingerprint of {@code s}
+	 */
+	public static String fingerprint(String s)
+	{
+		long h = 0xcbf29ce484222325L;
+		for (int i = 0; i < s.length(); i++)
+		{
+			h ^= s.charAt(i);
+			h *= 0x100000001b3L;
+		}
+
+		return Long.toHexString(h);
+	}
+
+	/**
+	 * Reconstructs a page source from a snapshot and a delta produced by {@link #encode(String)}. This is the inverse of the encoding performed on the client, and is what the server (or a
+	 * local stand-in for it) does on receipt of a delta.
+	 * 
+	 * @param snapshot The snapshot the delta was computed against
+	 * @param delta The delta
+	 * @return The page source
+	 */
+	public static String apply(String snapshot, JsonArray delta)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < delta.size(); i++)
+		{
+			JsonElement op = delta.get(i);
+			if (op.getAsJsonPrimitive().isString())
+				sb.append(op.getAsString());
+			else
+			{
+				int offset = op.getAsInt();
+				sb.append(snapshot, offset, offset + delta.get(++i).getAsInt());
+			}
+		}
+
+		return sb.toString();
+	}
+}
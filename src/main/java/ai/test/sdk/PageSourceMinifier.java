@@ -0,0 +1,403 @@
+package ai.test.sdk;
+
+/**
+ * Shrinks page sources before they are uploaded to test.ai, by removing the parts which are irrelevant to classifying elements. In a single pass, and without building a DOM, this can strip the
+ * contents of {@code script}, {@code style}, and {@code svg} elements and comments, truncate {@code data:} URIs in attributes, and collapse runs of whitespace between tags. The output is
+ * truncated to a maximum length, at the end of a tag or within text.
+ *
+ * <p>
+ * Tags themselves (including those of stripped elements) are kept, so the structure of the page is preserved. The contents of {@code script}, {@code style}, and {@code textarea} elements
+ * which are not stripped are copied verbatim, as they are not markup, and whitespace inside {@code pre} elements is kept. Everything is enabled by default.
+ * </p>
+ */
+public final class PageSourceMinifier
+{
+	/**
+	 * The default maximum length of a minified page source, in chars
+	 */
+	private static final int DEFAULT_MAX_LENGTH = 4 * 1024 * 1024;
+
+	/**
+	 * The default number of chars of each {@code data:} URI to keep
+	 */
+	private static final int DEFAULT_DATA_URI_LENGTH = 32;
+
+	/**
+	 * Indicates whether the contents of {@code script} elements should be stripped
+	 */
+	private boolean stripScripts = true;
+
+	/**
+	 * Indicates whether the contents of {@code style} elements should be stripped
+	 */
+	private boolean stripStyles = true;
+
+	/**
+	 * Indicates whether the contents of {@code svg} elements should be stripped
+	 */
+	private boolean stripSvg = true;
+
+	/**
+	 * Indicates whether comments should be stripped
+	 */
+	private boolean stripComments = true;
+
+	/**
+	 * Indicates whether runs of whitespace between tags should be collapsed to a single char
+	 */
+	private boolean collapseWhitespace = true;
+
+	/**
+	 * The number of chars of each {@code data:} URI to keep. {@code data:} URIs are not truncated if this is negative.
+	 */
+	private int dataUriLength = DEFAULT_DATA_URI_LENGTH;
+
+	/**
+	 * The maximum length of a minified page source, in chars
+	 */
+	private int maxLength = DEFAULT_MAX_LENGTH;
+
+	/**
+	 * Sets whether the contents of {@code script} elements should be stripped.
+	 * 
+	 * @param strip Set {@code true} to strip the contents of {@code script} elements.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setStripScripts(boolean strip)
+	{
+		stripScripts = strip;
+		return this;
+	}
+
+	/**
+	 * Sets whether the contents of {@code style} elements should be stripped.
+	 * 
+	 * @param strip Set {@code true} to strip the contents of {@code style} elements.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setStripStyles(boolean strip)
+	{
+		stripStyles = strip;
+		return this;
+	}
+
+	/**
+	 * Sets whether the contents of {@code svg} elements (e.g. paths) should be stripped.
+	 * 
+	 * @param strip Set {@code true} to strip the contents of {@code svg} elements.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setStripSvg(boolean strip)
+	{
+		stripSvg = strip;
+		return this;
+	}
+
+	/**
+	 * Sets whether comments should be stripped.
+	 * 
+	 * @param strip Set {@code true} to strip comments.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setStripComments(boolean strip)
+	{
+		stripComments = strip;
+		return this;
+	}
+
+	/**
+	 * Sets whether runs of whitespace between tags should be collapsed to a single space or newline. Whitespace inside tags, and inside {@code pre} and {@code textarea} elements, is never
+	 * changed.
+	 * 
+	 * @param collapse Set {@code true} to collapse whitespace.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setCollapseWhitespace(boolean collapse)
+	{
+		collapseWhitespace = collapse;
+		return this;
+	}
+
+	/**
+	 * Sets the number of chars of each {@code data:} URI in an attribute value to keep. Defaults to 32.
+	 * 
+	 * @param length The number of chars to keep. Set a negative value to keep {@code data:} URIs intact.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setDataUriLength(int length)
+	{
+		dataUriLength = length;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum length of a minified page source. Anything past this is dropped, along with any tag which would not fit whole. Defaults to 4 MiB.
+	 * 
+	 * @param length The maximum length, in chars.
+	 * @return This {@code PageSourceMinifier}, for chaining convenience.
+	 */
+	public PageSourceMinifier setMaxLength(int length)
+	{
+		maxLength = length;
+		return this;
+	}
+
+	/**
+	 * Minifies a page source.
+	 * 
+	 * @param s The page source
+	 * @return The minified page source
+	 */
+	public String minify(String s)
+	{
+		int n = s.length(), i = 0, pre = 0;
+		StringBuilder out = new StringBuilder(Math.min(n, maxLength));
+
+		while (i < n && out.length() < maxLength)
+		{
+			char c = s.charAt(i);
+			if (c == '<' && i + 1 < n && isTagStart(s.charAt(i + 1)))
+			{
+				if (s.startsWith("<!--", i)) // comments may contain quotes and tags, so they are not parsed as tags
+				{
+					int end = s.indexOf("-->", i + 4);
+					end = end < 0 ? n : end + 3;
+					if (!stripComments && !appendWhole(s, i, end, out))
+						break;
+
+					i = end;
+					continue;
+				}
+
+				int end = endOfTag(s, i), mark = out.length();
+				appendTag(s, i, end, out);
+				if (out.length() > maxLength) // never cut a tag in half
+				{
+					out.setLength(mark);
+					break;
+				}
+
+				boolean closing = s.charAt(i + 1) == '/', opening = !closing && s.charAt(end - 1) == '>' && s.charAt(end - 2) != '/';
+				String raw = opening ? rawTextElement(s, i + 1) : null;
+				if (raw != null)
+				{
+					int close = indexOfIgnoreCase(s, "</" + raw, end);
+					close = close < 0 ? n : close;
+					if (!stripped(raw))
+						out.append(s, end, Math.min(close, end + maxLength - out.length()));
+
+					i = close; // the closing tag is copied as usual
+				}
+				else if (opening && stripSvg && isTagName(s, i + 1, "svg"))
+					i = closeOfSvg(s, end);
+				else
+				{
+					if (isTagName(s, closing ? i + 2 : i + 1, "pre"))
+						pre = closing ? Math.max(0, pre - 1) : opening ? pre + 1 : pre;
+
+					i = end;
+				}
+			}
+			else if (collapseWhitespace && pre == 0 && Character.isWhitespace(c))
+			{
+				boolean newline = false;
+				for (; i < n && Character.isWhitespace(s.charAt(i)); i++)
+					newline |= s.charAt(i) == '\n';
+
+				out.append(newline ? '\n' : ' ');
+			}
+			else
+			{
+				out.append(c);
+				i++;
+			}
+		}
+
+		return out.toString();
+	}
+
+	/**
+	 * Copies part of the page source to the output, if all of it fits within the maximum length.
+	 * 
+	 * @param s The page source
+	 * @param start The index of the first char to copy
+	 * @param end The index just past the last char to copy
+	 * @param out The output
+	 * @return {@code true} if the chars were copied, or {@code false} if they would not fit.
+	 */
+	private boolean appendWhole(String s, int start, int end, StringBuilder out)
+	{
+		if (out.length() + end - start > maxLength)
+			return false;
+
+		out.append(s, start, end);
+		return true;
+	}
+
+	/**
+	 * Determines if a char following a {@code <} starts a tag, rather than being text.
+	 * 
+	 * @param c The char following the {@code <}
+	 * @return {@code true} if {@code c} starts a tag, comment, or declaration.
+	 */
+	private static boolean isTagStart(char c)
+	{
+		return c == '/' || c == '!' || c == '?' || c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z';
+	}
+
+	/**
+	 * Finds the end of the tag starting at {@code start}, skipping over quoted attribute values.
+	 * 
+	 * @param s The page source
+	 * @param start The index of the {@code <} which starts the tag
+	 * @return The index just past the {@code >} which ends the tag, or the length of {@code s} if the tag is not closed.
+	 */
+	private static int endOfTag(String s, int start)
+	{
+		char quote = 0;
+		for (int i = start + 1; i < s.length(); i++)
+		{
+			char c = s.charAt(i);
+			if (quote != 0)
+			{
+				if (c == quote)
+					quote = 0;
+			}
+			else if (c == '"' || c == '\'')
+				quote = c;
+			else if (c == '>')
+				return i + 1;
+		}
+
+		return s.length();
+	}
+
+	/**
+	 * Copies a tag to the output, truncating any {@code data:} URIs in quoted attribute values.
+	 * 
+	 * @param s The page source
+	 * @param start The index of the {@code <} which starts the tag
+	 * @param end The index just past the end of the tag
+	 * @param out The output
+	 */
+	private void appendTag(String s, int start, int end, StringBuilder out)
+	{
+		if (dataUriLength < 0)
+		{
+			out.append(s, start, end);
+			return;
+		}
+
+		int i = start;
+		while (i < end)
+		{
+			char c = s.charAt(i++);
+			out.append(c);
+			if ((c == '"' || c == '\'') && s.regionMatches(true, i, "data:", 0, 5))
+			{
+				int close = s.indexOf(c, i);
+				if (close < 0 || close > end)
+					close = end;
+
+				out.append(s, i, Math.min(close, i + dataUriLength));
+				i = close;
+			}
+		}
+	}
+
+	/**
+	 * Determines if the tag name at {@code i} is that of an element whose contents are raw text rather than markup (i.e. may contain {@code <} and quotes which do not start tags), up to
+	 * its closing tag.
+	 * 
+	 * @param s The page source
+	 * @param i The index just past the {@code <} of an opening tag
+	 * @return The lower case name of the element, or {@code null} if its contents are markup.
+	 */
+	private static String rawTextElement(String s, int i)
+	{
+		if (isTagName(s, i, "script"))
+			return "script";
+		if (isTagName(s, i, "style"))
+			return "style";
+		if (isTagName(s, i, "textarea"))
+			return "textarea";
+
+		return null;
+	}
+
+	/**
+	 * Determines if the contents of a raw text element are stripped.
+	 * 
+	 * @param name The lower case name of the element, from {@link #rawTextElement(String, int)}
+	 * @return {@code true} if the contents of {@code name} elements are stripped
+	 */
+	private boolean stripped(String name)
+	{
+		return name.equals("script") ? stripScripts : name.equals("style") && stripStyles;
+	}
+
+	/**
+	 * Finds the closing tag of an {@code svg} element, skipping over any {@code svg} elements nested in it.
+	 * 
+	 * @param s The page source
+	 * @param from The index just past the opening tag of the element
+	 * @return The index of the {@code <} of the closing tag, or the length of {@code s} if the element is not closed.
+	 */
+	private static int closeOfSvg(String s, int from)
+	{
+		int depth = 1;
+		for (int i = s.indexOf('<', from); i >= 0; i = s.indexOf('<', i + 1))
+			if (i + 1 < s.length() && s.charAt(i + 1) == '/' && isTagName(s, i + 2, "svg"))
+			{
+				if (--depth == 0)
+					return i;
+			}
+			else if (isTagName(s, i + 1, "svg"))
+			{
+				int end = endOfTag(s, i);
+				if (s.charAt(end - 1) == '>' && s.charAt(end - 2) != '/')
+					depth++;
+			}
+
+		return s.length();
+	}
+
+	/**
+	 * Determines if a tag has the specified name, ignoring case.
+	 * 
+	 * @param s The page source
+	 * @param i The index of the tag name
+	 * @param name The lower case name to check for
+	 * @return {@code true} if the tag at {@code i} is named {@code name}
+	 */
+	private static boolean isTagName(String s, int i, String name)
+	{
+		int end = i + name.length();
+		if (!s.regionMatches(true, i, name, 0, name.length()) || end >= s.length())
+			return false;
+
+		char c = s.charAt(end);
+		return c == '>' || c == '/' || Character.isWhitespace(c);
+	}
+
+	/**
+	 * Finds the first occurrence of an ASCII String, ignoring case.
+	 * 
+	 * @param s The String to search
+	 * @param target The String to search for
+	 * @param from The index to start searching from
+	 * @return The index of the first occurrence of {@code target} in {@code s} at or after {@code from}, or -1 if there is none.
+	 */
+	private static int indexOfIgnoreCase(String s, String target, int from)
+	{
+		char lower = Character.toLowerCase(target.charAt(0)), upper = Character.toUpperCase(target.charAt(0));
+		for (int i = from, last = s.length() - target.length(); i <= last; i++)
+		{
+			char c = s.charAt(i);
+			if ((c == lower || c == upper) && s.regionMatches(true, i, target, 0, target.length()))
+				return i;
+		}
+
+		return -1;
+	}
+}
@@ -0,0 +1,176 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * The typed json payloads sent to the test.ai servers. Each payload holds its fields as primitives and writes them straight to a {@code JsonWriter}, rather than boxing them into a
+ * {@code JsonObject}.
+ */
+final class Payloads
+{
+	/**
+	 * The payload of an {@code sdk_checkin} request.
+	 */
+	static final class Checkin implements JsonPayload
+	{
+		/**
+		 * The api key
+		 */
+		private final String apiKey;
+
+		/**
+		 * The version of this SDK
+		 */
+		private final String sdkVersion;
+
+		/**
+		 * The uuid of the test case (i.e. the run)
+		 */
+		private final String testCaseUUID;
+
+		/**
+		 * Constructor, creates a new Checkin
+		 * 
+		 * @param apiKey The api key
+		 * @param sdkVersion The version of this SDK
+		 * @param testCaseUUID The uuid of the test case (i.e. the run)
+		 */
+		Checkin(String apiKey, String sdkVersion, String testCaseUUID)
+		{
+			this.apiKey = apiKey;
+			this.sdkVersion = sdkVersion;
+			this.testCaseUUID = testCaseUUID;
+		}
+
+		@Override
+		public void writeTo(JsonWriter w) throws IOException
+		{
+			w.beginObject();
+			w.name("api_key").value(apiKey);
+			w.name("os").value(String.format("%s-%s-%s", System.getProperty("os.name"), System.getProperty("os.version"), System.getProperty("os.arch")));
+			w.name("sdk_version").value(sdkVersion);
+			w.name("language").value("java-" + System.getProperty("java.version"));
+			w.name("test_case_uuid").value(testCaseUUID);
+			w.endObject();
+		}
+
+		@Override
+		public String toString()
+		{
+			return toJson();
+		}
+	}
+
+	/**
+	 * The payload of an {@code add_action} request, which updates (and optionally trains) the location of an element. Coordinates are in screenshot pixels.
+	 */
+	static final class AddAction implements JsonPayload
+	{
+		/**
+		 * The key associated with the element
+		 */
+		private final String key;
+
+		/**
+		 * The api key. May be {@code null}, in which case it is left out.
+		 */
+		private final String apiKey;
+
+		/**
+		 * The label of the element
+		 */
+		private final String label;
+
+		/**
+		 * The id of the run
+		 */
+		private final String runID;
+
+		/**
+		 * The name of the test case
+		 */
+		private final String testCase;
+
+		/**
+		 * The bounds of the element
+		 */
+		private final double x, y, width, height;
+
+		/**
+		 * The ratio of screenshot pixels to css pixels
+		 */
+		private final double multiplier;
+
+		/**
+		 * Indicates whether the model should be trained with this element
+		 */
+		private final boolean trainIfNecessary;
+
+		/**
+		 * Constructor, creates a new AddAction
+		 * 
+		 * @param key The key associated with the element
+		 * @param apiKey The api key. Set {@code null} to leave it out.
+		 * @param label The label of the element
+		 * @param runID The id of the run
+		 * @param testCase The name of the test case
+		 * @param x The x coordinate of the element
+		 * @param y The y coordinate of the element
+		 * @param width The width of the element
+		 * @param height The height of the element
+		 * @param multiplier The ratio of screenshot pixels to css pixels
+		 * @param trainIfNecessary Set {@code true} if the model should also be trained with this element.
+		 */
+		AddAction(String key, String apiKey, String label, String runID, String testCase, double x, double y, double width, double height, double multiplier, boolean trainIfNecessary)
+		{
+			this.key = key;
+			this.apiKey = apiKey;
+			this.label = label;
+			this.runID = runID;
+			this.testCase = testCase;
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+			this.multiplier = multiplier;
+			this.trainIfNecessary = trainIfNecessary;
+		}
+
+		@Override
+		public void writeTo(JsonWriter w) throws IOException
+		{
+			w.beginObject();
+			w.name("key").value(key);
+			if (apiKey != null)
+				w.name("api_key").value(apiKey);
+			w.name("label").value(label);
+			w.name("run_id").value(runID);
+			w.name("x").value(x);
+			w.name("y").value(y);
+			w.name("width").value(width);
+			w.name("height").value(height);
+			w.name("multiplier").value(multiplier);
+			w.name("train_if_necessary").value(trainIfNecessary);
+			w.name("test_case_uuid").value(testCase);
+			w.endObject();
+		}
+
+		/**
+		 * Creates a copy of this AddAction without the api key, e.g. to be stored on disk.
+		 * 
+		 * @return The copy
+		 */
+		AddAction withoutApiKey()
+		{
+			return new AddAction(key, null, label, runID, testCase, x, y, width, height, multiplier, trainIfNecessary);
+		}
+
+		@Override
+		public String toString()
+		{
+			return toJson();
+		}
+	}
+}
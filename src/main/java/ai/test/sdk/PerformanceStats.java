@@ -0,0 +1,243 @@
+package ai.test.sdk;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Latency histograms and counters for the work performed by a {@code TestAiDriver} during a run, so that the overhead of the SDK can be tracked without attaching a profiler. Everything is
+ * fixed-size and lock-free, so recording a sample costs one {@code System.nanoTime()} and one atomic increment.
+ */
+final class PerformanceStats
+{
+	/**
+	 * The operations which are timed.
+	 */
+	enum Operation
+	{
+		/**
+		 * Looking up elements with selenium, including any implicit wait
+		 */
+		SELENIUM_LOOKUP,
+
+		/**
+		 * Capturing a screenshot from the browser
+		 */
+		SCREENSHOT,
+
+		/**
+		 * Fetching the page source from the browser
+		 */
+		PAGE_SOURCE,
+
+		/**
+		 * A round trip to the classify endpoint
+		 */
+		CLASSIFY,
+
+		/**
+		 * Matching bounding boxes returned by test.ai to elements on the page
+		 */
+		MATCH,
+
+		/**
+		 * A round trip to the add_action endpoint
+		 */
+		ADD_ACTION
+	}
+
+	/**
+	 * The events which are counted.
+	 */
+	enum Counter
+	{
+		/**
+		 * Lookups which started with selenium
+		 */
+		LOOKUPS,
+
+		/**
+		 * Lookups which asked test.ai because selenium had not found the element, including speculative lookups
+		 */
+		FALLBACKS,
+
+		/**
+		 * Classifications attempted with a region of interest
+		 */
+		ROI_LOOKUPS,
+
+		/**
+		 * Region-of-interest classifications which had to be retried with the full screenshot
+		 */
+		ROI_FALLBACKS,
+
+		/**
+		 * The number of bytes uploaded to the classify endpoint
+		 */
+		CLASSIFY_BYTES,
+
+		/**
+		 * The number of bytes uploaded to the add_action endpoint
+		 */
+		ADD_ACTION_BYTES,
+
+		/**
+		 * Screenshots and page sources which were reused from the capture cache instead of being captured again
+		 */
+		CAPTURE_HITS,
+
+		/**
+		 * Classifications which were reused because the screen around the element had not changed
+		 */
+		VISUAL_REUSES,
+
+		/**
+		 * Duplicate classify requests sent because the original was slow
+		 */
+		HEDGES,
+
+		/**
+		 * Hedged classify requests which responded before the original
+		 */
+		HEDGE_WINS,
+
+		/**
+		 * Element lookups which were answered from the handle cache
+		 */
+		HANDLE_HITS
+	}
+
+	/**
+	 * The histogram for each {@code Operation}, by ordinal
+	 */
+	private final LatencyHistogram[] histograms = new LatencyHistogram[Operation.values().length];
+
+	/**
+	 * The total for each {@code Counter}, by ordinal
+	 */
+	private final LongAdder[] counters = new LongAdder[Counter.values().length];
+
+	/**
+	 * Constructor, creates a new PerformanceStats
+	 */
+	PerformanceStats()
+	{
+		for (int i = 0; i < histograms.length; i++)
+			histograms[i] = new LatencyHistogram();
+		for (int i = 0; i < counters.length; i++)
+			counters[i] = new LongAdder();
+	}
+
+	/**
+	 * Records the latency of an operation which has just finished.
+	 * 
+	 * @param op The operation
+	 * @param startNanos The value of {@code System.nanoTime()} when the operation started
+	 */
+	public void record(Operation op, long startNanos)
+	{
+		histograms[op.ordinal()].record(System.nanoTime() - startNanos);
+	}
+
+	/**
+	 * Increments a counter by 1.
+	 * 
+	 * @param c The counter
+	 */
+	public void increment(Counter c)
+	{
+		counters[c.ordinal()].increment();
+	}
+
+	/**
+	 * Adds to a counter.
+	 * 
+	 * @param c The counter
+	 * @param n The amount to add
+	 */
+	public void add(Counter c, long n)
+	{
+		counters[c.ordinal()].add(n);
+	}
+
+	/**
+	 * Creates a report of the latencies and counts recorded so far. Latencies are in milliseconds.
+	 * 
+	 * @return The report, as json.
+	 */
+	public JsonObject report()
+	{
+		JsonObject latencies = new JsonObject();
+		for (Operation op : Operation.values())
+			latencies.add(name(op), summarize(histograms[op.ordinal()].snapshot()));
+
+		JsonObject counts = new JsonObject();
+		for (Counter c : Counter.values())
+			counts.addProperty(name(c), counters[c.ordinal()].sum());
+
+		JsonObject rates = new JsonObject();
+		rates.addProperty("fallback", rate(Counter.FALLBACKS, Counter.LOOKUPS));
+		rates.addProperty("roi_fallback", rate(Counter.ROI_FALLBACKS, Counter.ROI_LOOKUPS));
+		rates.addProperty("hedge_win", rate(Counter.HEDGE_WINS, Counter.HEDGES));
+
+		JsonObject report = new JsonObject();
+		report.add("latency_ms", latencies);
+		report.add("counts", counts);
+		report.add("rates", rates);
+
+		return report;
+	}
+
+	/**
+	 * Summarizes a snapshot of a {@code LatencyHistogram}. Latencies are in milliseconds.
+	 * 
+	 * @param snapshot A snapshot from {@link LatencyHistogram#snapshot()}
+	 * @return The number of values in {@code snapshot}, and its p50, p90, p99, and max, as json.
+	 */
+	static JsonObject summarize(long[] snapshot)
+	{
+		JsonObject jo = new JsonObject();
+		jo.addProperty("count", LatencyHistogram.count(snapshot));
+		for (int p : new int[] { 50, 90, 99 })
+			jo.addProperty("p" + p, millis(LatencyHistogram.percentile(snapshot, p)));
+		jo.addProperty("max", millis(LatencyHistogram.percentile(snapshot, 100)));
+
+		return jo;
+	}
+
+	/**
+	 * Calculates the ratio of two counters.
+	 * 
+	 * @param numerator The numerator
+	 * @param denominator The denominator
+	 * @return The ratio of {@code numerator} to {@code denominator}, or 0 if {@code denominator} is 0.
+	 */
+	private double rate(Counter numerator, Counter denominator)
+	{
+		long d = counters[denominator.ordinal()].sum();
+		return d == 0 ? 0 : 1.0 * counters[numerator.ordinal()].sum() / d;
+	}
+
+	/**
+	 * Converts nanoseconds to milliseconds, keeping microsecond precision.
+	 * 
+	 * @param nanos The number of nanoseconds
+	 * @return {@code nanos}, in milliseconds
+	 */
+	private static double millis(long nanos)
+	{
+		return nanos / 1000 / 1000.0;
+	}
+
+	/**
+	 * Gets the name of an {@code Enum} constant as used in reports.
+	 * 
+	 * @param e The {@code Enum} constant
+	 * @return The name of {@code e}, in lower case.
+	 */
+	private static String name(Enum<?> e)
+	{
+		return e.name().toLowerCase(Locale.ROOT);
+	}
+}
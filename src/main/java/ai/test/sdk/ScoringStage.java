@@ -0,0 +1,171 @@
+package ai.test.sdk;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A stage in the pipeline used to rank candidate elements against a bounding box returned by test.ai. Each stage receives the candidates ranked by the previous stage (best first), and may
+ * score, filter, or reorder them. Stages only have access to a precomputed {@link CandidateTable}, and so must not make any calls to the browser.
+ */
+@FunctionalInterface
+public interface ScoringStage
+{
+	/**
+	 * Scores each candidate by the IOU of its rect and the bounding box, and sorts them by score, in descending order.
+	 */
+	ScoringStage IOU = (t, box, ranked) -> {
+		for (Candidate c : ranked)
+			c.score = box.iou(t.x(c.index), t.y(c.index), t.width(c.index), t.height(c.index));
+
+		List<Candidate> l = new ArrayList<>(ranked);
+		l.sort((o1, o2) -> Double.compare(o2.score, o1.score));
+
+		return l;
+	};
+
+	/**
+	 * Removes candidates which have a score of 0 or which do not contain the center of the bounding box.
+	 */
+	ScoringStage CENTER_HIT = (t, box, ranked) -> ranked.stream().filter(c -> c.score > 0 && box.centerHit(t.x(c.index), t.y(c.index), t.width(c.index), t.height(c.index)))
+			.collect(Collectors.toList());
+
+	/**
+	 * Moves the best {@code input}, or {@code button} scoring within 90% of the top candidate, to the front.
+	 */
+	ScoringStage PREFER_INPUTS = (t, box, ranked) -> {
+		for (int i = 0; i < ranked.size(); i++)
+		{
+			Candidate c = ranked.get(i);
+			if ("input".equals(t.tagName(c.index)) || "button".equals(t.tagName(c.index)) && c.score > ranked.get(0).score * 0.9)
+			{
+				List<Candidate> l = new ArrayList<>(ranked);
+				l.add(0, l.remove(i));
+
+				return l;
+			}
+		}
+
+		return ranked;
+	};
+
+	/**
+	 * Removes candidates which are not displayed. Not part of the default pipeline.
+	 */
+	ScoringStage DISPLAYED = (t, box, ranked) -> ranked.stream().filter(c -> t.isDisplayed(c.index)).collect(Collectors.toList());
+
+	/**
+	 * The default pipeline: {@link #IOU}, {@link #CENTER_HIT}, then {@link #PREFER_INPUTS}.
+	 */
+	List<ScoringStage> DEFAULT = List.of(IOU, CENTER_HIT, PREFER_INPUTS);
+
+	/**
+	 * Applies this stage.
+	 * 
+	 * @param table The candidate table
+	 * @param box The bounding box being matched, in page coordinates
+	 * @param ranked The candidates as ranked by the previous stage, best first. Stages should not modify this {@code List}.
+	 * @return The candidates ranked by this stage, best first.
+	 */
+	List<Candidate> apply(CandidateTable table, Box box, List<Candidate> ranked);
+
+	/**
+	 * A candidate element and its current score.
+	 */
+	final class Candidate
+	{
+		/**
+		 * The index of the element in the {@code CandidateTable}
+		 */
+		public final int index;
+
+		/**
+		 * The score of the candidate. Higher is better.
+		 */
+		public double score;
+
+		/**
+		 * Constructor, creates a new Candidate with a score of 0.
+		 * 
+		 * @param index The index of the element in the {@code CandidateTable}
+		 */
+		public Candidate(int index)
+		{
+			this.index = index;
+		}
+	}
+
+	/**
+	 * A bounding box returned by test.ai, scaled to page coordinates.
+	 */
+	final class Box
+	{
+		/**
+		 * The x coordinate of the box (upper left corner)
+		 */
+		public final double x;
+
+		/**
+		 * The y coordinate of the box (upper left corner)
+		 */
+		public final double y;
+
+		/**
+		 * The width of the box
+		 */
+		public final double width;
+
+		/**
+		 * The height of the box
+		 */
+		public final double height;
+
+		/**
+		 * Constructor, creates a new Box
+		 * 
+		 * @param x The x coordinate of the box (upper left corner)
+		 * @param y The y coordinate of the box (upper left corner)
+		 * @param width The width of the box
+		 * @param height The height of the box
+		 */
+		public Box(double x, double y, double width, double height)
+		{
+			this.x = x;
+			this.y = y;
+			this.width = width;
+			this.height = height;
+		}
+
+		/**
+		 * Calculate the IOU score of this box and a rectangle. This is derived from the overlap and areas of both rectangles.
+		 * 
+		 * @param xx The x coordinate of the rectangle (upper left corner)
+		 * @param yy The y coordinate of the rectangle (upper left corner)
+		 * @param ww The width of the rectangle
+		 * @param hh The height of the rectangle
+		 * @return The IOU value of this box and the rectangle.
+		 */
+		public double iou(double xx, double yy, double ww, double hh)
+		{
+			double dx = Math.min(x + width, xx + ww) - Math.max(x, xx), dy = Math.min(y + height, yy + hh) - Math.max(y, yy);
+			double overlap = dx >= 0 && dy >= 0 ? dx * dy : 0;
+
+			return overlap / (width * height + ww * hh - overlap);
+		}
+
+		/**
+		 * Determines if the center point of this box falls within the area of a rectangle
+		 * 
+		 * @param xx The x coordinate of the rectangle (upper left corner)
+		 * @param yy The y coordinate of the rectangle (upper left corner)
+		 * @param ww The width of the rectangle
+		 * @param hh The height of the rectangle
+		 * @return {@code true} if the center point of this box falls within the area of the rectangle
+		 */
+		public boolean centerHit(double xx, double yy, double ww, double hh)
+		{
+			double centerX = x + width / 2, centerY = y + height / 2;
+			return centerX > xx && centerX < xx + ww && centerY > yy && centerY < yy + hh;
+		}
+	}
+}
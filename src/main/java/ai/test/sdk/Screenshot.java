@@ -0,0 +1,369 @@
+package ai.test.sdk;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * A PNG screenshot captured from the browser. Screenshots are backed by a temporary file, a byte array, or the base64 String returned by the browser. Each backing can be sent to test.ai in
+ * either transport without building intermediate copies, and base64 screenshots are only ever decoded in chunks or into arrays borrowed from the {@link BufferPool}.
+ * Screenshots may be shared (e.g. by a {@link CaptureCache}), so each holder of a reference closes it, and the backing file is only deleted once every reference is closed.
+ */
+final class Screenshot implements Closeable
+{
+	/**
+	 * The {@code MediaType} representing the png MIME type.
+	 */
+	private static final MediaType PNG = MediaType.get("image/png");
+
+	/**
+	 * The number of base64 chars which encode the PNG signature and IHDR chunk, which contain the width of the image
+	 */
+	private static final int HEADER_CHARS = 32;
+
+	/**
+	 * The temporary file containing this screenshot. Mutually exclusive with {@code bytes} and {@code base64}.
+	 */
+	private final File file;
+
+	/**
+	 * The raw bytes of this screenshot. Mutually exclusive with {@code file} and {@code base64}.
+	 */
+	private final byte[] bytes;
+
+	/**
+	 * This screenshot, encoded as base64 by the browser. Mutually exclusive with {@code file} and {@code bytes}.
+	 */
+	private final String base64;
+
+	/**
+	 * The decoded size of {@code base64}, in bytes. Lazily computed by {@link #size()}.
+	 */
+	private long decodedSize = -1;
+
+	/**
+	 * The number of open references to this screenshot
+	 */
+	private final AtomicInteger refs = new AtomicInteger(1);
+
+	/**
+	 * The tile hashes of this screenshot. Lazily computed by {@link #tileHashes(int)}.
+	 */
+	private TileHashes tileHashes;
+
+	/**
+	 * Constructor, creates a new Screenshot. Exactly one of {@code file}, {@code bytes}, or {@code base64} should be non-null.
+	 * 
+	 * @param file The file containing the screenshot
+	 * @param bytes The raw bytes of the screenshot
+	 * @param base64 The screenshot, encoded as base64
+	 */
+	private Screenshot(File file, byte[] bytes, String base64)
+	{
+		this.file = file;
+		this.bytes = bytes;
+		this.base64 = base64;
+	}
+
+	/**
+	 * Captures a new screenshot from the browser.
+	 * 
+	 * @param driver The driver to capture a screenshot with
+	 * @param toFile Set {@code true} to have the screenshot written to a temporary file instead of being held on the heap. Otherwise, the base64 String returned by the browser is kept as is,
+	 *            rather than being decoded into a new array.
+	 * @return The new {@code Screenshot}
+	 */
+	public static Screenshot capture(TakesScreenshot driver, boolean toFile)
+	{
+		return toFile ? new Screenshot(driver.getScreenshotAs(OutputType.FILE), null, null) : new Screenshot(null, null, driver.getScreenshotAs(OutputType.BASE64));
+	}
+
+	/**
+	 * Wraps an existing PNG image in a {@code Screenshot}.
+	 * 
+	 * @param png The raw bytes of the PNG image
+	 * @return A {@code Screenshot} backed by {@code png}
+	 */
+	public static Screenshot of(byte[] png)
+	{
+		return new Screenshot(null, png, null);
+	}
+
+	/**
+	 * Decodes a screenshot captured as base64 into a new array, which takes a quarter less heap than the base64 String. This suits screenshots which are held on to (e.g. by a
+	 * {@link CaptureCache}) and sent as raw bytes, but not those sent in a form, as they would need to be encoded again for every request.
+	 * 
+	 * @return A screenshot backed by the decoded bytes, in which case this screenshot is closed and its reference passes to the new one. If this screenshot is not backed by base64, or it
+	 *         could not be decoded, this screenshot is returned as is.
+	 */
+	public Screenshot decoded()
+	{
+		if (base64 == null)
+			return this;
+
+		byte[] b = new byte[(int) size()]; // held for as long as the screenshot, so not borrowed from the pool
+		try (InputStream in = decoder())
+		{
+			if (in.readNBytes(b, 0, b.length) != b.length)
+				return this;
+		}
+		catch (IOException e)
+		{
+			return this;
+		}
+
+		close();
+		return of(b);
+	}
+
+	/**
+	 * Adds a reference to this screenshot, which must be closed separately.
+	 * 
+	 * @return This {@code Screenshot}
+	 */
+	public Screenshot retain()
+	{
+		refs.incrementAndGet();
+		return this;
+	}
+
+	/**
+	 * Determines if this screenshot is backed by a temporary file rather than held on the heap.
+	 * 
+	 * @return {@code true} if this screenshot is backed by a file
+	 */
+	public boolean inFile()
+	{
+		return file != null;
+	}
+
+	/**
+	 * Determines the width of this screenshot. Screenshots held on the heap are not decoded to do this, beyond the PNG header.
+	 * 
+	 * @return The width of this screenshot, in pixels.
+	 * @throws IOException If this screenshot could not be read or decoded
+	 */
+	public int width() throws IOException
+	{
+		if (bytes != null)
+			return ImageUtils.width(bytes);
+		if (base64 != null && base64.length() >= HEADER_CHARS)
+			return ImageUtils.width(Base64.getMimeDecoder().decode(base64.substring(0, HEADER_CHARS)));
+
+		return image().getWidth();
+	}
+
+	/**
+	 * Decodes this screenshot.
+	 * 
+	 * @return This screenshot as a {@code BufferedImage}
+	 * @throws IOException If this screenshot could not be read or decoded
+	 */
+	public BufferedImage image() throws IOException
+	{
+		if (file != null)
+			return ImageIO.read(file);
+		if (bytes != null)
+			return ImageUtils.read(bytes);
+
+		byte[] b = BufferPool.SHARED.acquire((int) size());
+		try (InputStream in = decoder())
+		{
+			return ImageIO.read(new ByteArrayInputStream(b, 0, in.readNBytes(b, 0, (int) size())));
+		}
+		finally
+		{
+			BufferPool.SHARED.release(b);
+		}
+	}
+
+	/**
+	 * Hashes the tiles of this screenshot. The hashes are computed once, and reused by later calls (e.g. when this screenshot is reused from a {@link CaptureCache}).
+	 * 
+	 * @param tileSize The width and height of each tile, in pixels
+	 * @return The tile hashes of this screenshot
+	 * @throws IOException If this screenshot could not be read or decoded
+	 */
+	public synchronized TileHashes tileHashes(int tileSize) throws IOException
+	{
+		if (tileHashes == null || tileHashes.tileSize != tileSize)
+			tileHashes = TileHashes.of(image(), tileSize);
+
+		return tileHashes;
+	}
+
+	/**
+	 * Encodes this screenshot as base64, for use with the form-encoded transport. Screenshots captured as base64 are returned as is.
+	 * 
+	 * @return This screenshot, encoded as base64
+	 * @throws IOException If this screenshot could not be read
+	 */
+	public String base64() throws IOException
+	{
+		return base64 != null ? base64 : Base64.getEncoder().encodeToString(file != null ? Files.readAllBytes(file.toPath()) : bytes);
+	}
+
+	/**
+	 * Creates a {@code RequestBody} which streams the raw bytes of this screenshot directly from its backing file or array, or decodes them from base64 in chunks as they are written.
+	 * 
+	 * @return A {@code RequestBody} for this screenshot
+	 */
+	public RequestBody body()
+	{
+		if (file != null)
+			return RequestBody.create(file, PNG);
+
+		return bytes != null ? RequestBody.create(bytes, PNG) : new DecodingBody();
+	}
+
+	/**
+	 * Gets the size of this screenshot.
+	 * 
+	 * @return The size of this screenshot, in bytes.
+	 */
+	public synchronized long size()
+	{
+		if (file != null)
+			return file.length();
+		if (bytes != null)
+			return bytes.length;
+
+		if (decodedSize < 0)
+		{
+			long chars = 0;
+			for (int i = 0; i < base64.length(); i++)
+				if (isBase64(base64.charAt(i)))
+					chars++;
+
+			decodedSize = chars * 3 / 4;
+		}
+
+		return decodedSize;
+	}
+
+	/**
+	 * Creates a stream which decodes {@code base64}.
+	 * 
+	 * @return A stream of the raw bytes of this screenshot
+	 */
+	private InputStream decoder()
+	{
+		return Base64.getMimeDecoder().wrap(new AsciiInputStream(base64)); // the MIME decoder tolerates line breaks, as selenium does
+	}
+
+	/**
+	 * Determines if a char is part of the base64 alphabet, not including padding.
+	 * 
+	 * @param c The char to check
+	 * @return {@code true} if {@code c} encodes 6 bits of data
+	 */
+	private static boolean isBase64(char c)
+	{
+		return c >= 'A' && c <= 'Z' || c >= 'a' && c <= 'z' || c >= '0' && c <= '9' || c == '+' || c == '/';
+	}
+
+	/**
+	 * Closes a reference to this screenshot. Once every reference is closed, the temporary file backing this screenshot is deleted, if there is one.
+	 */
+	@Override
+	public void close()
+	{
+		if (refs.decrementAndGet() == 0 && file != null && !file.delete())
+			file.deleteOnExit();
+	}
+
+	/**
+	 * A {@code RequestBody} which decodes {@code base64} into the request sink, one pooled chunk at a time.
+	 */
+	private class DecodingBody extends RequestBody
+	{
+		@Override
+		public MediaType contentType()
+		{
+			return PNG;
+		}
+
+		@Override
+		public long contentLength()
+		{
+			return size();
+		}
+
+		@Override
+		public void writeTo(BufferedSink sink) throws IOException
+		{
+			byte[] chunk = BufferPool.SHARED.acquire(BufferPool.CHUNK_SIZE);
+			try (InputStream in = decoder())
+			{
+				for (int n; (n = in.read(chunk)) > 0;)
+					sink.write(chunk, 0, n);
+			}
+			finally
+			{
+				BufferPool.SHARED.release(chunk);
+			}
+		}
+	}
+
+	/**
+	 * An {@code InputStream} over the chars of an ASCII String, so that it can be decoded without first being copied into a byte array.
+	 */
+	private static class AsciiInputStream extends InputStream
+	{
+		/**
+		 * The String to read
+		 */
+		private final String s;
+
+		/**
+		 * The index of the next char to read
+		 */
+		private int pos;
+
+		/**
+		 * Constructor, creates a new AsciiInputStream
+		 * 
+		 * @param s The String to read, which must only contain ASCII chars.
+		 */
+		AsciiInputStream(String s)
+		{
+			this.s = s;
+		}
+
+		@Override
+		public int read()
+		{
+			return pos < s.length() ? s.charAt(pos++) : -1;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0)
+				return 0;
+			if (pos >= s.length())
+				return -1;
+
+			int n = Math.min(len, s.length() - pos);
+			for (int i = 0; i < n; i++)
+				b[off + i] = (byte) s.charAt(pos++);
+
+			return n;
+		}
+	}
+}
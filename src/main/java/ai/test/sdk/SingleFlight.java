@@ -0,0 +1,101 @@
+package ai.test.sdk;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coalesces concurrent calls with the same key, so that only one runs at a time and every concurrent caller shares its result (or failure). The first caller for a key (the leader) runs the
+ * call on its own thread; later callers wait for the leader, up to a timeout.
+ *
+ * <p>
+ * If the leader is interrupted (e.g. because its lookup was cancelled), its result is not shared, and one of the waiting callers becomes the new leader instead. Callers which time out or are
+ * interrupted while waiting simply stop waiting, and do not affect the leader.
+ * </p>
+ *
+ * @param <K> The type of the keys
+ * @param <V> The type of the results
+ */
+final class SingleFlight<K, V>
+{
+	/**
+	 * The result of the call in flight for each key
+	 */
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Runs {@code fn}, or waits for the result of the call already in flight for {@code key}.
+	 * 
+	 * @param key The key of the call
+	 * @param fn The call to run, if there is none in flight for {@code key}
+	 * @param timeout The maximum amount of time to wait for a call already in flight
+	 * @param unit The unit of {@code timeout}
+	 * @return The result of the call
+	 * @throws TimeoutException If the call in flight did not finish within {@code timeout}
+	 * @throws InterruptedException If this thread was interrupted while waiting
+	 * @throws Exception If the call failed
+	 */
+	public V run(K key, Callable<V> fn, long timeout, TimeUnit unit) throws Exception
+	{
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (true)
+		{
+			CompletableFuture<V> f = new CompletableFuture<>(), existing = inFlight.putIfAbsent(key, f);
+			if (existing == null)
+				return lead(key, f, fn);
+
+			try
+			{
+				return existing.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+			}
+			catch (CancellationException e)
+			{
+				// the leader was interrupted, so try again
+			}
+			catch (ExecutionException e)
+			{
+				throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+			}
+		}
+	}
+
+	/**
+	 * Runs {@code fn} as the leader for {@code key}, and shares its outcome with any waiting callers.
+	 * 
+	 * @param key The key of the call
+	 * @param f The future to complete with the outcome of {@code fn}
+	 * @param fn The call to run
+	 * @return The result of {@code fn}
+	 * @throws Exception If {@code fn} failed
+	 */
+	private V lead(K key, CompletableFuture<V> f, Callable<V> fn) throws Exception
+	{
+		V v = null;
+		Throwable error = null;
+		try
+		{
+			v = fn.call();
+			return v;
+		}
+		catch (Throwable e)
+		{
+			error = e;
+			throw e;
+		}
+		finally
+		{
+			inFlight.remove(key, f); // before completing, so that retrying callers do not see f again
+
+			if (Thread.currentThread().isInterrupted() || error instanceof InterruptedException)
+				f.cancel(false);
+			else if (error != null)
+				f.completeExceptionally(error);
+			else
+				f.complete(v);
+		}
+	}
+}
@@ -1,22 +1,43 @@
 package ai.test.sdk;
 
+import java.awt.image.BufferedImage;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 
-import javax.imageio.ImageIO;
-
 import org.openqa.selenium.By;
 import org.openqa.selenium.Capabilities;
 import org.openqa.selenium.NoSuchElementException;
+import org.openqa.selenium.NotFoundException;
 import org.openqa.selenium.OutputType;
 import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.interactions.Keyboard;
 import org.openqa.selenium.interactions.Mouse;
@@ -29,10 +50,17 @@ import org.openqa.selenium.remote.SessionId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import ai.test.sdk.PerformanceStats.Counter;
+import ai.test.sdk.PerformanceStats.Operation;
 
+import okhttp3.Call;
 import okhttp3.HttpUrl;
 import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 
 /**
@@ -98,6 +126,162 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	double multiplier;
 
+	/**
+	 * The number of CSS pixels to pad the last known bounding box of an element by when cropping screenshots sent to test.ai. Region-of-interest cropping is disabled if this is negative.
+	 */
+	private int roiMargin = -1;
+
+	/**
+	 * The last known bounding box (in CSS pixels) of each element, keyed by element name.
+	 */
+	private Map<String, Rectangle> lastKnownRects = new ConcurrentHashMap<>();
+
+	/**
+	 * Chooses whether screenshots are sent to test.ai as raw bytes in a multipart request, or as base64 in a form.
+	 */
+	private final ClassifyTransport classifyTransport = new ClassifyTransport();
+
+	/**
+	 * Indicates whether the {@code findElementsBy} family should ask test.ai for matching elements when selenium does not find any
+	 */
+	private boolean pluralFallback;
+
+	/**
+	 * Encodes page sources uploaded during this run as deltas against the last full snapshot. Page sources are always uploaded in full if this is {@code null}.
+	 */
+	private PageSourceDelta sourceDelta;
+
+	/**
+	 * Tracks changes to the page, for validating anything cached about the page.
+	 */
+	PageEpoch pageEpoch;
+
+	/**
+	 * The stages used to rank candidate elements when matching bounding boxes returned by test.ai to elements on the page.
+	 */
+	List<ScoringStage> scoringStages = ScoringStage.DEFAULT;
+
+	/**
+	 * Indicates whether elements in open shadow roots and same-origin (i)frames should be considered when matching bounding boxes returned by test.ai to elements on the page.
+	 */
+	boolean deepMatching;
+
+	/**
+	 * Indicates whether bounding boxes should be matched to elements by a script in the browser, rather than by collecting every candidate element in the JVM.
+	 */
+	boolean inBrowserMatching;
+
+	/**
+	 * Indicates whether in-browser matches should be checked against the scoring stages in the JVM.
+	 */
+	boolean matchCrossCheck;
+
+	/**
+	 * The maximum number of element queries sent at once when candidates cannot be collected with a script.
+	 */
+	int rectParallelism = 1;
+
+	/**
+	 * The implicit wait configured with {@link #implicitlyWait(long)}, in milliseconds.
+	 */
+	private long implicitWait;
+
+	/**
+	 * The number of milliseconds to wait for selenium before speculatively starting a test.ai lookup in parallel. Speculative lookups are disabled if this is negative.
+	 */
+	private long speculativeDelay = -1;
+
+	/**
+	 * The interval between attempts to find an element with selenium, when implicit waits are performed by this {@code TestAiDriver} instead of the browser.
+	 */
+	private static final long POLL_INTERVAL = 100;
+
+	/**
+	 * The maximum number of milliseconds to wait for a concurrent classification of the same element to finish.
+	 */
+	private static final long COALESCE_TIMEOUT = TimeUnit.MINUTES.toMillis(3);
+
+	/**
+	 * The maximum number of milliseconds to wait for a cancelled selenium lookup to finish its current command.
+	 */
+	private static final long CANCEL_TIMEOUT = 5000;
+
+	/**
+	 * Coalesces concurrent classifications of the same element on the same page state
+	 */
+	private final SingleFlight<String, ClassifyResult> classifications = new SingleFlight<>();
+
+	/**
+	 * Counts the navigations and interactions performed through this {@code TestAiDriver}, and calls to {@link #invalidatePageState()}. This identifies the page state for
+	 * {@code classifications} without a round trip to the browser.
+	 */
+	private final AtomicLong pageChanges = new AtomicLong();
+
+	/**
+	 * Runs background and speculative tasks. Lazily created by {@link #executor()}.
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * Prefetches the likely labels after each navigation. Prefetching is disabled if this is {@code null}.
+	 */
+	private LabelPrefetcher prefetcher;
+
+	/**
+	 * The persistent index of resolved elements. This is {@code null} if no index is in use.
+	 */
+	private ElementIndex elementIndex;
+
+	/**
+	 * The latencies and counts recorded during this run
+	 */
+	final PerformanceStats stats = new PerformanceStats();
+
+	/**
+	 * The path to write the performance report to on {@link #quit()}. No report is written if this is {@code null}.
+	 */
+	private Path performanceReport;
+
+	/**
+	 * The outbox training updates are written to. Updates are sent inline if this is {@code null}.
+	 */
+	private ActionOutbox outbox;
+
+	/**
+	 * The maximum number of milliseconds {@link #quit()} waits for the outbox to be drained.
+	 */
+	private static final long OUTBOX_DRAIN_TIMEOUT = 5000;
+
+	/**
+	 * Reuses screenshots and page sources while the page has not changed. Captures are never reused if this is {@code null}.
+	 */
+	private CaptureCache captureCache;
+
+	/**
+	 * The width and height of the tiles screenshots are split into for visual change detection, in pixels. Visual change detection is disabled if this is not positive.
+	 */
+	private int tileSize;
+
+	/**
+	 * The last successful classification of each label, along with the tile hashes of the screenshot it was made with.
+	 */
+	private final Map<String, VisualResult> visualResults = new ConcurrentHashMap<>();
+
+	/**
+	 * Hedges slow classify requests. Requests are not hedged if this is {@code null}.
+	 */
+	private Hedger hedger;
+
+	/**
+	 * Caches the elements found by the {@code findElementBy} family on the current page. Elements are not cached if this is {@code null}.
+	 */
+	private HandleCache handleCache;
+
+	/**
+	 * Minifies page sources before they are uploaded. Page sources are uploaded verbatim if this is {@code null}.
+	 */
+	private PageSourceMinifier minifier;
+
 	/**
 	 * Constructor, creates a new TestAiDriver.
 	 * 
@@ -131,20 +315,25 @@ public class TestAiDriver extends RemoteWebDriver
 
 		this.serverURL = HttpUrl.parse(serverURL != null ? serverURL : Objects.requireNonNullElse(System.getenv("TESTAI_FLUFFY_DRAGON_URL"), "https://sdk.test.ai"));
 		client = this.serverURL.equals(HttpUrl.parse("https://sdk.dev.test.ai")) ? NetUtils.unsafeClient() : NetUtils.basicClient().build();
-		multiplier = 1.0 * ImageIO.read(driver.getScreenshotAs(OutputType.FILE)).getWidth() / driver.manage().window().getSize().width;
+		NetUtils.warmUp(client, this.serverURL); // overlaps connection setup with the screenshot below
+		pageEpoch = new PageEpoch(driver);
+		try (Screenshot screenshot = captureScreenshot(false))
+		{
+			multiplier = 1.0 * screenshot.width() / driver.manage().window().getSize().width;
+		}
 
 		log.debug("The screen multiplier is {}", multiplier);
 
 		try
 		{
-			JsonObject payload = CollectionUtils.keyValuesToJO("api_key", apiKey, "os",
-					String.format("%s-%s-%s", System.getProperty("os.name"), System.getProperty("os.version"), System.getProperty("os.arch")), "sdk_version", SDK_VERSION, "language",
-					String.format("java-%s", System.getProperty("java.version")), "test_case_uuid", runID);
-			log.debug("Checking in with: {}", payload.toString());
+			Payloads.Checkin payload = new Payloads.Checkin(apiKey, SDK_VERSION, runID);
+			log.debug("Checking in with: {}", payload);
 
-			JsonObject r = JsonUtils.responseAsJson(NetUtils.basicPOST(client, this.serverURL, "sdk_checkin", payload));
+			JsonObject r = JsonUtils.responseAsJson(limitedPOST("sdk_checkin", false, null, () -> NetUtils.basicPOST(client, this.serverURL, "sdk_checkin", payload, null)));
 			if (!JsonUtils.booleanFromJson(r, "success"))
 				log.debug("Error during checkin, server said: {}", r);
+			else
+				classifyTransport.checkin(r);
 		}
 		catch (Throwable e)
 		{
@@ -172,147 +361,530 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public TestAiDriver implicitlyWait(long waitTime)
 	{
-		driver.manage().timeouts().implicitlyWait(waitTime, TimeUnit.SECONDS);
+		implicitWait = TimeUnit.SECONDS.toMillis(waitTime);
+		driver.manage().timeouts().implicitlyWait(speculativeDelay < 0 ? implicitWait : 0, TimeUnit.MILLISECONDS);
 		return this;
 	}
 
-	@Override
-	public Object executeAsyncScript(String script, Object... args)
+	/**
+	 * Enables speculative lookups. When enabled, if selenium has not found an element within {@code delay} milliseconds, a test.ai lookup is started in parallel, and whichever finds the
+	 * element first wins. This bounds the time taken by lookups with broken selectors by the slower of selenium and test.ai, rather than their sum. Disabled by default.
+	 * <p>
+	 * While speculative lookups are enabled, the implicit wait configured with {@link #implicitlyWait(long)} is performed by polling from this {@code TestAiDriver}, and the browser's implicit
+	 * wait is set to 0, so that the browser remains free to serve the test.ai lookup while selenium waits for the element to appear.
+	 * </p>
+	 * 
+	 * @param delay The number of milliseconds to wait for selenium before starting a test.ai lookup. Set a negative value to disable speculative lookups.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setSpeculativeDelay(long delay)
 	{
-		return driver.executeAsyncScript(script, args);
+		speculativeDelay = delay;
+		driver.manage().timeouts().implicitlyWait(delay < 0 ? implicitWait : 0, TimeUnit.MILLISECONDS);
+		return this;
 	}
 
-	@Override
-	public Object executeScript(String script, Object... args)
+	/**
+	 * Enables the test.ai fallback for the {@code findElementsBy} family. When enabled, lookups for which selenium finds no elements capture a screenshot and ask test.ai for every element
+	 * matching the element name, so they no longer return an empty {@code List} quickly. Leave this disabled if {@code findElements(...).isEmpty()} is used to check that elements are absent.
+	 * Disabled by default.
+	 * 
+	 * @param pluralFallback Set {@code true} to enable the test.ai fallback for the {@code findElementsBy} family.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setPluralFallback(boolean pluralFallback)
 	{
-		return driver.executeScript(script, args);
+		this.pluralFallback = pluralFallback;
+		return this;
 	}
 
 	/**
-	 * Opens a web browser and directs it to {@code url}.
+	 * Enables streaming uploads. When enabled, screenshots are written to a temporary file and streamed to test.ai as raw bytes in a multipart request along with the page source, instead of
+	 * being base64 encoded and copied into a form. This greatly reduces the amount of memory used by each lookup. Disabled by default, although screenshots held on the heap are still sent in
+	 * a multipart request if the server advertises support for it during checkin.
 	 * 
-	 * @param url The URL to launch the browser to.
+	 * @param streamingUpload Set {@code true} to enable streaming uploads.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
 	 */
-	@Override
-	public void get(String url)
+	public TestAiDriver setStreamingUpload(boolean streamingUpload)
 	{
-		driver.get(url);
+		classifyTransport.setStreamingUpload(streamingUpload);
+		return this;
 	}
 
-	@Override
-	public WebElement findElement(By locator)
+	/**
+	 * Enables incremental page source uploads. When enabled, page sources are periodically uploaded to test.ai in full, and in between are uploaded as compact deltas against the last full
+	 * upload in this run. Disabled by default.
+	 * 
+	 * @param incremental Set {@code true} to enable incremental page source uploads.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setIncrementalPageSource(boolean incremental)
 	{
-		return driver.findElement(locator);
+		sourceDelta = incremental ? new PageSourceDelta() : null;
+		return this;
 	}
 
-	@Override
-	public List<WebElement> findElements(By locator)
+	/**
+	 * Sets the stages used to rank candidate elements when matching bounding boxes returned by test.ai to elements on the page. Defaults to {@link ScoringStage#DEFAULT}.
+	 * 
+	 * @param stages The stages to use, in the order they should be applied.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setScoringStages(List<ScoringStage> stages)
 	{
-		return driver.findElements(locator);
+		scoringStages = List.copyOf(stages);
+		return this;
 	}
 
-	@Override
-	public Capabilities getCapabilities()
+	/**
+	 * Enables deep matching. When enabled, elements in open shadow roots and in a bounded number of same-origin (i)frames are also considered when matching elements found by test.ai to
+	 * elements on the page. Elements found in frames automatically switch into their frame whenever they are used. Lookups which fall back to test.ai, and any use of an element found in a
+	 * frame, leave the driver in the top-level browsing context. Disabled by default.
+	 * 
+	 * @param deepMatching Set {@code true} to enable deep matching.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setDeepMatching(boolean deepMatching)
 	{
-		return driver.getCapabilities();
+		this.deepMatching = deepMatching;
+		return this;
 	}
 
-	@Override
-	public CommandExecutor getCommandExecutor()
+	/**
+	 * Enables in-browser matching. When enabled, bounding boxes returned by test.ai are scored against the elements on the page by a script running in the browser, which returns only the
+	 * winning element, instead of the geometry of every element being sent to the JVM for scoring. This only applies with the default scoring stages and without deep matching, otherwise
+	 * elements are always matched in the JVM. Disabled by default.
+	 * 
+	 * @param inBrowser Set {@code true} to enable in-browser matching.
+	 * @param crossCheck Set {@code true} to also match each bounding box in the JVM, logging a warning and using the JVM's match if the two disagree. This costs as much as in-browser
+	 *           matching saves, so it is intended for verifying in-browser matching against a site.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setInBrowserMatching(boolean inBrowser, boolean crossCheck)
 	{
-		return driver.getCommandExecutor();
+		inBrowserMatching = inBrowser;
+		matchCrossCheck = crossCheck;
+		return this;
 	}
 
-	@Override
-	public String getCurrentUrl()
+	/**
+	 * Sets the maximum number of element queries sent to the browser at once when the elements on the page cannot be collected with a script (e.g. in browsers which reject
+	 * {@code executeScript}), and each element has to be queried for its rect and tag name instead. The queries are sent directly through the driver's {@code CommandExecutor}, which must
+	 * support concurrent use. Defaults to 1, i.e. one query at a time.
+	 * 
+	 * @param parallelism The maximum number of queries to send at once. 8 is a reasonable value for remote Grids.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setRectFetchParallelism(int parallelism)
 	{
-		return driver.getCurrentUrl();
+		rectParallelism = Math.max(1, parallelism);
+		return this;
 	}
 
-	@Override
-	public ErrorHandler getErrorHandler()
+	/**
+	 * Enables region-of-interest mode. When enabled, screenshots sent to test.ai for classification are cropped to the area surrounding the last known location of the element being looked up,
+	 * if there is one. If test.ai cannot find the element in the cropped screenshot, the full screenshot is sent instead. Disabled by default.
+	 * 
+	 * @param margin The number of pixels to pad each side of the element's last known bounding box by. Set a negative value to disable region-of-interest mode.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setRegionOfInterestMargin(int margin)
 	{
-		return driver.getErrorHandler();
+		roiMargin = margin;
+		return this;
 	}
 
-	@Override
-	public FileDetector getFileDetector()
+	/**
+	 * Configures the capture cache. While the page has not changed, lookups reuse the last screenshot and page source captured from the browser instead of capturing new ones. Changes are
+	 * detected by navigations and interactions performed through this {@code TestAiDriver}, by DOM mutations, scrolling, and resizing, and by calls to {@link #invalidatePageState()}.
+	 * Screenshots are reused for at most {@code maxAge} milliseconds, since not every visual change (e.g. animations, video, or canvas drawing) is detectable. Changes made through elements
+	 * found with this driver's underlying {@code RemoteWebDriver} are only detected if they mutate the DOM, so call {@link #invalidatePageState()} after those. Checking whether the page has
+	 * changed costs one call to {@code executeScript} per capture, so leave this disabled with browsers which reject scripts. Disabled by default.
+	 * 
+	 * @param maxAge The maximum number of milliseconds to reuse a screenshot for. Set a negative value to disable the capture cache.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setCaptureCache(long maxAge)
 	{
-		return driver.getFileDetector();
-	}
+		if (captureCache != null)
+			captureCache.invalidate();
 
-	@Override
-	public Keyboard getKeyboard()
-	{
-		return driver.getKeyboard();
+		captureCache = maxAge >= 0 ? new CaptureCache(pageEpoch, stats, classifyTransport::multipart, maxAge) : null;
+		return this;
 	}
 
-	@Override
-	public Mouse getMouse()
+	/**
+	 * Enables visual change detection. When enabled, each screenshot is split into a grid of tiles which are hashed and compared against the screenshot of the last successful classification
+	 * of the label being looked up. If none of the tiles around the element test.ai found last time have changed, that classification is reused instead of uploading the new screenshot, and
+	 * only the element on the page is matched again. Disabled by default.
+	 * 
+	 * @param tileSize The width and height of each tile, in screenshot pixels. Smaller tiles detect changes closer to an element at the cost of more hashing. 64 is a reasonable default. Set 0
+	 *           to disable visual change detection.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setVisualChangeDetection(int tileSize)
 	{
-		return driver.getMouse();
+		this.tileSize = tileSize;
+		visualResults.clear();
+		return this;
 	}
 
-	@Override
-	public String getPageSource()
+	/**
+	 * Enables hedging of classify requests. When enabled, a lookup whose classify request is slower than 95% of those observed so far sends a duplicate request, uses whichever response
+	 * arrives first, and cancels the other. Requests are only hedged once enough requests have been observed to estimate their latency, and background requests (e.g. prefetches) are never
+	 * hedged. Disabled by default.
+	 * 
+	 * @param maxExtraPercent The maximum number of duplicate requests, as a percentage of all classify requests. 5 is a reasonable default. Set 0 to disable hedging.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setHedging(int maxExtraPercent)
 	{
-		return driver.getPageSource();
+		hedger = maxExtraPercent > 0 ? new Hedger(maxExtraPercent, stats) : null;
+		return this;
 	}
 
-	@Override
-	public <X> X getScreenshotAs(OutputType<X> outputType)
+	/**
+	 * Enables the handle cache. When enabled, the elements found by the {@code findElementBy} family of methods (e.g. {@link #findElementById(String)}) are cached, and repeated lookups with
+	 * the same strategy, search term, and element name return the cached element while the page is unchanged. Cached lookups cost a single call to the browser to check that the page has not
+	 * changed, and skip the selenium lookup, classification, and training entirely. Any DOM mutation, navigation, switch to another window or frame, or call to
+	 * {@link #invalidatePageState()} empties the cache. Disabled by default.
+	 * 
+	 * @param maxEntries The maximum number of elements to cache. Set 0 to disable the handle cache.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setHandleCache(int maxEntries)
 	{
-		return driver.getScreenshotAs(outputType);
+		handleCache = maxEntries > 0 ? new HandleCache(maxEntries) : null;
+		return this;
 	}
 
-	@Override
-	public SessionId getSessionId()
+	/**
+	 * Sets the minifier applied to page sources before they are uploaded to test.ai. Minifying strips parts of the page which are irrelevant to classification, such as scripts, styles, and
+	 * inline images, which reduces upload sizes and server parse times. Not set by default.
+	 * 
+	 * @param minifier The minifier to use, e.g. {@code new PageSourceMinifier()}. Set {@code null} to upload page sources verbatim.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setPageSourceMinifier(PageSourceMinifier minifier)
 	{
-		return driver.getSessionId();
-	}
+		this.minifier = minifier;
 
-	@Override
-	public String getTitle()
-	{
-		return driver.getTitle();
-	}
+		CaptureCache captureCache = this.captureCache;
+		if (captureCache != null)
+			captureCache.invalidate(); // may hold a page source minified differently
 
-	@Override
-	public String getWindowHandle()
-	{
-		return driver.getWindowHandle();
+		return this;
 	}
 
-	@Override
-	public Set<String> getWindowHandles()
+	/**
+	 * Forces cached screenshots, page sources, and anything else cached about the current page to be refreshed before they are next used. Call this after changing the page in a way this
+	 * {@code TestAiDriver} cannot detect, such as through another driver or with an element which was not found through this {@code TestAiDriver}, if the change does not mutate the DOM.
+	 */
+	public void invalidatePageState()
 	{
-		return driver.getWindowHandles();
+		pageChanges.incrementAndGet();
+		pageEpoch.invalidate();
+
+		CaptureCache captureCache = this.captureCache;
+		if (captureCache != null)
+			captureCache.invalidate();
+
+		HandleCache handleCache = this.handleCache;
+		if (handleCache != null)
+			handleCache.clear();
 	}
 
-	@Override
-	public Options manage()
+	/**
+	 * Enables prefetching. When enabled, the labels looked up on each URL pattern are recorded, and after each navigation performed through this {@code TestAiDriver}, the labels most
+	 * frequently looked up on the new page are classified in the background using a single screenshot. The screenshot is captured by the navigating thread, so no commands are sent to the
+	 * browser in the background. Lookups of those labels then use the prefetched result, as long as the page has not changed since it was captured. Disabled by default.
+	 * 
+	 * @param parallelism The maximum number of labels to classify at once. Set 0 to disable prefetching.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setPrefetchParallelism(int parallelism)
 	{
-		return driver.manage();
+		if (prefetcher != null)
+			prefetcher.cancel();
+
+		prefetcher = parallelism > 0 ? new LabelPrefetcher(new PrefetchSession(), parallelism) : null;
+		return this;
 	}
 
-	@Override
-	public Navigation navigate()
+	/**
+	 * Sets the persistent element index. When set, elements resolved by this {@code TestAiDriver} are recorded in the index, keyed by the URL pattern, viewport size, and screen density of the
+	 * page they were found on. Later lookups, including those in other processes sharing the index file, first check the index, and only ask test.ai if the indexed element is no longer
+	 * present where it was recorded. Not set by default.
+	 * 
+	 * @param path The path to the index file, which is created if it does not exist. Set {@code null} to stop using an index.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 * @throws IOException If the index file could not be opened
+	 */
+	public TestAiDriver setElementIndex(Path path) throws IOException
 	{
-		return driver.navigate();
+		if (elementIndex != null)
+			elementIndex.close();
+
+		elementIndex = path != null ? ElementIndex.open(path) : null;
+		return this;
 	}
 
-	@Override
-	public void perform(Collection<Sequence> actions)
+	/**
+	 * Sets the path to write the performance report to. When set, a json report of the latency percentiles of each operation performed by this {@code TestAiDriver}, along with the number of
+	 * bytes uploaded and the rate at which lookups fell back to test.ai, is written on {@link #quit()}. Not set by default.
+	 * 
+	 * @param path The path to write the report to. Set {@code null} to disable the report.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setPerformanceReport(Path path)
 	{
-		driver.perform(actions);
+		performanceReport = path;
+		return this;
 	}
 
-	@Override
-	public void quit()
+	/**
+	 * Configures the HTTP client used to talk to test.ai. HTTP/2 is always used with servers which support it over TLS, which allows concurrent requests (e.g. from prefetching or
+	 * speculative lookups) to share a single connection. A new connection is opened in the background straight away, so that it is ready for the next lookup.
+	 * 
+	 * @param h2cPriorKnowledge Set {@code true} to speak HTTP/2 over cleartext without negotiating it first. Only applies if the server URL is {@code http://}, e.g. a local stand-in for
+	 *            test.ai.
+	 * @param maxRequestsPerHost The maximum number of concurrent requests to test.ai. Defaults to 16.
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 */
+	public TestAiDriver setHttpOptions(boolean h2cPriorKnowledge, int maxRequestsPerHost)
+	{
+		OkHttpClient.Builder b = client.newBuilder().dispatcher(NetUtils.dispatcher(maxRequestsPerHost));
+		if (h2cPriorKnowledge)
+		{
+			if (serverURL.isHttps())
+				log.warn("Ignoring h2c prior knowledge, as {} does not use cleartext", serverURL);
+			else
+				NetUtils.priorKnowledge(b);
+		}
+
+		client = b.build();
+		NetUtils.warmUp(client, serverURL);
+		return this;
+	}
+
+	/**
+	 * Sets the directory of the training outbox. When set, training updates are written to a log in {@code dir} and sent to test.ai in the background, so lookups never wait on them, and
+	 * updates which could not be sent (e.g. because of a network error) are retried until they are. Anything still unsent when {@link #quit()} is called is sent by the next
+	 * {@code TestAiDriver} to use {@code dir}. Each {@code TestAiDriver} running at the same time must use a different directory. Updates are written without the api key, which is added
+	 * when they are sent. Not set by default.
+	 * 
+	 * @param dir The directory of the outbox, which is created if it does not exist. Set {@code null} to send updates inline.
+	 * @param fsync When updates are forced to disk
+	 * @return This {@code TestAiDriver}, for chaining convenience.
+	 * @throws IOException If the outbox could not be opened, or {@code dir} is in use.
+	 */
+	public TestAiDriver setTrainingOutbox(Path dir, FsyncPolicy fsync) throws IOException
+	{
+		if (outbox != null)
+			outbox.close();
+
+		outbox = dir != null ? ActionOutbox.open(dir, fsync, this::sendAction, executor()) : null;
+		return this;
+	}
+
+	@Override
+	public Object executeAsyncScript(String script, Object... args)
+	{
+		return driver.executeAsyncScript(script, args);
+	}
+
+	@Override
+	public Object executeScript(String script, Object... args)
+	{
+		return driver.executeScript(script, args);
+	}
+
+	/**
+	 * Opens a web browser and directs it to {@code url}.
+	 * 
+	 * @param url The URL to launch the browser to.
+	 */
+	@Override
+	public void get(String url)
+	{
+		driver.get(url);
+		navigated();
+	}
+
+	/**
+	 * Called after each navigation performed through this {@code TestAiDriver}.
+	 */
+	private void navigated()
+	{
+		invalidatePageState();
+
+		LabelPrefetcher prefetcher = this.prefetcher;
+		if (prefetcher != null)
+			prefetcher.navigated();
+	}
+
+	@Override
+	public WebElement findElement(By locator)
+	{
+		return speculativeDelay < 0 ? driver.findElement(locator) : pollSelenium(() -> driver.findElement(locator), Objects::nonNull);
+	}
+
+	@Override
+	public List<WebElement> findElements(By locator)
+	{
+		return speculativeDelay < 0 ? driver.findElements(locator) : pollSelenium(() -> driver.findElements(locator), l -> !l.isEmpty());
+	}
+
+	@Override
+	public Capabilities getCapabilities()
+	{
+		return driver.getCapabilities();
+	}
+
+	@Override
+	public CommandExecutor getCommandExecutor()
+	{
+		return driver.getCommandExecutor();
+	}
+
+	@Override
+	public String getCurrentUrl()
+	{
+		return driver.getCurrentUrl();
+	}
+
+	@Override
+	public ErrorHandler getErrorHandler()
+	{
+		return driver.getErrorHandler();
+	}
+
+	@Override
+	public FileDetector getFileDetector()
+	{
+		return driver.getFileDetector();
+	}
+
+	@Override
+	public Keyboard getKeyboard()
+	{
+		return driver.getKeyboard();
+	}
+
+	@Override
+	public Mouse getMouse()
+	{
+		return driver.getMouse();
+	}
+
+	@Override
+	public String getPageSource()
+	{
+		return driver.getPageSource();
+	}
+
+	@Override
+	public <X> X getScreenshotAs(OutputType<X> outputType)
+	{
+		return driver.getScreenshotAs(outputType);
+	}
+
+	@Override
+	public SessionId getSessionId()
+	{
+		return driver.getSessionId();
+	}
+
+	@Override
+	public String getTitle()
+	{
+		return driver.getTitle();
+	}
+
+	@Override
+	public String getWindowHandle()
 	{
+		return driver.getWindowHandle();
+	}
+
+	@Override
+	public Set<String> getWindowHandles()
+	{
+		return driver.getWindowHandles();
+	}
+
+	@Override
+	public Options manage()
+	{
+		return driver.manage();
+	}
+
+	@Override
+	public Navigation navigate()
+	{
+		return new TrackingNavigation(driver.navigate());
+	}
+
+	@Override
+	public void perform(Collection<Sequence> actions)
+	{
+		driver.perform(actions);
+	}
+
+	@Override
+	public void quit()
+	{
+		if (prefetcher != null)
+			prefetcher.cancel();
+
+		if (elementIndex != null)
+			try
+			{
+				elementIndex.close();
+			}
+			catch (IOException e)
+			{
+				log.debug("Unable to close the element index: {}", e.getMessage());
+			}
+
+		if (outbox != null)
+			outbox.close(OUTBOX_DRAIN_TIMEOUT);
+
+		synchronized (this)
+		{
+			if (executor != null)
+				executor.shutdownNow();
+		}
+
+		if (performanceReport != null)
+			writePerformanceReport();
+
 		driver.quit();
 	}
 
+	/**
+	 * Writes the performance report for this run to {@code performanceReport}.
+	 */
+	private void writePerformanceReport()
+	{
+		JsonObject report = stats.report();
+		report.addProperty("run_id", runID);
+		report.addProperty("test_case", testCaseName);
+		report.addProperty("sdk_version", SDK_VERSION);
+		report.add("limiters", ConcurrencyLimiter.reportAll());
+
+		try
+		{
+			Files.writeString(performanceReport, new GsonBuilder().setPrettyPrinting().create().toJson(report));
+			log.info("Wrote the performance report to {}", performanceReport);
+		}
+		catch (Throwable e)
+		{
+			log.warn("Unable to write the performance report to {}: {}", performanceReport, e.getMessage());
+		}
+	}
+
 	@Override
 	public void resetInputState()
 	{
@@ -358,7 +930,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByClassName(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "class_name", driver::findElementByClassName);
+		return findElementByGeneric(using, elementName, "class_name", "class name", driver::findElementByClassName);
 	}
 
 	/**
@@ -373,6 +945,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByClassName(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching class name.
+	 * 
+	 * @param using The class name of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByClassName(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "class_name", driver::findElementsByClassName);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching class name.
 	 * 
@@ -382,7 +966,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByClassName(String using)
 	{
-		return driver.findElementsByClassName(using);
+		return findElementsByClassName(using, null);
 	}
 
 	/**
@@ -394,7 +978,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByCssSelector(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "class_name", driver::findElementByCssSelector);
+		return findElementByGeneric(using, elementName, "class_name", "css selector", driver::findElementByCssSelector);
 	}
 
 	/**
@@ -409,6 +993,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByCssSelector(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching css selector.
+	 * 
+	 * @param using The css selector of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByCssSelector(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "class_name", driver::findElementsByCssSelector);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching css selector.
 	 * 
@@ -418,7 +1014,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByCssSelector(String using)
 	{
-		return driver.findElementsByCssSelector(using);
+		return findElementsByCssSelector(using, null);
 	}
 
 	/**
@@ -430,7 +1026,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementById(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "class_name", driver::findElementById);
+		return findElementByGeneric(using, elementName, "class_name", "id", driver::findElementById);
 	}
 
 	/**
@@ -445,6 +1041,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementById(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching id.
+	 * 
+	 * @param using The id of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsById(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "class_name", driver::findElementsById);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching id.
 	 * 
@@ -454,7 +1062,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsById(String using)
 	{
-		return driver.findElementsById(using);
+		return findElementsById(using, null);
 	}
 
 	/**
@@ -466,7 +1074,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByLinkText(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "class_name", driver::findElementByLinkText);
+		return findElementByGeneric(using, elementName, "class_name", "link text", driver::findElementByLinkText);
 	}
 
 	/**
@@ -481,6 +1089,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByLinkText(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching link text.
+	 * 
+	 * @param using The link text of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByLinkText(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "class_name", driver::findElementsByLinkText);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching link text.
 	 * 
@@ -490,7 +1110,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByLinkText(String using)
 	{
-		return driver.findElementsByLinkText(using);
+		return findElementsByLinkText(using, null);
 	}
 
 	/**
@@ -502,7 +1122,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByName(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "name", driver::findElementByName);
+		return findElementByGeneric(using, elementName, "name", "name", driver::findElementByName);
 	}
 
 	/**
@@ -517,6 +1137,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByName(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching name.
+	 * 
+	 * @param using The name of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByName(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "name", driver::findElementsByName);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching name.
 	 * 
@@ -526,7 +1158,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByName(String using)
 	{
-		return driver.findElementsByName(using);
+		return findElementsByName(using, null);
 	}
 
 	/**
@@ -538,7 +1170,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByPartialLinkText(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "name", driver::findElementByPartialLinkText);
+		return findElementByGeneric(using, elementName, "name", "partial link text", driver::findElementByPartialLinkText);
 	}
 
 	/**
@@ -553,6 +1185,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByPartialLinkText(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching partial link text.
+	 * 
+	 * @param using The partial link text of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByPartialLinkText(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "name", driver::findElementsByPartialLinkText);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching partial link text.
 	 * 
@@ -562,7 +1206,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByPartialLinkText(String using)
 	{
-		return driver.findElementsByPartialLinkText(using);
+		return findElementsByPartialLinkText(using, null);
 	}
 
 	/**
@@ -574,7 +1218,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByTagName(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "name", driver::findElementByTagName);
+		return findElementByGeneric(using, elementName, "name", "tag name", driver::findElementByTagName);
 	}
 
 	/**
@@ -589,6 +1233,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByTagName(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching tag name.
+	 * 
+	 * @param using The tag name of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByTagName(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "name", driver::findElementsByTagName);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching tag name.
 	 * 
@@ -598,7 +1254,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByTagName(String using)
 	{
-		return driver.findElementsByTagName(using);
+		return findElementsByTagName(using, null);
 	}
 
 	/**
@@ -610,7 +1266,7 @@ public class TestAiDriver extends RemoteWebDriver
 	 */
 	public WebElement findElementByXPath(String using, String elementName)
 	{
-		return findElementByGeneric(using, elementName, "xpath", driver::findElementByXPath);
+		return findElementByGeneric(using, elementName, "xpath", "xpath", driver::findElementByXPath);
 	}
 
 	/**
@@ -625,6 +1281,18 @@ public class TestAiDriver extends RemoteWebDriver
 		return findElementByXPath(using, null);
 	}
 
+	/**
+	 * Attempts to find all elements with the matching xpath.
+	 * 
+	 * @param using The xpath of the elements to find.
+	 * @param elementName The label name of the elements to be classified. Optional, set {@code null} to auto generate an element name.
+	 * @return A {@code List} with any elements that were found, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByXPath(String using, String elementName)
+	{
+		return findElementsByGeneric(using, elementName, "xpath", driver::findElementsByXPath);
+	}
+
 	/**
 	 * Attempts to find all elements with the matching xpath.
 	 * 
@@ -634,7 +1302,7 @@ public class TestAiDriver extends RemoteWebDriver
 	@Override
 	public List<WebElement> findElementsByXPath(String using)
 	{
-		return driver.findElementsByXPath(using);
+		return findElementsByXPath(using, null);
 	}
 
 	/**
@@ -665,24 +1333,65 @@ public class TestAiDriver extends RemoteWebDriver
 	}
 
 	/**
-	 * Shared {@code findElementBy} functionality. This serves as the base logic for most find by methods exposed to the end user.
+	 * Finds all elements matching {@code elementName}.
 	 * 
-	 * @param using The search term to use when looking for an element.
-	 * @param elementName The label name of the element to be classified. This is what the element will be stored under in the test.ai db.
-	 * @param shortcode The short identifier for the type of lookup being performed. This will be used to aut-generate an {@code elementName} if the user did not specify one.
+	 * @param elementName The label name of the elements to be classified.
+	 * @return A {@code List} with any elements associated with {@code elementName}, or an empty {@code List} if no matches were found.
+	 */
+	public List<WebElement> findElementsByElementName(String elementName)
+	{
+		return classifyAll(elementName);
+	}
+
+	/**
+	 * Shared {@code findElementBy} functionality. This serves as the base logic for most find by methods exposed to the end user.
+	 * 
+	 * @param using The search term to use when looking for an element.
+	 * @param elementName The label name of the element to be classified. This is what the element will be stored under in the test.ai db.
+	 * @param shortcode The short identifier for the type of lookup being performed. This will be used to aut-generate an {@code elementName} if the user did not specify one.
+	 * @param strategy The name of the lookup strategy (e.g. {@code css selector}), used to key the handle cache.
 	 * @param fn The selenium function to call with {@code using}, which will be used to fetch what selenium thinks is the target element.
 	 * @return The TestAiElement
 	 */
-	private WebElement findElementByGeneric(String using, String elementName, String shortcode, Function<String, WebElement> fn)
+	private WebElement findElementByGeneric(String using, String elementName, String shortcode, String strategy, Function<String, WebElement> fn)
 	{
-		if (elementName == null)
-			elementName = String.format("element_name_by_%s_%s", shortcode, using.replace('.', '_'));
+		elementName = normalizeElementName(using, elementName, shortcode);
+
+		HandleCache handleCache = this.handleCache;
+		if (handleCache == null)
+			return findElementNow(using, elementName, fn);
+
+		long epoch = pageEpoch.current();
+		WebElement e = handleCache.get(strategy, using, elementName, epoch);
+		if (e != null)
+		{
+			log.debug("Reusing the element found for '{}' on the unchanged page", elementName);
+			stats.increment(Counter.HANDLE_HITS);
+			return e;
+		}
+
+		e = findElementNow(using, elementName, fn);
+		handleCache.put(strategy, using, elementName, epoch, e);
 
-		elementName = elementName.replace(' ', '_');
+		return e;
+	}
+
+	/**
+	 * Looks up an element with selenium and test.ai, bypassing the handle cache.
+	 * 
+	 * @param using The search term to use when looking for an element.
+	 * @param elementName The normalized label name of the element to be classified.
+	 * @param fn The selenium function to call with {@code using}, which will be used to fetch what selenium thinks is the target element.
+	 * @return The element that was found. Throws NoSuchElementException otherwise.
+	 */
+	private WebElement findElementNow(String using, String elementName, Function<String, WebElement> fn)
+	{
+		if (speculativeDelay >= 0)
+			return findElementSpeculatively(using, elementName, fn);
 
 		try
 		{
-			WebElement driverElement = fn.apply(using);
+			WebElement driverElement = seleniumLookup(() -> fn.apply(using));
 			if (driverElement != null)
 			{
 				ClassifyResult result = classify(elementName);
@@ -694,6 +1403,7 @@ public class TestAiDriver extends RemoteWebDriver
 		catch (Throwable x)
 		{
 			log.info("Element '{}' was not found by Selenium, trying with test.ai...", elementName);
+			stats.increment(Counter.FALLBACKS);
 
 			ClassifyResult result = classify(elementName);
 			if (result.e != null)
@@ -706,20 +1416,361 @@ public class TestAiDriver extends RemoteWebDriver
 	}
 
 	/**
-	 * Updates the entry for an element as it is known to the test.ai servers.
+	 * Speculative variant of {@link #findElementNow(String, String, Function)}. Selenium is given {@code speculativeDelay} milliseconds to find the element, after which a test.ai
+	 * lookup is started in parallel. The first lookup to find the element wins, and the other is cancelled. If selenium wins, the element is used to train test.ai as usual. A cancelled
+	 * test.ai lookup has its classify request cancelled, and a cancelled selenium lookup is allowed to finish its current command before this returns.
+	 * 
+	 * @param using The search term to use when looking for an element.
+	 * @param elementName The label name of the element to be classified.
+	 * @param fn The selenium function to call with {@code using}, which will be used to fetch what selenium thinks is the target element.
+	 * @return The element that was found. Throws NoSuchElementException otherwise.
+	 */
+	private WebElement findElementSpeculatively(String using, String elementName, Function<String, WebElement> fn)
+	{
+		ExecutorCompletionService<Object> race = new ExecutorCompletionService<>(executor());
+		CountDownLatch seleniumDone = new CountDownLatch(1);
+		Future<Object> seleniumLookup = race.submit(() -> {
+			try
+			{
+				return seleniumLookup(() -> pollSelenium(() -> fn.apply(using), Objects::nonNull));
+			}
+			finally
+			{
+				seleniumDone.countDown();
+			}
+		}), aiLookup = null;
+		RuntimeException seleniumError = null;
+
+		try
+		{
+			Future<Object> f = race.poll(speculativeDelay, TimeUnit.MILLISECONDS);
+			if (f == null)
+			{
+				log.info("Element '{}' was not found by Selenium within {}ms, speculatively trying with test.ai...", elementName, speculativeDelay);
+				aiLookup = race.submit(() -> classify(elementName));
+				stats.increment(Counter.FALLBACKS);
+				f = race.take();
+			}
+
+			for (int pending = aiLookup == null ? 1 : 2; pending > 0; pending--, f = pending > 0 ? race.take() : null)
+			{
+				if (f == seleniumLookup)
+				{
+					WebElement driverElement;
+					try
+					{
+						driverElement = (WebElement) f.get();
+					}
+					catch (ExecutionException e)
+					{
+						seleniumError = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new WebDriverException(e.getCause());
+						if (aiLookup == null)
+						{
+							log.info("Element '{}' was not found by Selenium, trying with test.ai...", elementName);
+							aiLookup = race.submit(() -> classify(elementName));
+							stats.increment(Counter.FALLBACKS);
+							pending++;
+						}
+
+						continue;
+					}
+
+					ClassifyResult result = aiLookup != null ? classifyResultOf(aiLookup) : classify(elementName);
+					updateElement(driverElement, result.key, elementName, true);
+
+					return driverElement;
+				}
+
+				ClassifyResult result = classifyResultOf(f);
+				if (result.e != null)
+				{
+					log.info("test.ai found element '{}' before Selenium did", elementName);
+					return result.e;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new WebDriverException("Interrupted while looking up element " + elementName, e);
+		}
+		finally
+		{
+			seleniumLookup.cancel(true); // interrupting the test.ai lookup cancels its classify request
+			if (aiLookup != null)
+				aiLookup.cancel(true);
+
+			awaitLoser(seleniumDone);
+		}
+
+		log.error("test.ai was also unable to find the element with name '{}'", elementName);
+		throw seleniumError != null ? seleniumError : new NoSuchElementException("Unable to find element with name " + elementName);
+	}
+
+	/**
+	 * Waits for a cancelled selenium lookup to finish the command it is in the middle of, so that it does not send commands to the browser concurrently with the caller. Gives up after
+	 * {@code CANCEL_TIMEOUT} milliseconds.
+	 * 
+	 * @param done Counted down once the lookup has finished
+	 */
+	private static void awaitLoser(CountDownLatch done)
+	{
+		try
+		{
+			if (!done.await(CANCEL_TIMEOUT, TimeUnit.MILLISECONDS))
+				log.debug("A cancelled selenium lookup is still running after {}ms", CANCEL_TIMEOUT);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Waits for a speculative call to {@link #classify(String)} to complete.
+	 * 
+	 * @param f The {@code Future} of the call to {@code classify}
+	 * @return The result of the call, or an unsuccessful result if the call failed.
+	 * @throws InterruptedException If the current thread was interrupted while waiting
+	 */
+	private static ClassifyResult classifyResultOf(Future<Object> f) throws InterruptedException
+	{
+		try
+		{
+			return (ClassifyResult) f.get();
+		}
+		catch (ExecutionException e)
+		{
+			return new ClassifyResult(null, null, String.valueOf(e.getCause()));
+		}
+	}
+
+	/**
+	 * Repeatedly calls {@code fn} until its result satisfies {@code found} or the implicit wait configured with {@link #implicitlyWait(long)} elapses. {@code NotFoundException}s thrown by
+	 * {@code fn} are retried until the implicit wait elapses, after which they are rethrown.
+	 * 
+	 * @param <T> The return type of {@code fn}
+	 * @param fn The selenium lookup to perform
+	 * @param found Determines if the result of {@code fn} is satisfactory
+	 * @return The last result of {@code fn}
+	 */
+	private <T> T pollSelenium(Supplier<T> fn, Predicate<T> found)
+	{
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(implicitWait);
+		while (true)
+		{
+			try
+			{
+				T t = fn.get();
+				if (found.test(t) || System.nanoTime() >= deadline)
+					return t;
+			}
+			catch (NotFoundException e)
+			{
+				if (System.nanoTime() >= deadline)
+					throw e;
+			}
+
+			try
+			{
+				Thread.sleep(POLL_INTERVAL);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new WebDriverException("Interrupted while waiting for element", e);
+			}
+		}
+	}
+
+	/**
+	 * Performs a lookup with selenium, recording how long it took.
+	 * 
+	 * @param <T> The return type of {@code fn}
+	 * @param fn The lookup to perform
+	 * @return The result of {@code fn}
+	 */
+	private <T> T seleniumLookup(Supplier<T> fn)
+	{
+		stats.increment(Counter.LOOKUPS);
+
+		long start = System.nanoTime();
+		try
+		{
+			return fn.get();
+		}
+		finally
+		{
+			stats.record(Operation.SELENIUM_LOOKUP, start);
+		}
+	}
+
+	/**
+	 * Captures a screenshot from the browser, or reuses the cached one if the page has not changed.
+	 * 
+	 * @param toFile Set {@code true} to have a new screenshot written to a temporary file instead of being held on the heap.
+	 * @return The {@code Screenshot}. The caller must close this when it is done with it.
+	 */
+	Screenshot captureScreenshot(boolean toFile)
+	{
+		CaptureCache captureCache = this.captureCache;
+		return captureCache != null ? captureCache.screenshot(() -> captureScreenshotNow(toFile), toFile) : captureScreenshotNow(toFile);
+	}
+
+	/**
+	 * Captures a new screenshot from the browser, recording how long it took.
+	 * 
+	 * @param toFile Set {@code true} to have the screenshot written to a temporary file instead of being held on the heap.
+	 * @return The new {@code Screenshot}
+	 */
+	private Screenshot captureScreenshotNow(boolean toFile)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return Screenshot.capture(driver, toFile);
+		}
+		finally
+		{
+			stats.record(Operation.SCREENSHOT, start);
+		}
+	}
+
+	/**
+	 * Fetches the page source from the browser, or reuses the cached one if the page has not changed.
+	 * 
+	 * @return The page source, or the empty String if it could not be fetched.
+	 */
+	String fetchPageSource()
+	{
+		CaptureCache captureCache = this.captureCache;
+		String pageSource = captureCache != null ? captureCache.pageSource(this::fetchPageSourceNow) : fetchPageSourceNow();
+
+		return pageSource != null ? pageSource : "";
+	}
+
+	/**
+	 * Fetches the page source from the browser and minifies it if a minifier is set, recording how long it took.
+	 * 
+	 * @return The page source, or {@code null} if it could not be fetched.
+	 */
+	private String fetchPageSourceNow()
+	{
+		long start = System.nanoTime();
+		try
+		{
+			String pageSource = driver.getPageSource();
+
+			PageSourceMinifier minifier = this.minifier;
+			return minifier != null ? minifier.minify(pageSource) : pageSource;
+		}
+		catch (Throwable e)
+		{
+			return null;
+		}
+		finally
+		{
+			stats.record(Operation.PAGE_SOURCE, start);
+		}
+	}
+
+	/**
+	 * Gets the {@code ExecutorService} used to run background and speculative tasks, creating it if necessary.
+	 * 
+	 * @return The {@code ExecutorService} for this {@code TestAiDriver}.
+	 */
+	synchronized ExecutorService executor()
+	{
+		if (executor == null)
+			executor = Executors.newCachedThreadPool(r -> {
+				Thread t = new Thread(r, "testai-worker");
+				t.setDaemon(true);
+				return t;
+			});
+
+		return executor;
+	}
+
+	/**
+	 * Shared {@code findElementsBy} functionality. This serves as the base logic for most find all by methods exposed to the end user. If selenium does not find any elements and the plural
+	 * fallback is enabled, then test.ai is asked for every element matching {@code elementName}.
+	 * 
+	 * @param using The search term to use when looking for elements.
+	 * @param elementName The label name of the elements to be classified.
+	 * @param shortcode The short identifier for the type of lookup being performed. This will be used to aut-generate an {@code elementName} if the user did not specify one.
+	 * @param fn The selenium function to call with {@code using}, which will be used to fetch what selenium thinks are the target elements.
+	 * @return The elements that were found, or an empty {@code List} if neither selenium nor test.ai could find any.
+	 */
+	private List<WebElement> findElementsByGeneric(String using, String elementName, String shortcode, Function<String, List<WebElement>> fn)
+	{
+		elementName = normalizeElementName(using, elementName, shortcode);
+
+		List<WebElement> l = seleniumLookup(() -> speculativeDelay < 0 ? fn.apply(using) : pollSelenium(() -> fn.apply(using), r -> !r.isEmpty()));
+		if (!l.isEmpty() || !pluralFallback)
+			return l;
+
+		log.info("No elements named '{}' were found by Selenium, trying with test.ai...", elementName);
+		stats.increment(Counter.FALLBACKS);
+
+		l = classifyAll(elementName);
+		if (l.isEmpty())
+			log.error("test.ai was also unable to find any elements with name '{}'", elementName);
+
+		return l;
+	}
+
+	/**
+	 * Determines the element name to use for a lookup, generating one if the user did not specify one.
+	 * 
+	 * @param using The search term used in the lookup.
+	 * @param elementName The label name specified by the user, or {@code null} to auto generate one.
+	 * @param shortcode The short identifier for the type of lookup being performed.
+	 * @return The element name to use.
+	 */
+	private static String normalizeElementName(String using, String elementName, String shortcode)
+	{
+		if (elementName == null)
+			elementName = String.format("element_name_by_%s_%s", shortcode, using.replace('.', '_'));
+
+		return elementName.replace(' ', '_');
+	}
+
+	/**
+	 * Updates the entry for an element as it is known to the test.ai servers. Nothing is sent if the element has no key, since the server cannot use such an update.
 	 * 
 	 * @param elem The element to update
-	 * @param key The key associated with this element
+	 * @param key The key associated with this element, or {@code null} if classification did not return one.
 	 * @param elementName The name associated with this element
 	 * @param trainIfNecessary Set {@code true} if the model on the server should also be trained with this element.
 	 */
 	private void updateElement(WebElement elem, String key, String elementName, boolean trainIfNecessary)
 	{
 		Rectangle rect = elem.getRect();
-		JsonObject form = CollectionUtils.keyValuesToJO("key", key, "api_key", apiKey, "label", elementName, "run_id", runID, "x", rect.x * multiplier, "y", rect.y * multiplier, "width",
-				rect.width * multiplier, "height", rect.height * multiplier, "multiplier", multiplier, "train_if_necessary", trainIfNecessary, "test_case_uuid", testCaseName);
+		lastKnownRects.put(elementName, rect);
+		index(elem, elementName, key);
 
-		try (Response r = NetUtils.basicPOST(client, serverURL, "add_action", form))
+		if (key == null)
+		{
+			log.debug("Not updating {}, as the server did not return a key for it", elementName);
+			return;
+		}
+
+		Payloads.AddAction payload = new Payloads.AddAction(key, apiKey, elementName, runID, testCaseName, rect.x * multiplier, rect.y * multiplier, rect.width * multiplier,
+				rect.height * multiplier, multiplier, trainIfNecessary);
+
+		ActionOutbox outbox = this.outbox;
+		if (outbox != null)
+			try
+			{
+				outbox.append(payload.withoutApiKey().toJson()); // the key is added back by sendAction()
+				return;
+			}
+			catch (IOException e)
+			{
+				log.warn("Unable to write the update for {} to the outbox, sending it now: {}", elementName, e.getMessage());
+			}
+
+		try (Response r = limitedPOST("add_action", false, Operation.ADD_ACTION, () -> NetUtils.basicPOST(client, serverURL, "add_action", payload, n -> stats.add(Counter.ADD_ACTION_BYTES, n))))
 		{
 			log.debug("Updated element {}, response from the server was '{}'", elementName, r.body().string());
 		}
@@ -730,40 +1781,138 @@ public class TestAiDriver extends RemoteWebDriver
 	}
 
 	/**
-	 * Perform additional classification on an element by querying the test.ai server.
+	 * Sends a training update from the outbox, with the api key of this {@code TestAiDriver} added to it.
+	 * 
+	 * @param stored The update, as json, without an api key.
+	 * @return {@code true} if the update was sent, or was rejected by the server and should be dropped, or {@code false} if it should be retried.
+	 */
+	private boolean sendAction(String stored)
+	{
+		String payload;
+		try
+		{
+			JsonObject jo = JsonParser.parseString(stored).getAsJsonObject();
+			jo.addProperty("api_key", apiKey);
+			payload = jo.toString();
+		}
+		catch (RuntimeException e)
+		{
+			log.warn("Dropping a malformed training update from the outbox: {}", e.getMessage());
+			return true;
+		}
+
+		try (Response r = limitedPOST("add_action", true, Operation.ADD_ACTION, () -> NetUtils.basicPOST(client, serverURL, "add_action", payload, n -> stats.add(Counter.ADD_ACTION_BYTES, n))))
+		{
+			if (r.isSuccessful())
+				return true;
+			else if (r.code() >= 400 && r.code() < 500 && r.code() != 408 && r.code() != 429)
+			{
+				log.warn("Dropping a training update which was rejected by the server ({}): {}", r.code(), r.body().string());
+				return true;
+			}
+
+			log.debug("Unable to send a training update, the server said {}", r.code());
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to send a training update: {}", e.getMessage());
+		}
+
+		return false;
+	}
+
+	/**
+	 * Perform additional classification on an element by querying the test.ai server. Concurrent calls for the same element are coalesced into one, unless the page was navigated or
+	 * interacted with through this {@code TestAiDriver} in between. This costs no round trips to the browser.
 	 * 
 	 * @param elementName The name of the element to run classification on.
 	 * @return The result of the classification.
 	 */
 	private ClassifyResult classify(String elementName)
 	{
-		// if (testCaseName != null)
-		// return null; // TODO: add test case creation/interactive mode
-
-		String pageSource = "", msg = "test.ai driver exception", key = null;
 		try
 		{
-			pageSource = driver.getPageSource();
+			return classifications.run(elementName + '@' + pageChanges.get(), () -> classifyNow(elementName), COALESCE_TIMEOUT, TimeUnit.MILLISECONDS);
 		}
-		catch (Throwable e)
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			return new ClassifyResult(null, null, "Interrupted while waiting for the classification of " + elementName);
+		}
+		catch (Exception e)
 		{
+			String msg = String.format("Gave up waiting for a concurrent classification of %s: %s", elementName, e);
+			log.warn(msg);
+			return new ClassifyResult(null, null, msg);
+		}
+	}
 
+	/**
+	 * Perform additional classification on an element by querying the test.ai server.
+	 * 
+	 * @param elementName The name of the element to run classification on.
+	 * @return The result of the classification.
+	 */
+	private ClassifyResult classifyNow(String elementName)
+	{
+		// if (testCaseName != null)
+		// return null; // TODO: add test case creation/interactive mode
+
+		String msg = "test.ai driver exception", key = null;
+		JsonObject r = null;
+
+		LabelPrefetcher prefetcher = this.prefetcher;
+		if (prefetcher != null)
+			try
+			{
+				prefetcher.record(driver.getCurrentUrl(), elementName);
+				r = prefetcher.take(elementName);
+			}
+			catch (Throwable e)
+			{
+				log.debug("Unable to use prefetched result for {}: {}", elementName, e.getMessage());
+			}
+
+		ElementIndex elementIndex = this.elementIndex;
+		if (r == null && elementIndex != null)
+		{
+			ClassifyResult indexed = classifyFromIndex(elementIndex, elementName);
+			if (indexed != null)
+				return indexed;
 		}
 
+		if (r != null)
+			log.debug("Using prefetched result for {}", elementName);
+
 		try
 		{
-			String screenshotBase64 = driver.getScreenshotAs(OutputType.BASE64);
-			// Files.write(Paths.get("/tmp/scnshot.png"), Base64.getMimeDecoder().decode(screenshotBase64));
-
-			JsonObject r = JsonUtils.responseAsJson(NetUtils.basicPOST(client, serverURL, "classify",
-					CollectionUtils.keyValuesToHM("screenshot", screenshotBase64, "source", pageSource, "api_key", apiKey, "label", elementName, "run_id", runID)));
+			if (r == null)
+				r = captureAndClassify(elementName, false);
 
 			key = JsonUtils.stringFromJson(r, "key");
 
 			if (JsonUtils.booleanFromJson(r, "success"))
 			{
 				log.info("Successfully classified: {}", elementName);
-				return new ClassifyResult(new TestAiElement(r.get("elem").getAsJsonObject(), this), key);
+
+				JsonObject elem = r.get("elem").getAsJsonObject();
+				lastKnownRects.put(elementName, new Rectangle((int) (JsonUtils.doubleFromJson(elem, "x") / multiplier), (int) (JsonUtils.doubleFromJson(elem, "y") / multiplier),
+						(int) (JsonUtils.doubleFromJson(elem, "height") / multiplier), (int) (JsonUtils.doubleFromJson(elem, "width") / multiplier)));
+
+				long start = System.nanoTime();
+				WebElement realElement;
+				try
+				{
+					realElement = MatchUtils.matchBoundingBoxToSeleniumElement(elem, this);
+				}
+				finally
+				{
+					stats.record(Operation.MATCH, start);
+				}
+
+				index(realElement, elementName, key);
+
+				return new ClassifyResult(new TestAiElement(elem, this, realElement), key);
 			}
 
 			String rawMsg = JsonUtils.stringFromJson(r, "message");
@@ -790,11 +1939,519 @@ public class TestAiDriver extends RemoteWebDriver
 		return new ClassifyResult(null, key, msg);
 	}
 
+	/**
+	 * Captures the page source and a screenshot, and asks test.ai to classify them. Lookups for a single element reuse the last result if the screen around the element has not changed, and
+	 * try the region of interest before the full screenshot.
+	 * 
+	 * @param elementName The name of the element(s) to run classification on.
+	 * @param multiple Set {@code true} to ask for every element matching {@code elementName}, rather than the best one.
+	 * @return The response from the test.ai API, as json.
+	 * @throws IOException Network error
+	 */
+	private JsonObject captureAndClassify(String elementName, boolean multiple) throws IOException
+	{
+		String pageSource = fetchPageSource();
+		if (Thread.currentThread().isInterrupted())
+			throw new InterruptedIOException("Interrupted while classifying " + elementName);
+
+		try (Screenshot screenshot = captureScreenshot(classifyTransport.streamingUpload()))
+		{
+			if (multiple)
+				return postClassify(elementName, screenshot, pageSource, false, "multiple", "true");
+
+			JsonObject r = reuseVisualResult(elementName, screenshot);
+			if (r == null)
+			{
+				PageSourceDelta sourceDelta = this.sourceDelta; // the page source is encoded once, even if the region of interest misses
+				Map<String, String> source = sourceDelta != null ? sourceDelta.encode(pageSource) : CollectionUtils.keyValuesToHM("source", pageSource);
+				RegionOfInterest roi = classifyRegionOfInterest(elementName, screenshot, pageSource, source, sourceDelta);
+				r = roi.result != null ? roi.result : postClassify(elementName, screenshot, roi.source, sourceDelta, false);
+			}
+
+			if (JsonUtils.booleanFromJson(r, "success"))
+				rememberVisualResult(elementName, screenshot, r);
+
+			return r;
+		}
+	}
+
+	/**
+	 * Looks up an element in the element index, and checks that it is still where it was when it was recorded.
+	 * 
+	 * @param elementIndex The element index
+	 * @param elementName The name of the element to look up
+	 * @return The result of the lookup, or {@code null} if the element is not in the index or has changed since it was recorded.
+	 */
+	private ClassifyResult classifyFromIndex(ElementIndex elementIndex, String elementName)
+	{
+		try
+		{
+			ElementIndex.Entry entry = elementIndex.get(ElementIndex.scope((List<?>) driver.executeScript(ElementIndex.SCOPE_SCRIPT), 0, multiplier), elementName);
+			if (entry == null)
+				return null;
+
+			List<?> found = (List<?>) driver.executeScript(ElementIndex.RESOLVE_SCRIPT, entry.domPath);
+			if (found == null || !entry.sameElement(ElementIndex.Entry.of(found, entry.domPath, entry.key)))
+			{
+				log.debug("The indexed element for {} has changed, ignoring it", elementName);
+				return null;
+			}
+
+			log.info("Found {} in the element index", elementName);
+
+			lastKnownRects.put(elementName, new Rectangle(entry.x, entry.y, entry.height, entry.width));
+			JsonObject elem = CollectionUtils.keyValuesToJO("x", entry.x * multiplier, "y", entry.y * multiplier, "width", entry.width * multiplier, "height", entry.height * multiplier,
+					"class", entry.tagName);
+
+			return new ClassifyResult(new TestAiElement(elem, this, (WebElement) found.get(0)), entry.key.isEmpty() ? null : entry.key);
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to look up {} in the element index: {}", elementName, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Records an element in the element index, if one is in use.
+	 * 
+	 * @param elem The element to record
+	 * @param elementName The name of the element
+	 * @param key The key assigned to the element by test.ai. This may be {@code null}.
+	 */
+	private void index(WebElement elem, String elementName, String key)
+	{
+		ElementIndex elementIndex = this.elementIndex;
+		if (elementIndex == null)
+			return;
+
+		try
+		{
+			List<?> d = (List<?>) driver.executeScript(ElementIndex.DESCRIBE_SCRIPT, elem);
+			if (d != null)
+				elementIndex.put(ElementIndex.scope(d, 6, multiplier), elementName, ElementIndex.Entry.of(d, (String) d.get(0), key));
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to record {} in the element index: {}", elementName, e.getMessage());
+		}
+	}
+
+	/**
+	 * Asks the test.ai server for every element on the page matching {@code elementName}. All returned bounding boxes are matched against a single snapshot of the page.
+	 * 
+	 * @param elementName The name of the elements to run classification on.
+	 * @return The elements which were found, or an empty {@code List} if none were found.
+	 */
+	private List<WebElement> classifyAll(String elementName)
+	{
+		List<WebElement> l = new ArrayList<>();
+		try
+		{
+			JsonObject r = captureAndClassify(elementName, true);
+			if (r == null || !JsonUtils.booleanFromJson(r, "success"))
+			{
+				log.warn("Classification failed for element_name: {}, here was the API response: {}", elementName, r);
+				return l;
+			}
+
+			List<JsonObject> boxes = new ArrayList<>();
+			if (r.has("elems"))
+				r.getAsJsonArray("elems").forEach(e -> boxes.add(e.getAsJsonObject()));
+			else
+				boxes.add(r.getAsJsonObject("elem"));
+
+			log.info("Successfully classified {} element(s) for: {}", boxes.size(), elementName);
+
+			long start = System.nanoTime();
+			List<WebElement> matches;
+			try
+			{
+				matches = MatchUtils.matchBoundingBoxesToSeleniumElements(boxes, this);
+			}
+			finally
+			{
+				stats.record(Operation.MATCH, start);
+			}
+			Set<WebElement> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+			for (int i = 0; i < boxes.size(); i++)
+				if (matches.get(i) != null && seen.add(matches.get(i)))
+					l.add(new TestAiElement(boxes.get(i), this, matches.get(i)));
+		}
+		catch (Throwable e)
+		{
+			e.printStackTrace();
+		}
+
+		return l;
+	}
+
+	/**
+	 * Reuses the last successful classification of {@code elementName} if the tiles of {@code screenshot} around the element it found have not changed since.
+	 * 
+	 * @param elementName The name of the element to run classification on.
+	 * @param screenshot The new screenshot
+	 * @return A copy of the last successful response from the test.ai API, or {@code null} if visual change detection is disabled or the area around the element has changed.
+	 */
+	private JsonObject reuseVisualResult(String elementName, Screenshot screenshot)
+	{
+		VisualResult last = visualResults.get(elementName);
+		if (tileSize <= 0 || last == null)
+			return null;
+
+		try
+		{
+			TileHashes hashes = screenshot.tileHashes(tileSize);
+			JsonObject elem = last.response.getAsJsonObject("elem");
+			if (!hashes.unchanged(last.frame, (int) JsonUtils.doubleFromJson(elem, "x"), (int) JsonUtils.doubleFromJson(elem, "y"), (int) JsonUtils.doubleFromJson(elem, "width"),
+					(int) JsonUtils.doubleFromJson(elem, "height")))
+				return null;
+
+			log.debug("The screen around {} is unchanged ({} of {} tiles changed), reusing the last classification", elementName, hashes.changed(last.frame), hashes.size());
+			stats.increment(Counter.VISUAL_REUSES);
+
+			return last.response.deepCopy();
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to compare the screenshot for {} with the last one: {}", elementName, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Records a successful classification of {@code elementName}, so that it can be reused by {@link #reuseVisualResult(String, Screenshot)} while the screen around the element is unchanged.
+	 * 
+	 * @param elementName The name of the element which was classified
+	 * @param screenshot The screenshot the element was classified with
+	 * @param r The successful response from the test.ai API
+	 */
+	private void rememberVisualResult(String elementName, Screenshot screenshot, JsonObject r)
+	{
+		if (tileSize <= 0)
+			return;
+
+		try
+		{
+			visualResults.put(elementName, new VisualResult(screenshot.tileHashes(tileSize), r.deepCopy()));
+		}
+		catch (Throwable e)
+		{
+			log.debug("Unable to hash the screenshot for {}: {}", elementName, e.getMessage());
+		}
+	}
+
+	/**
+	 * Attempts to classify {@code elementName} using only the region of {@code screenshot} surrounding the last known location of {@code elementName}. This is skipped if the page source is
+	 * sent in full and is larger than the screenshot, since a miss would upload it twice for little saving.
+	 * 
+	 * @param elementName The name of the element to run classification on.
+	 * @param screenshot The full screenshot
+	 * @param pageSource The page source to send to test.ai
+	 * @param source The form fields encoding {@code pageSource}
+	 * @param sourceDelta The encoder which produced {@code source}, or {@code null} if page sources are sent in full.
+	 * @return The outcome. Its result is the successful response from the test.ai API, with the bounding box translated to the coordinate space of {@code screenshot}, or {@code null} if
+	 *         region-of-interest mode is disabled, the location of {@code elementName} is unknown, or test.ai was unable to find {@code elementName} in the region of interest.
+	 */
+	private RegionOfInterest classifyRegionOfInterest(String elementName, Screenshot screenshot, String pageSource, Map<String, String> source, PageSourceDelta sourceDelta)
+	{
+		Rectangle last;
+		if (roiMargin < 0 || (last = lastKnownRects.get(elementName)) == null || source.containsKey("source") && !source.containsKey("source_fingerprint") && pageSource.length() > screenshot.size())
+			return new RegionOfInterest(null, source);
+
+		try
+		{
+			BufferedImage img = screenshot.image();
+			Rectangle roi = ImageUtils.regionOfInterest(last, roiMargin, multiplier, img.getWidth(), img.getHeight());
+			if (roi == null || roi.width == img.getWidth() && roi.height == img.getHeight())
+				return new RegionOfInterest(null, source);
+
+			log.debug("Classifying {} using the region of interest {}", elementName, roi);
+			stats.increment(Counter.ROI_LOOKUPS);
+
+			JsonObject r = postClassify(elementName, Screenshot.of(ImageUtils.crop(img, roi)), source, sourceDelta, false);
+			if (r != null && JsonUtils.booleanFromJson(r, "success"))
+			{
+				ImageUtils.translateBox(r.get("elem").getAsJsonObject(), roi.x, roi.y);
+				return new RegionOfInterest(r, source);
+			}
+
+			log.debug("{} was not found in the region of interest, retrying with the full screenshot", elementName);
+			stats.increment(Counter.ROI_FALLBACKS);
+
+			return new RegionOfInterest(null, r != null ? PageSourceDelta.resend(source) : source);
+		}
+		catch (Throwable e)
+		{
+			log.debug("Region-of-interest classification failed for {}: {}", elementName, e.getMessage());
+		}
+
+		stats.increment(Counter.ROI_FALLBACKS);
+		return new RegionOfInterest(null, source);
+	}
+
+	/**
+	 * Sends a screenshot and page source to the test.ai API for classification. If streaming uploads are enabled or the server advertised support for them during checkin, the screenshot is sent
+	 * as raw bytes in a multipart request, otherwise it is base64 encoded and sent as part of a form. If the server rejects a multipart request as unsupported, it is resent as a form, and forms
+	 * are used for the rest of the run, even if streaming uploads are enabled. Blocking requests are hedged if hedging is enabled.
+	 * 
+	 * @param elementName The name of the element to run classification on.
+	 * @param screenshot The screenshot to send
+	 * @param pageSource The page source to send
+	 * @param background Set {@code true} if nothing is blocked waiting on the result, so the request should yield to those which are.
+	 * @param extra Any additional form fields to send. Pass in values such that {@code [ k1, v1, k2, v2, k3, v3... ]}.
+	 * @return The response from the test.ai API, as json.
+	 * @throws IOException Network error
+	 */
+	JsonObject postClassify(String elementName, Screenshot screenshot, String pageSource, boolean background, String... extra) throws IOException
+	{
+		PageSourceDelta sourceDelta = this.sourceDelta;
+		return postClassify(elementName, screenshot, sourceDelta != null ? sourceDelta.encode(pageSource) : CollectionUtils.keyValuesToHM("source", pageSource), sourceDelta, background, extra);
+	}
+
+	/**
+	 * Sends a screenshot and an already encoded page source to the test.ai API for classification, as {@link #postClassify(String, Screenshot, String, boolean, String...)} does.
+	 * 
+	 * @param elementName The name of the element to run classification on.
+	 * @param screenshot The screenshot to send
+	 * @param source The form fields encoding the page source
+	 * @param sourceDelta The encoder which produced {@code source}, which is told the outcome of the upload, or {@code null} if page sources are sent in full.
+	 * @param background Set {@code true} if nothing is blocked waiting on the result, so the request should yield to those which are.
+	 * @param extra Any additional form fields to send. Pass in values such that {@code [ k1, v1, k2, v2, k3, v3... ]}.
+	 * @return The response from the test.ai API, as json.
+	 * @throws IOException Network error
+	 */
+	private JsonObject postClassify(String elementName, Screenshot screenshot, Map<String, String> source, PageSourceDelta sourceDelta, boolean background, String... extra)
+			throws IOException
+	{
+		HashMap<String, String> form = CollectionUtils.keyValuesToHM(extra);
+		form.putAll(CollectionUtils.keyValuesToHM("api_key", apiKey, "label", elementName, "run_id", runID));
+		form.putAll(source);
+
+		JsonObject r = null;
+		try
+		{
+			r = JsonUtils.responseAsJson(classifyTransport.send(multipart -> sendClassify(form, screenshot, multipart, background)));
+		}
+		finally
+		{
+			if (sourceDelta != null)
+				sourceDelta.uploaded(source, r != null);
+		}
+
+		return r;
+	}
+
+	/**
+	 * Sends a classify request in either transport, and counts the bytes uploaded as they are written.
+	 * 
+	 * @param form The form fields to send, not including the screenshot. This is not modified.
+	 * @param screenshot The screenshot to send
+	 * @param multipart Set {@code true} to send the screenshot as raw bytes in a multipart request, or {@code false} to send it base64 encoded in a form.
+	 * @param background Set {@code true} if nothing is blocked waiting on the result, so the request should yield to those which are.
+	 * @return The response from the server
+	 * @throws IOException Network error
+	 */
+	private Response sendClassify(Map<String, String> form, Screenshot screenshot, boolean multipart, boolean background) throws IOException
+	{
+		if (!multipart)
+		{
+			form = new HashMap<>(form);
+			form.put("screenshot", screenshot.base64());
+		}
+
+		RequestBody body = multipart ? NetUtils.multipartBody(form, Map.of("screenshot", screenshot.body())) : NetUtils.formBody(form);
+		Call call = NetUtils.newPOST(client, serverURL, "classify", NetUtils.counted(body, n -> stats.add(Counter.CLASSIFY_BYTES, n)));
+		Hedger hedger = background ? null : this.hedger;
+
+		return limitedPOST("classify", background, Operation.CLASSIFY, () -> hedger != null ? hedger.execute(call) : NetUtils.execute(call));
+	}
+
+	/**
+	 * Sends a request to a test.ai endpoint once the server's {@code ConcurrencyLimiter} admits it, and feeds the outcome back to the limiter.
+	 * 
+	 * @param endpoint The endpoint the request is sent to
+	 * @param background Set {@code true} if nothing is blocked waiting on the request, so it should yield to requests which are.
+	 * @param op The operation to record the latency of the request as, once admitted. Set {@code null} to not record the latency.
+	 * @param call Sends the request
+	 * @return The response from the server
+	 * @throws IOException Network error, or if this thread was interrupted while waiting to send the request.
+	 */
+	private Response limitedPOST(String endpoint, boolean background, Operation op, Callable<Response> call) throws IOException
+	{
+		return ConcurrencyLimiter.forServer(serverURL.toString()).execute(endpoint, background, () -> {
+			long start = System.nanoTime();
+			try
+			{
+				return call.call();
+			}
+			finally
+			{
+				if (op != null)
+					stats.record(op, start);
+			}
+		});
+	}
+
+	/**
+	 * Lets a {@link LabelPrefetcher} capture pages from this driver's browser, and classify labels with this driver's server.
+	 */
+	private class PrefetchSession implements LabelPrefetcher.Session
+	{
+		@Override
+		public String currentUrl()
+		{
+			return driver.getCurrentUrl();
+		}
+
+		@Override
+		public long epoch()
+		{
+			return pageEpoch.current();
+		}
+
+		@Override
+		public String pageSource()
+		{
+			return fetchPageSource();
+		}
+
+		@Override
+		public Screenshot screenshot()
+		{
+			return captureScreenshot(false);
+		}
+
+		@Override
+		public ExecutorService executor()
+		{
+			return TestAiDriver.this.executor();
+		}
+
+		@Override
+		public JsonObject classify(String label, Screenshot screenshot, String pageSource) throws IOException
+		{
+			return postClassify(label, screenshot, pageSource, true);
+		}
+	}
+
+	/**
+	 * The outcome of a region-of-interest lookup.
+	 */
+	private static class RegionOfInterest
+	{
+		/**
+		 * The successful response from the test.ai API, or {@code null} if the full screenshot must be sent.
+		 */
+		final JsonObject result;
+
+		/**
+		 * The form fields to send the page source with if the full screenshot must be sent
+		 */
+		final Map<String, String> source;
+
+		/**
+		 * Constructor, creates a new RegionOfInterest
+		 * 
+		 * @param result The successful response from the test.ai API, or {@code null} if the full screenshot must be sent.
+		 * @param source The form fields to send the page source with if the full screenshot must be sent
+		 */
+		RegionOfInterest(JsonObject result, Map<String, String> source)
+		{
+			this.result = result;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * Wraps a {@code Navigation} so that the page is considered changed, and prefetching is started, after each navigation.
+	 */
+	private class TrackingNavigation implements Navigation
+	{
+		/**
+		 * The {@code Navigation} being wrapped
+		 */
+		private Navigation navigation;
+
+		/**
+		 * Constructor, creates a new TrackingNavigation
+		 * 
+		 * @param navigation The {@code Navigation} to wrap
+		 */
+		TrackingNavigation(Navigation navigation)
+		{
+			this.navigation = navigation;
+		}
+
+		@Override
+		public void back()
+		{
+			navigation.back();
+			navigated();
+		}
+
+		@Override
+		public void forward()
+		{
+			navigation.forward();
+			navigated();
+		}
+
+		@Override
+		public void to(String url)
+		{
+			navigation.to(url);
+			navigated();
+		}
+
+		@Override
+		public void to(URL url)
+		{
+			navigation.to(url);
+			navigated();
+		}
+
+		@Override
+		public void refresh()
+		{
+			navigation.refresh();
+			navigated();
+		}
+	}
+
+	/**
+	 * A successful classification, along with the tile hashes of the screenshot it was made with.
+	 */
+	private static class VisualResult
+	{
+		/**
+		 * The tile hashes of the screenshot the classification was made with
+		 */
+		final TileHashes frame;
+
+		/**
+		 * The successful response from the test.ai API
+		 */
+		final JsonObject response;
+
+		/**
+		 * Constructor, creates a new VisualResult
+		 * 
+		 * @param frame The tile hashes of the screenshot the classification was made with
+		 * @param response The successful response from the test.ai API
+		 */
+		VisualResult(TileHashes frame, JsonObject response)
+		{
+			this.frame = frame;
+			this.response = response;
+		}
+	}
+
 	/**
 	 * Simple container for encapsulating results of calls to {@code classify()}.
 	 * 
 	 * @author Alexander Wu (alec@test.ai)
-	 *
+	 * 
 	 */
 	private static class ClassifyResult
 	{
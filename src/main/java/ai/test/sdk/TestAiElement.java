@@ -32,6 +32,11 @@ public class TestAiElement extends RemoteWebElement
 	 */
 	private RemoteWebDriver driver;
 
+	/**
+	 * The {@code TestAiDriver} which created this element, notified when this element is interacted with.
+	 */
+	private TestAiDriver testAiDriver;
+
 	/**
 	 * The underlying {@code WebElement} used for performing actions in the browser.
 	 */
@@ -69,11 +74,24 @@ public class TestAiElement extends RemoteWebElement
 	 * @param driver The {@code TestAiDriver} to associate with this {@code TestAiElement}.
 	 */
 	TestAiElement(JsonObject elem, TestAiDriver driver)
+	{
+		this(elem, driver, MatchUtils.matchBoundingBoxToSeleniumElement(elem, driver));
+	}
+
+	/**
+	 * Constructor, creates a new TestAiElement for an element which has already been matched to an underlying {@code WebElement}.
+	 * 
+	 * @param elem The element data returned by the FD API, as JSON
+	 * @param driver The {@code TestAiDriver} to associate with this {@code TestAiElement}.
+	 * @param realElement The underlying {@code WebElement} which {@code elem} was matched to.
+	 */
+	TestAiElement(JsonObject elem, TestAiDriver driver, WebElement realElement)
 	{
 		log.debug("Creating new TestAiElement w/ {}", elem);
 
 		this.driver = driver.driver;
-		this.realElement = MatchUtils.matchBoundingBoxToSeleniumElement(elem, driver);
+		testAiDriver = driver;
+		this.realElement = realElement;
 
 		text = JsonUtils.stringFromJson(elem, "text");
 		size = new Dimension(JsonUtils.intFromJson(elem, "width") / (int) driver.multiplier, JsonUtils.intFromJson(elem, "height") / (int) driver.multiplier);
@@ -120,6 +138,7 @@ public class TestAiElement extends RemoteWebElement
 	public void clear()
 	{
 		realElement.clear();
+		testAiDriver.invalidatePageState();
 	}
 
 	@Override
@@ -168,17 +187,20 @@ public class TestAiElement extends RemoteWebElement
 	public void click()
 	{
 		realElement.click();
+		testAiDriver.invalidatePageState();
 	}
 
 	@Override
 	public void sendKeys(CharSequence... keysToSend)
 	{
 		realElement.sendKeys(keysToSend);
+		testAiDriver.invalidatePageState();
 	}
 
 	@Override
 	public void submit()
 	{
 		realElement.submit();
+		testAiDriver.invalidatePageState();
 	}
 }
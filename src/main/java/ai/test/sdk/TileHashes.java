@@ -0,0 +1,197 @@
+package ai.test.sdk;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Perceptual hashes of the tiles of a screenshot, used to cheaply determine which parts of the screen changed between two screenshots. The screenshot is split into a grid of square tiles,
+ * and each tile is split into a grid of {@code CELLS} x {@code CELLS} cells. The hash of a tile is the mean of each color channel over each of its cells. A tile is considered changed if any
+ * of these means moved by more than {@code TOLERANCE} levels. Pixel noise of a few levels (e.g. from dithering, antialiasing, or lossy encoding) therefore does not count as a change,
+ * wherever it falls, while a change of color, or a full-contrast change to more than about 1% of the pixels of a cell (e.g. different text), does. Changes smaller than that are missed.
+ */
+final class TileHashes
+{
+	/**
+	 * The number of cells along each side of a tile
+	 */
+	private static final int CELLS = 4;
+
+	/**
+	 * The largest difference in the mean of a color channel over a cell, out of 255, for the cell to be considered unchanged.
+	 */
+	private static final int TOLERANCE = 3;
+
+	/**
+	 * The width and height of each tile, in pixels
+	 */
+	final int tileSize;
+
+	/**
+	 * The width of the screenshot, in pixels
+	 */
+	private final int width;
+
+	/**
+	 * The height of the screenshot, in pixels
+	 */
+	private final int height;
+
+	/**
+	 * The number of columns of tiles
+	 */
+	private final int cols;
+
+	/**
+	 * The number of cells along each side of a tile. This is {@code CELLS}, unless the tiles are smaller than that.
+	 */
+	private final int cells;
+
+	/**
+	 * The mean red, green, and blue of each cell, with the cells of each tile stored together, and the tiles in row-major order.
+	 */
+	private final byte[] means;
+
+	/**
+	 * Constructor, creates a new TileHashes
+	 * 
+	 * @param tileSize The width and height of each tile, in pixels
+	 * @param width The width of the screenshot, in pixels
+	 * @param height The height of the screenshot, in pixels
+	 * @param cols The number of columns of tiles
+	 * @param cells The number of cells along each side of a tile
+	 * @param means The mean red, green, and blue of each cell
+	 */
+	private TileHashes(int tileSize, int width, int height, int cols, int cells, byte[] means)
+	{
+		this.tileSize = tileSize;
+		this.width = width;
+		this.height = height;
+		this.cols = cols;
+		this.cells = cells;
+		this.means = means;
+	}
+
+	/**
+	 * Hashes the tiles of an image.
+	 * 
+	 * @param img The image to hash
+	 * @param tileSize The width and height of each tile, in pixels
+	 * @return The hashes of the tiles of {@code img}
+	 */
+	static TileHashes of(BufferedImage img, int tileSize)
+	{
+		int w = img.getWidth(), h = img.getHeight(), cols = (w + tileSize - 1) / tileSize, rows = (h + tileSize - 1) / tileSize, cells = Math.min(CELLS, tileSize);
+		int perTile = cells * cells;
+
+		// the column of cells each x falls in, relative to the start of its row of tiles
+		int[] cellOf = new int[w];
+		for (int x = 0; x < w; x++)
+			cellOf[x] = x / tileSize * perTile + x % tileSize * cells / tileSize;
+
+		int[] sums = new int[cols * rows * perTile * 3], counts = new int[cols * rows * perTile];
+		int[] row = new int[w];
+		for (int y = 0; y < h; y++)
+		{
+			img.getRGB(0, y, w, 1, row, 0, w);
+
+			int base = y / tileSize * cols * perTile + y % tileSize * cells / tileSize * cells;
+			for (int x = 0; x < w; x++)
+			{
+				int c = base + cellOf[x], rgb = row[x];
+				sums[c * 3] += rgb >> 16 & 0xff;
+				sums[c * 3 + 1] += rgb >> 8 & 0xff;
+				sums[c * 3 + 2] += rgb & 0xff;
+				counts[c]++;
+			}
+		}
+
+		byte[] means = new byte[sums.length];
+		for (int i = 0; i < sums.length; i++)
+			means[i] = (byte) (counts[i / 3] > 0 ? (sums[i] + counts[i / 3] / 2) / counts[i / 3] : 0);
+
+		return new TileHashes(tileSize, w, h, cols, cells, means);
+	}
+
+	/**
+	 * Determines if a region is unchanged since a previous screenshot. Every tile which overlaps the region must be unchanged.
+	 * 
+	 * @param previous The hashes of the previous screenshot
+	 * @param x The x coordinate of the region, in pixels
+	 * @param y The y coordinate of the region, in pixels
+	 * @param w The width of the region, in pixels
+	 * @param h The height of the region, in pixels
+	 * @return {@code true} if the region is unchanged. This is always {@code false} if the region is off screen, or if the screenshots are of different sizes or were hashed with different tile sizes.
+	 */
+	boolean unchanged(TileHashes previous, int x, int y, int w, int h)
+	{
+		if (!comparable(previous))
+			return false;
+
+		int cx = Math.max(0, x) / tileSize, cy = Math.max(0, y) / tileSize, cxx = Math.min(width - 1, x + w) / tileSize, cyy = Math.min(height - 1, y + h) / tileSize;
+		if (cx > cxx || cy > cyy) // off screen
+			return false;
+
+		for (int r = cy; r <= cyy; r++)
+			for (int c = cx; c <= cxx; c++)
+				if (!sameTile(previous, r * cols + c))
+					return false;
+
+		return true;
+	}
+
+	/**
+	 * Counts the tiles which changed since a previous screenshot.
+	 * 
+	 * @param previous The hashes of the previous screenshot
+	 * @return The number of tiles which changed, or -1 if the screenshots are of different sizes or were hashed with different tile sizes.
+	 */
+	int changed(TileHashes previous)
+	{
+		if (!comparable(previous))
+			return -1;
+
+		int n = 0;
+		for (int i = 0; i < size(); i++)
+			if (!sameTile(previous, i))
+				n++;
+
+		return n;
+	}
+
+	/**
+	 * Gets the total number of tiles.
+	 * 
+	 * @return The total number of tiles
+	 */
+	int size()
+	{
+		return means.length / (cells * cells * 3);
+	}
+
+	/**
+	 * Determines if a tile is unchanged since a previous screenshot, within {@code TOLERANCE}.
+	 * 
+	 * @param previous The hashes of the previous screenshot, which must be comparable with these.
+	 * @param tile The index of the tile, in row-major order
+	 * @return {@code true} if the tile is unchanged
+	 */
+	private boolean sameTile(TileHashes previous, int tile)
+	{
+		int n = cells * cells * 3;
+		for (int i = tile * n; i < tile * n + n; i++)
+			if (Math.abs((means[i] & 0xff) - (previous.means[i] & 0xff)) > TOLERANCE)
+				return false;
+
+		return true;
+	}
+
+	/**
+	 * Determines if the tiles of this screenshot line up with those of another.
+	 * 
+	 * @param o The hashes of the other screenshot
+	 * @return {@code true} if both screenshots are the same size and were hashed with the same tile size.
+	 */
+	private boolean comparable(TileHashes o)
+	{
+		return o != null && o.tileSize == tileSize && o.width == width && o.height == height;
+	}
+}
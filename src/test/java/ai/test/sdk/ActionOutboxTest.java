@@ -0,0 +1,210 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link ActionOutbox} sends every payload once and in order, across restarts and crashes, using a temporary directory and a stand-in sender.
+ */
+class ActionOutboxTest
+{
+	/**
+	 * The directory containing the log
+	 */
+	@TempDir
+	Path dir;
+
+	/**
+	 * Runs the senders
+	 */
+	private ExecutorService executor;
+
+	/**
+	 * The payloads sent so far, in order
+	 */
+	private final List<String> sent = new CopyOnWriteArrayList<>();
+
+	@BeforeEach
+	void start()
+	{
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@AfterEach
+	void stop()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	void sendsInOrder() throws Exception
+	{
+		ActionOutbox outbox = open();
+		for (int i = 0; i < 100; i++)
+			outbox.append("{\"a\":" + i + "}");
+		outbox.close(5000);
+
+		assertEquals(payloads(0, 100), sent);
+
+		open().close(5000); // nothing is sent twice
+		assertEquals(100, sent.size());
+	}
+
+	@Test
+	void resumesFromOffset() throws Exception
+	{
+		ActionOutbox outbox = open();
+		for (int i = 0; i < 5; i++)
+			outbox.append("{\"a\":" + i + "}");
+		outbox.close(5000);
+
+		outbox = ActionOutbox.open(dir, FsyncPolicy.NEVER, p -> false, executor); // e.g. offline
+		for (int i = 5; i < 8; i++)
+			outbox.append("{\"a\":" + i + "}");
+		outbox.close(0);
+
+		open().close(5000);
+		assertEquals(payloads(0, 8), sent);
+	}
+
+	@Test
+	void dropsTornLine() throws Exception
+	{
+		Files.writeString(segment(0), "{\"a\":0}\n{\"a\":1}\n{\"a\":"); // crashed part way through an append
+
+		ActionOutbox outbox = open();
+		outbox.append("{\"a\":2}");
+		outbox.close(5000);
+
+		assertEquals(List.of("{\"a\":0}", "{\"a\":1}", "{\"a\":2}"), sent);
+	}
+
+	@Test
+	void rollsAndDeletesSegments() throws Exception
+	{
+		String padding = "x".repeat(1000);
+
+		ActionOutbox outbox = open();
+		for (int i = 0; i < 3000; i++) // about 2.9 MiB, so three segments
+			outbox.append("{\"a\":" + i + ",\"p\":\"" + padding + "\"}");
+		outbox.close(10000);
+
+		assertEquals(3000, sent.size());
+		for (int i = 0; i < sent.size(); i++)
+			assertTrue(sent.get(i).startsWith("{\"a\":" + i + ","));
+
+		try (Stream<Path> files = Files.list(dir))
+		{
+			assertEquals(List.of(segment(2)), files.filter(f -> f.toString().endsWith(".log")).collect(Collectors.toList())); // only the one still being appended to
+		}
+	}
+
+	@Test
+	void closeWaitsForSender() throws Exception
+	{
+		ActionOutbox outbox = ActionOutbox.open(dir, FsyncPolicy.ALWAYS, p -> {
+			try
+			{
+				Thread.sleep(20); // a slow server
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return sent.add(p);
+		}, executor);
+		for (int i = 0; i < 20; i++)
+			outbox.append("{\"a\":" + i + "}");
+		outbox.close(5000);
+
+		assertEquals(payloads(0, 20), sent);
+		assertThrows(IOException.class, () -> outbox.append("{}"));
+	}
+
+	@Test
+	void lockedWhileOpen() throws Exception
+	{
+		ActionOutbox outbox = open();
+		assertThrows(IOException.class, this::open);
+
+		outbox.close();
+		open().close();
+	}
+
+	@Test
+	void setsCorruptOffsetAside() throws Exception
+	{
+		Files.writeString(segment(0), "{\"a\":1}\n{\"a\":2}\n");
+		Files.writeString(dir.resolve("outbox.offset"), "0 x17");
+
+		open().close(5000);
+
+		assertEquals(List.of("{\"a\":1}", "{\"a\":2}"), sent);
+		assertTrue(Files.exists(dir.resolve("outbox.offset.corrupt")));
+		open().close(); // the directory was unlocked
+	}
+
+	@Test
+	void unlocksAfterFailedOpen() throws Exception
+	{
+		Files.writeString(segment(0), "{\"a\":1}\n");
+		Files.writeString(dir.resolve("outbox-99999999999999999999999.log"), "");
+
+		assertThrows(RuntimeException.class, this::open);
+
+		Files.delete(dir.resolve("outbox-99999999999999999999999.log"));
+		open().close(5000);
+		assertEquals(List.of("{\"a\":1}"), sent);
+	}
+
+	/**
+	 * Opens an outbox on {@code dir}, which records payloads in {@code sent}.
+	 * 
+	 * @return The outbox
+	 * @throws IOException If the outbox could not be opened
+	 */
+	private ActionOutbox open() throws IOException
+	{
+		return ActionOutbox.open(dir, FsyncPolicy.NEVER, sent::add, executor);
+	}
+
+	/**
+	 * Creates the payloads with a range of ids.
+	 * 
+	 * @param from The first id
+	 * @param to The id after the last
+	 * @return The payloads
+	 */
+	private static List<String> payloads(int from, int to)
+	{
+		return IntStream.range(from, to).mapToObj(i -> "{\"a\":" + i + "}").collect(Collectors.toList());
+	}
+
+	/**
+	 * Gets the path to a segment of the log.
+	 * 
+	 * @param seq The sequence number of the segment
+	 * @return The path to the segment
+	 */
+	private Path segment(long seq)
+	{
+		return dir.resolve(String.format("outbox-%020d.log", seq));
+	}
+}
@@ -0,0 +1,95 @@
+package ai.test.sdk;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Measures how many bytes are allocated per lookup with and without a {@link BufferPool}, for a mix of screenshot sized arrays and streaming chunks. Run with {@code gradle benchmark}.
+ *
+ * <p>
+ * Set {@code -Dbench.bufferPool.lookups=<n>} to change the number of lookups simulated. Screenshots alternate between a few viewport sizes, as they do when tests resize the browser.
+ * </p>
+ */
+@Tag("benchmark")
+class BufferPoolBenchmark
+{
+	/**
+	 * The sizes of the screenshots, in bytes
+	 */
+	private static final int[] SCREENSHOT_SIZES = { 900 * 1024, 2 * 1024 * 1024 + 12345, 3 * 1024 * 1024 + 678 };
+
+	/**
+	 * The number of streaming chunks used per lookup
+	 */
+	private static final int CHUNKS = 4;
+
+	@Test
+	void allocations()
+	{
+		int lookups = Integer.getInteger("bench.bufferPool.lookups", 2000);
+		ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+		long fresh = allocated(threads, lookups, null), pooled = allocated(threads, lookups, new BufferPool(64L * 1024 * 1024));
+
+		System.out.printf("buffer pool: %d lookups, %.1f KiB allocated per lookup without the pool, %.1f KiB with it%n", lookups, fresh / 1024.0 / lookups, pooled / 1024.0 / lookups);
+	}
+
+	/**
+	 * Simulates lookups, and measures the bytes allocated by them.
+	 * 
+	 * @param threads Used to measure allocations
+	 * @param lookups The number of lookups to simulate
+	 * @param pool The pool to take arrays from, or {@code null} to allocate fresh arrays.
+	 * @return The number of bytes allocated by this thread during the lookups
+	 */
+	private static long allocated(ThreadMXBean threads, int lookups, BufferPool pool)
+	{
+		Random r = new Random(1);
+		long sum = 0, start = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		for (int i = 0; i < lookups; i++)
+		{
+			byte[] screenshot = take(pool, SCREENSHOT_SIZES[r.nextInt(SCREENSHOT_SIZES.length)]);
+			for (int k = 0; k < CHUNKS; k++)
+			{
+				byte[] chunk = take(pool, BufferPool.CHUNK_SIZE);
+				chunk[k] = screenshot[k];
+				sum += chunk[k];
+				give(pool, chunk);
+			}
+
+			give(pool, screenshot);
+		}
+
+		long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - start;
+		return sum == Long.MIN_VALUE ? 0 : allocated; // uses the arrays, so that their allocation is not optimized away
+	}
+
+	/**
+	 * Takes an array from a pool, or allocates one.
+	 * 
+	 * @param pool The pool, or {@code null} to allocate.
+	 * @param size The size of the array
+	 * @return The array
+	 */
+	private static byte[] take(BufferPool pool, int size)
+	{
+		return pool != null ? pool.acquire(size) : new byte[size];
+	}
+
+	/**
+	 * Returns an array to a pool, if there is one.
+	 * 
+	 * @param pool The pool, or {@code null}
+	 * @param b The array
+	 */
+	private static void give(BufferPool pool, byte[] b)
+	{
+		if (pool != null)
+			pool.release(b);
+	}
+}
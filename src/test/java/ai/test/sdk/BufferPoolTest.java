@@ -0,0 +1,38 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link BufferPool} serves each request from the right size class.
+ */
+class BufferPoolTest
+{
+	@Test
+	void chunksDoNotTakeLargeArrays()
+	{
+		BufferPool pool = new BufferPool(64L * 1024 * 1024);
+		byte[] large = pool.acquire(3 * 1024 * 1024);
+		pool.release(large);
+
+		assertEquals(BufferPool.CHUNK_SIZE, pool.acquire(100).length);
+		assertSame(large, pool.acquire(3 * 1024 * 1024 - 5));
+	}
+
+	@Test
+	void largeArraysFitBest()
+	{
+		BufferPool pool = new BufferPool(64L * 1024 * 1024);
+		byte[] small = pool.acquire(1024 * 1024), medium = pool.acquire(2 * 1024 * 1024), huge = pool.acquire(8 * 1024 * 1024);
+		pool.release(huge);
+		pool.release(medium);
+		pool.release(small);
+
+		assertSame(medium, pool.acquire(2 * 1024 * 1024 - BufferPool.CHUNK_SIZE));
+		assertSame(small, pool.acquire(900 * 1024));
+		assertNotSame(huge, pool.acquire(4 * 1024 * 1024));
+	}
+}
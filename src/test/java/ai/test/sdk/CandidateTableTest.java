@@ -0,0 +1,195 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DesiredCapabilities;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.ErrorCodes;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.RemoteWebElement;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.SessionId;
+
+/**
+ * Checks that querying elements in parallel through the {@code CommandExecutor} builds the same {@link CandidateTable} as querying them one at a time through selenium.
+ */
+class CandidateTableTest
+{
+	/**
+	 * Runs the parallel queries
+	 */
+	private final ExecutorService pool = Executors.newFixedThreadPool(4);
+
+	/**
+	 * Answers element commands for a page of {@code count} elements, in place of a browser. Element {@code i} is at ({@code i}, {@code 2i}), has no area if {@code i} is a multiple of 5, and
+	 * is a {@code DIV} otherwise.
+	 */
+	private static class FakeBrowser implements CommandExecutor
+	{
+		/**
+		 * The element which is stale, or -1 if none are
+		 */
+		int stale = -1;
+
+		/**
+		 * The element whose queries fail, or -1 if none do
+		 */
+		int broken = -1;
+
+		/**
+		 * The number of element commands received
+		 */
+		final AtomicInteger commands = new AtomicInteger();
+
+		@Override
+		public Response execute(Command command) throws IOException
+		{
+			Response r = new Response(new SessionId("session"));
+			r.setStatus(ErrorCodes.SUCCESS);
+			if (DriverCommand.NEW_SESSION.equals(command.getName()))
+			{
+				r.setValue(new HashMap<String, Object>());
+				return r;
+			}
+
+			commands.incrementAndGet();
+			try
+			{
+				Thread.sleep(ThreadLocalRandom.current().nextInt(2)); // so parallel queries finish out of order
+			}
+			catch (InterruptedException e)
+			{
+				throw new IOException(e);
+			}
+
+			int i = Integer.parseInt(String.valueOf(command.getParameters().get("id")));
+			if (i == broken)
+				throw new IOException("connection reset");
+			if (i == stale)
+			{
+				r.setStatus(ErrorCodes.STALE_ELEMENT_REFERENCE);
+				r.setValue(Map.of("message", "stale element reference"));
+			}
+			else if (DriverCommand.GET_ELEMENT_RECT.equals(command.getName()))
+				r.setValue(Map.of("x", (long) i, "y", 2L * i, "width", i % 5 == 0 ? 0L : 10L, "height", 20L));
+			else if (DriverCommand.GET_ELEMENT_TAG_NAME.equals(command.getName()))
+				r.setValue("DIV");
+			else
+				throw new UnsupportedOperationException(command.getName());
+
+			return r;
+		}
+	}
+
+	@AfterEach
+	void stop()
+	{
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Creates the elements of a page.
+	 * 
+	 * @param driver The driver of the page
+	 * @param count The number of elements
+	 * @return The elements, in document order
+	 */
+	private static List<WebElement> elements(RemoteWebDriver driver, int count)
+	{
+		List<WebElement> elements = new ArrayList<>();
+		for (int i = 0; i < count; i++)
+		{
+			RemoteWebElement e = new RemoteWebElement();
+			e.setParent(driver);
+			e.setId(String.valueOf(i));
+			elements.add(e);
+		}
+
+		return elements;
+	}
+
+	/**
+	 * Checks that two tables hold the same elements, in the same order, with the same properties.
+	 * 
+	 * @param expected The table built one element at a time
+	 * @param actual The table built in parallel
+	 */
+	private static void assertSameTable(CandidateTable expected, CandidateTable actual)
+	{
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++)
+			assertSame(expected.element(i), actual.element(i));
+
+		assertEquals(expected.toJson(), actual.toJson());
+	}
+
+	@Test
+	void parallelMatchesSequential()
+	{
+		FakeBrowser browser = new FakeBrowser();
+		RemoteWebDriver driver = new RemoteWebDriver(browser, new DesiredCapabilities());
+		List<WebElement> elements = elements(driver, 60);
+
+		CandidateTable sequential = CandidateTable.fromElements(elements);
+		int sent = browser.commands.getAndSet(0);
+		CandidateTable parallel = CandidateTable.fromElements(driver, elements, 4, pool);
+
+		assertSameTable(sequential, parallel);
+		assertEquals(sent, browser.commands.get()); // no tag names fetched for elements with no area
+		assertEquals(7, parallel.x(7));
+		assertEquals(14, parallel.y(7));
+		assertEquals("div", parallel.tagName(7));
+		assertNull(parallel.tagName(10));
+	}
+
+	@Test
+	void excludesStaleElements()
+	{
+		FakeBrowser browser = new FakeBrowser();
+		RemoteWebDriver driver = new RemoteWebDriver(browser, new DesiredCapabilities());
+		List<WebElement> elements = elements(driver, 20);
+		browser.stale = 7;
+
+		CandidateTable sequential = CandidateTable.fromElements(elements), parallel = CandidateTable.fromElements(driver, elements, 4, pool);
+
+		assertSameTable(sequential, parallel);
+		assertEquals(0, parallel.width(7));
+		assertNull(parallel.tagName(7));
+		assertEquals("div", parallel.tagName(8));
+	}
+
+	@Test
+	void stopsOnFailure()
+	{
+		FakeBrowser browser = new FakeBrowser();
+		RemoteWebDriver driver = new RemoteWebDriver(browser, new DesiredCapabilities());
+		List<WebElement> elements = elements(driver, 500);
+		browser.broken = 3;
+
+		assertThrows(WebDriverException.class, () -> CandidateTable.fromElements(elements));
+		browser.commands.set(0);
+
+		assertThrows(WebDriverException.class, () -> CandidateTable.fromElements(driver, elements, 4, pool));
+		assertTrue(browser.commands.get() < 50, browser.commands + " commands sent after the failure");
+	}
+}
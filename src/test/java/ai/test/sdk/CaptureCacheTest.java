@@ -0,0 +1,200 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.TakesScreenshot;
+
+import ai.test.sdk.PageEpochTest.FakePage;
+
+/**
+ * Checks when {@link CaptureCache} reuses a capture, and that it releases the screenshots it holds.
+ */
+class CaptureCacheTest
+{
+	/**
+	 * The page the cache is validated against
+	 */
+	private final FakePage page = new FakePage();
+
+	/**
+	 * Collects the cache hits
+	 */
+	private final PerformanceStats stats = new PerformanceStats();
+
+	/**
+	 * Takes the screenshots
+	 */
+	private final FakeCamera camera = new FakeCamera();
+
+	/**
+	 * Stands in for the browser, returning the same small PNG for every screenshot.
+	 */
+	private static class FakeCamera implements TakesScreenshot
+	{
+		/**
+		 * The PNG returned, encoded as base64
+		 */
+		private final String png;
+
+		/**
+		 * The files written for screenshots captured as {@code OutputType.FILE}
+		 */
+		final List<File> files = new ArrayList<>();
+
+		/**
+		 * Constructor, creates a new FakeCamera
+		 */
+		FakeCamera()
+		{
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try
+			{
+				ImageIO.write(new BufferedImage(8, 8, BufferedImage.TYPE_INT_RGB), "png", out);
+			}
+			catch (IOException e)
+			{
+				throw new IllegalStateException(e);
+			}
+
+			png = Base64.getEncoder().encodeToString(out.toByteArray());
+		}
+
+		@Override
+		public <X> X getScreenshotAs(OutputType<X> target)
+		{
+			X x = target.convertFromBase64Png(png);
+			if (x instanceof File)
+				files.add((File) x);
+
+			return x;
+		}
+	}
+
+	/**
+	 * Creates a cache over {@code page}.
+	 * 
+	 * @param raw Set {@code true} if screenshots are sent as raw bytes
+	 * @param maxAgeMillis The maximum age of a cached screenshot, in milliseconds
+	 * @return The new cache
+	 */
+	private CaptureCache cache(boolean raw, long maxAgeMillis)
+	{
+		return new CaptureCache(new PageEpoch(page), stats, () -> raw, maxAgeMillis);
+	}
+
+	/**
+	 * Gets the number of cache hits so far.
+	 * 
+	 * @return The number of cache hits
+	 */
+	private long hits()
+	{
+		return stats.report().getAsJsonObject("counts").get("capture_hits").getAsLong();
+	}
+
+	@Test
+	void reusesUntilPageChanges()
+	{
+		CaptureCache cache = cache(false, 60_000);
+		AtomicInteger fetches = new AtomicInteger();
+
+		Screenshot s = cache.screenshot(() -> Screenshot.capture(camera, false), false);
+		assertSame(s, cache.screenshot(() -> Screenshot.capture(camera, false), false));
+		assertEquals("a0", cache.pageSource(() -> "a" + fetches.getAndIncrement()));
+		assertEquals("a0", cache.pageSource(() -> "a" + fetches.getAndIncrement()));
+		assertEquals(2, hits());
+
+		page.mutate();
+		assertNotSame(s, cache.screenshot(() -> Screenshot.capture(camera, false), false));
+		assertEquals("a1", cache.pageSource(() -> "a" + fetches.getAndIncrement()));
+
+		page.navigate();
+		assertEquals("a2", cache.pageSource(() -> "a" + fetches.getAndIncrement()));
+
+		page.failing = true; // every lookup misses
+		assertEquals("a3", cache.pageSource(() -> "a" + fetches.getAndIncrement()));
+		assertEquals("a4", cache.pageSource(() -> "a" + fetches.getAndIncrement()));
+		assertEquals(2, hits());
+	}
+
+	@Test
+	void expiresScreenshots() throws InterruptedException
+	{
+		CaptureCache cache = cache(false, 50);
+
+		Screenshot s = cache.screenshot(() -> Screenshot.capture(camera, false), false);
+		assertSame(s, cache.screenshot(() -> Screenshot.capture(camera, false), false));
+
+		Thread.sleep(100);
+		assertNotSame(s, cache.screenshot(() -> Screenshot.capture(camera, false), false));
+	}
+
+	@Test
+	void capturesFileForFileRequest()
+	{
+		CaptureCache cache = cache(false, 60_000);
+
+		Screenshot heap = cache.screenshot(() -> Screenshot.capture(camera, false), false);
+		assertFalse(heap.inFile());
+
+		Screenshot file = cache.screenshot(() -> Screenshot.capture(camera, true), true);
+		assertNotSame(heap, file);
+		assertTrue(file.inFile());
+
+		assertSame(file, cache.screenshot(() -> Screenshot.capture(camera, false), false)); // a file serves either
+		assertSame(file, cache.screenshot(() -> Screenshot.capture(camera, true), true));
+	}
+
+	@Test
+	void decodesRawScreenshots() throws IOException
+	{
+		CaptureCache cache = cache(true, 60_000);
+
+		Screenshot captured = Screenshot.capture(camera, false);
+		Screenshot s = cache.screenshot(() -> captured, false);
+		assertNotSame(captured, s);
+		assertEquals(captured.base64(), s.base64());
+		assertEquals(8, s.width());
+	}
+
+	@Test
+	void releasesScreenshots()
+	{
+		CaptureCache cache = cache(false, 60_000);
+
+		cache.screenshot(() -> Screenshot.capture(camera, true), true).close();
+		File first = camera.files.get(0);
+		assertTrue(first.exists()); // still held by the cache
+
+		cache.screenshot(() -> Screenshot.capture(camera, true), true).close(); // a hit
+		assertEquals(1, camera.files.size());
+		assertTrue(first.exists());
+
+		page.mutate();
+		Screenshot s = cache.screenshot(() -> Screenshot.capture(camera, true), true);
+		File second = camera.files.get(1);
+		assertFalse(first.exists()); // replaced
+
+		cache.invalidate();
+		assertTrue(second.exists()); // still held by the caller
+		s.close();
+		assertFalse(second.exists());
+	}
+}
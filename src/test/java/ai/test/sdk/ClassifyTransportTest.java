@@ -0,0 +1,134 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+
+/**
+ * Checks that {@link ClassifyTransport} negotiates multipart classify requests with a local stand-in server, and falls back to forms for good once the server rejects them.
+ */
+class ClassifyTransportTest
+{
+	/**
+	 * The stand-in server
+	 */
+	private MockWebServer server;
+
+	/**
+	 * The client to send requests with
+	 */
+	private OkHttpClient client;
+
+	@BeforeEach
+	void start() throws Exception
+	{
+		server = new MockWebServer();
+		server.start();
+		client = NetUtils.basicClient().build();
+	}
+
+	@AfterEach
+	void stop() throws Exception
+	{
+		client.dispatcher().executorService().shutdownNow();
+		server.shutdown();
+	}
+
+	@Test
+	void usesAdvertisedMultipart() throws Exception
+	{
+		ClassifyTransport t = checkin("{\"success\": true, \"classify_formats\": [\"form\", \"multipart\"]}");
+		assertTrue(t.multipart());
+
+		classify(t, new MockResponse().setBody("{}"));
+		assertTrue(contentType().startsWith("multipart/form-data"));
+	}
+
+	@Test
+	void usesFormsUnlessAdvertised() throws Exception
+	{
+		ClassifyTransport t = checkin("{\"success\": true}");
+		assertFalse(t.multipart());
+
+		classify(t, new MockResponse().setBody("{}"));
+		assertTrue(contentType().startsWith("application/x-www-form-urlencoded"));
+	}
+
+	@Test
+	void fallsBackToFormsForGood() throws Exception
+	{
+		ClassifyTransport t = checkin("{\"success\": true, \"classify_formats\": [\"multipart\"]}").setStreamingUpload(true);
+
+		classify(t, new MockResponse().setResponseCode(415), new MockResponse().setBody("{}"));
+		assertTrue(contentType().startsWith("multipart/form-data"));
+		assertTrue(contentType().startsWith("application/x-www-form-urlencoded"));
+		assertFalse(t.multipart());
+
+		classify(t, new MockResponse().setBody("{}"));
+		assertTrue(contentType().startsWith("application/x-www-form-urlencoded"));
+		assertEquals(4, server.getRequestCount()); // checkin, the rejected request, and one form per classify
+	}
+
+	/**
+	 * Checks in with the stand-in server.
+	 * 
+	 * @param response The body of the server's response to checkin
+	 * @return A transport configured from the response
+	 * @throws Exception If the request failed
+	 */
+	private ClassifyTransport checkin(String response) throws Exception
+	{
+		server.enqueue(new MockResponse().setBody(response));
+
+		ClassifyTransport t = new ClassifyTransport();
+		t.checkin(JsonUtils.responseAsJson(NetUtils.basicPOST(client, server.url("/"), "sdk_checkin", "{}")));
+		server.takeRequest();
+
+		return t;
+	}
+
+	/**
+	 * Sends a classify request with a small screenshot, and checks that it succeeds.
+	 * 
+	 * @param t The transport to send the request with
+	 * @param responses The responses the stand-in server should send, in order
+	 * @throws Exception If the request failed
+	 */
+	private void classify(ClassifyTransport t, MockResponse... responses) throws Exception
+	{
+		for (MockResponse r : responses)
+			server.enqueue(r);
+
+		try (Screenshot screenshot = Screenshot.of(new byte[] { 1, 2, 3 }); Response r = t.send(multipart -> {
+			RequestBody body = multipart ? NetUtils.multipartBody(Map.of("label", "x"), Map.of("screenshot", screenshot.body()))
+					: NetUtils.formBody(Map.of("label", "x", "screenshot", screenshot.base64()));
+			return NetUtils.execute(NetUtils.newPOST(client, server.url("/"), "classify", body));
+		}))
+		{
+			assertEquals(200, r.code());
+		}
+	}
+
+	/**
+	 * Takes the next request received by the stand-in server.
+	 * 
+	 * @return The {@code Content-Type} of the request
+	 * @throws Exception If interrupted
+	 */
+	private String contentType() throws Exception
+	{
+		return server.takeRequest().getHeader("Content-Type");
+	}
+}
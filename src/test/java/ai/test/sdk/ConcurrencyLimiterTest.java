@@ -0,0 +1,205 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Checks the admission order and limit adjustments of {@link ConcurrencyLimiter}.
+ */
+class ConcurrencyLimiterTest
+{
+	/**
+	 * One millisecond, in nanoseconds
+	 */
+	private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+	/**
+	 * Starts a thread which waits to be admitted by a limiter, records its name once it is, and releases its slot. The slot is released as overloaded, so that a limit of 1 stays at 1 and
+	 * waiters are admitted one at a time.
+	 * 
+	 * @param limiter The limiter
+	 * @param name The name to record
+	 * @param background Set {@code true} to wait as a background request
+	 * @param admitted The names of the threads admitted so far
+	 * @return The thread
+	 * @throws InterruptedException If this thread was interrupted
+	 */
+	private static Thread waiter(ConcurrencyLimiter limiter, String name, boolean background, List<String> admitted) throws InterruptedException
+	{
+		Thread t = new Thread(() -> {
+			try
+			{
+				limiter.acquire(background);
+				admitted.add(name);
+				limiter.release("classify", MS, true);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		});
+		t.start();
+
+		while (t.getState() != Thread.State.WAITING) // queued
+			Thread.sleep(5);
+
+		return t;
+	}
+
+	@Test
+	void blockingBeforeBackground() throws Exception
+	{
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(1);
+		limiter.acquire(false);
+
+		List<String> admitted = new CopyOnWriteArrayList<>();
+		Thread b1 = waiter(limiter, "add_action", true, admitted);
+		Thread b2 = waiter(limiter, "prefetch", true, admitted);
+		Thread f1 = waiter(limiter, "lookup 1", false, admitted);
+		Thread f2 = waiter(limiter, "lookup 2", false, admitted);
+
+		limiter.release("classify", MS, true);
+		for (Thread t : new Thread[] { b1, b2, f1, f2 })
+			t.join(5000);
+
+		assertEquals(List.of("lookup 1", "lookup 2", "add_action", "prefetch"), admitted);
+	}
+
+	@Test
+	void mixedPayloadsDoNotShrinkLimit() throws Exception
+	{
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+		for (int i = 0; i < 2000; i++)
+		{
+			limiter.acquire(false);
+			limiter.release("classify", (i % 3 == 0 ? 900 : 40) * MS, false); // large and small uploads
+			limiter.acquire(true);
+			limiter.release("add_action", 5 * MS, false);
+		}
+
+		assertTrue(limiter.limit() >= 16, "limit fell to " + limiter.limit());
+	}
+
+	@Test
+	void queueingShrinksLimit() throws Exception
+	{
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+		for (int i = 0; i < 256; i++)
+		{
+			limiter.acquire(false);
+			limiter.release("classify", 100 * MS, false);
+		}
+
+		int before = limiter.limit();
+		for (int i = 0; i < 64; i++)
+		{
+			limiter.acquire(false);
+			limiter.release("classify", 400 * MS, false);
+		}
+
+		assertTrue(limiter.limit() < before / 2, before + " -> " + limiter.limit());
+	}
+
+	@Test
+	void overloadHalvesLimit() throws Exception
+	{
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+		limiter.acquire(false);
+		limiter.release("classify", MS, true);
+
+		assertEquals(8, limiter.limit());
+	}
+
+	@Test
+	void onlyServerFailuresShrinkLimit() throws Exception
+	{
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+		limiter.execute("classify", false, () -> response(200));
+		assertThrows(InterruptedIOException.class, () -> limiter.execute("classify", false, () -> {
+			throw new InterruptedIOException("interrupted");
+		}));
+		assertThrows(IOException.class, () -> limiter.execute("classify", false, () -> {
+			throw new IOException("Canceled");
+		}));
+		assertEquals(16, limiter.limit());
+
+		limiter.execute("classify", false, () -> response(503));
+		assertEquals(8, limiter.limit());
+		assertThrows(SocketTimeoutException.class, () -> limiter.execute("classify", false, () -> {
+			throw new SocketTimeoutException("timeout");
+		}));
+		assertEquals(4, limiter.limit());
+		assertThrows(ConnectException.class, () -> limiter.execute("classify", false, () -> {
+			throw new ConnectException("refused");
+		}));
+		assertEquals(2, limiter.limit());
+	}
+
+	@Test
+	void cancellingRequestsKeepsLimit() throws Exception
+	{
+		ConcurrencyLimiter limiter = new ConcurrencyLimiter(16);
+		ExecutorService pool = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<Response>> prefetches = new CopyOnWriteArrayList<>();
+			for (int i = 0; i < 8; i++)
+				prefetches.add(pool.submit(() -> limiter.execute("classify", true, () -> {
+					try
+					{
+						Thread.sleep(10_000);
+					}
+					catch (InterruptedException e)
+					{
+						throw new InterruptedIOException("interrupted");
+					}
+
+					return response(200);
+				})));
+
+			Thread.sleep(200);
+			for (Future<Response> f : prefetches)
+				f.cancel(true); // as a navigation does
+
+			pool.shutdown();
+			assertTrue(pool.awaitTermination(5, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			pool.shutdownNow();
+		}
+
+		assertEquals(16, limiter.limit());
+		for (int i = 0; i < 16; i++) // every slot was given back
+			limiter.acquire(false);
+	}
+
+	/**
+	 * Creates a response to an empty request.
+	 * 
+	 * @param code The status code of the response
+	 * @return The response
+	 */
+	private static Response response(int code)
+	{
+		return new Response.Builder().request(new Request.Builder().url("http://localhost/").build()).protocol(Protocol.HTTP_1_1).code(code).message("").build();
+	}
+}
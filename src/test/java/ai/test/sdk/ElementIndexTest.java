@@ -0,0 +1,138 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import ai.test.sdk.ElementIndex.Entry;
+
+/**
+ * Writes to and reads back from {@link ElementIndex} files, including files shared by several indexes.
+ */
+class ElementIndexTest
+{
+	/**
+	 * Creates an Entry.
+	 * 
+	 * @param i Distinguishes the Entry
+	 * @return The Entry
+	 */
+	private static Entry entry(int i)
+	{
+		return new Entry(i, i + 1, 100, 20, "button", "/*[local-name()=\"html\"][1]/*[local-name()=\"button\"][" + i + "]", "key" + i);
+	}
+
+	/**
+	 * Asserts that two Entries are equal.
+	 * 
+	 * @param expected The expected Entry
+	 * @param actual The actual Entry
+	 */
+	private static void assertEntry(Entry expected, Entry actual)
+	{
+		assertEquals(expected.x, actual.x);
+		assertEquals(expected.y, actual.y);
+		assertEquals(expected.tagName, actual.tagName);
+		assertEquals(expected.domPath, actual.domPath);
+		assertEquals(expected.key, actual.key);
+	}
+
+	/**
+	 * Opening an index which is already open writes no second header, and each index picks up the other's records before appending its own.
+	 * 
+	 * @param dir A temporary directory
+	 * @throws IOException If the index could not be read or written
+	 */
+	@Test
+	void sharedFile(@TempDir Path dir) throws IOException
+	{
+		Path path = dir.resolve("elements.idx");
+		try (ElementIndex a = ElementIndex.open(path); ElementIndex b = ElementIndex.open(path))
+		{
+			a.put("scope", "cart", entry(1));
+			b.put("scope", "checkout", entry(2));
+			a.put("scope", "search", entry(3));
+
+			assertEntry(entry(1), b.get("scope", "cart"));
+			assertEntry(entry(2), a.get("scope", "checkout"));
+		}
+
+		try (ElementIndex c = ElementIndex.open(path))
+		{
+			assertEntry(entry(1), c.get("scope", "cart"));
+			assertEntry(entry(2), c.get("scope", "checkout"));
+			assertEntry(entry(3), c.get("scope", "search"));
+			assertNull(c.get("scope", "login"));
+		}
+	}
+
+	/**
+	 * Records written past the initial mapping, and across compactions, are all read back.
+	 * 
+	 * @param dir A temporary directory
+	 * @throws IOException If the index could not be read or written
+	 */
+	@Test
+	void growsMapping(@TempDir Path dir) throws IOException
+	{
+		Path path = dir.resolve("elements.idx");
+		try (ElementIndex index = ElementIndex.open(path))
+		{
+			for (int i = 0; i < 2000; i++)
+				index.put("scope", "label" + i % 50, entry(i));
+		}
+
+		try (ElementIndex index = ElementIndex.open(path))
+		{
+			for (int i = 1950; i < 2000; i++)
+				assertEntry(entry(i), index.get("scope", "label" + i % 50));
+		}
+	}
+
+	/**
+	 * A record left incomplete by a crashed writer is ignored, and overwritten by the next record.
+	 * 
+	 * @param dir A temporary directory
+	 * @throws IOException If the index could not be read or written
+	 */
+	@Test
+	void incompleteRecord(@TempDir Path dir) throws IOException
+	{
+		Path path = dir.resolve("elements.idx");
+		try (ElementIndex index = ElementIndex.open(path))
+		{
+			index.put("scope", "cart", entry(1));
+		}
+
+		ByteBuffer partial = ByteBuffer.allocate(512);
+		partial.putInt(0, 0); // the length is written last, so it is still zero
+		for (int i = 4; i < partial.capacity(); i++)
+			partial.put(i, (byte) 0x7f);
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+		{
+			channel.write(partial);
+		}
+
+		try (ElementIndex index = ElementIndex.open(path))
+		{
+			assertEntry(entry(1), index.get("scope", "cart"));
+			assertNull(index.get("scope", "checkout"));
+			index.put("scope", "checkout", entry(2));
+		}
+
+		try (ElementIndex index = ElementIndex.open(path))
+		{
+			assertEntry(entry(1), index.get("scope", "cart"));
+			assertEntry(entry(2), index.get("scope", "checkout"));
+		}
+	}
+}
@@ -0,0 +1,103 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.Point;
+import org.openqa.selenium.Rectangle;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.interactions.Coordinates;
+import org.openqa.selenium.interactions.Locatable;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Checks that {@link FramedWebElement} enters its frame from the top-level browsing context on every call, and translates locations into page coordinates.
+ */
+class FramedWebElementTest
+{
+	/**
+	 * A driver which records frame switches instead of sending them to a browser.
+	 */
+	private static class RecordingDriver extends RemoteWebDriver
+	{
+		/**
+		 * The frame switches performed, in order
+		 */
+		final List<String> switches = new ArrayList<>();
+
+		@Override
+		public TargetLocator switchTo()
+		{
+			return (TargetLocator) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { TargetLocator.class }, (proxy, m, args) -> {
+				switches.add(m.getName() + (args != null ? args[0] : ""));
+				return m.getReturnType() == WebDriver.class ? this : null;
+			});
+		}
+	}
+
+	/**
+	 * Creates a stand-in for an element.
+	 * 
+	 * @param name The name of the element, returned by {@code toString()}
+	 * @param driver The driver, whose frame switches are recorded when the element is used
+	 * @return The element
+	 */
+	private static WebElement element(String name, RecordingDriver driver)
+	{
+		Coordinates c = (Coordinates) Proxy.newProxyInstance(FramedWebElementTest.class.getClassLoader(), new Class<?>[] { Coordinates.class }, (proxy, m, args) -> {
+			driver.switches.add(name + "." + m.getName());
+			return m.getName().equals("getAuxiliary") ? name : new Point(1, 2);
+		});
+
+		return (WebElement) Proxy.newProxyInstance(FramedWebElementTest.class.getClassLoader(), new Class<?>[] { WebElement.class, Locatable.class }, (proxy, m, args) -> {
+			switch (m.getName())
+			{
+				case "toString":
+					return name;
+				case "getCoordinates":
+					return c;
+				case "getRect":
+					driver.switches.add(name + ".getRect");
+					return new Rectangle(1, 2, 30, 40);
+				default:
+					driver.switches.add(name + "." + m.getName());
+					return null;
+			}
+		});
+	}
+
+	@Test
+	void entersFrameFromTopLevelOnEveryCall()
+	{
+		RecordingDriver driver = new RecordingDriver();
+		WebElement outer = element("outer", driver), inner = element("inner", driver), e = element("e", driver);
+
+		FramedWebElement f = new FramedWebElement(driver, e, List.of(outer, inner), 100, 200);
+		f.click();
+
+		assertEquals(List.of("defaultContent", "frameouter", "frameinner", "e.click", "defaultContent"), driver.switches);
+	}
+
+	@Test
+	void translatesLocations()
+	{
+		RecordingDriver driver = new RecordingDriver();
+		WebElement e = element("e", driver);
+
+		FramedWebElement f = new FramedWebElement(driver, e, List.of(element("frame", driver)), 100, 200);
+		assertEquals(new Rectangle(101, 202, 30, 40), f.getRect());
+		assertEquals(new Point(101, 202), f.getCoordinates().onPage());
+		assertEquals("e", f.getCoordinates().getAuxiliary());
+		assertSame(e, f.getWrappedElement());
+
+		driver.switches.clear();
+		f.getCoordinates().inViewPort();
+		assertEquals(List.of("defaultContent", "frameframe", "defaultContent", "defaultContent", "frameframe", "e.inViewPort", "defaultContent"), driver.switches);
+	}
+}
@@ -0,0 +1,108 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.lang.reflect.Proxy;
+
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.WebElement;
+
+import ai.test.sdk.PageEpochTest.FakePage;
+
+/**
+ * Checks that {@link HandleCache} evicts the least recently used element, and never hands out an element found before the page last changed.
+ */
+class HandleCacheTest
+{
+	/**
+	 * Creates a stand-in for an element.
+	 * 
+	 * @param name The name of the element, returned by {@code toString()}
+	 * @return The element
+	 */
+	private static WebElement element(String name)
+	{
+		return (WebElement) Proxy.newProxyInstance(HandleCacheTest.class.getClassLoader(), new Class<?>[] { WebElement.class }, (proxy, m, args) -> {
+			if (m.getName().equals("toString"))
+				return name;
+			if (m.getName().equals("equals"))
+				return proxy == args[0];
+			if (m.getName().equals("hashCode"))
+				return System.identityHashCode(proxy);
+
+			throw new UnsupportedOperationException(m.getName());
+		});
+	}
+
+	@Test
+	void evictsLeastRecentlyUsed()
+	{
+		HandleCache cache = new HandleCache(2);
+		WebElement a = element("a"), b = element("b"), c = element("c");
+
+		cache.put("id", "a", "a", 1, a);
+		cache.put("id", "b", "b", 1, b);
+		assertSame(a, cache.get("id", "a", "a", 1)); // b is now the least recently used
+
+		cache.put("id", "c", "c", 1, c);
+		assertNull(cache.get("id", "b", "b", 1));
+		assertSame(a, cache.get("id", "a", "a", 1));
+		assertSame(c, cache.get("id", "c", "c", 1));
+	}
+
+	@Test
+	void keysByStrategyTermAndName()
+	{
+		HandleCache cache = new HandleCache(10);
+		WebElement a = element("a");
+
+		cache.put("id", "login", "button", 1, a);
+		assertSame(a, cache.get("id", "login", "button", 1));
+		assertNull(cache.get("name", "login", "button", 1));
+		assertNull(cache.get("id", "logout", "button", 1));
+		assertNull(cache.get("id", "login", "link", 1));
+	}
+
+	@Test
+	void emptiesOnNewerEpoch()
+	{
+		HandleCache cache = new HandleCache(10);
+		WebElement a = element("a"), b = element("b");
+
+		cache.put("id", "a", "a", 1, a);
+		assertNull(cache.get("id", "a", "a", 2));
+
+		cache.put("id", "b", "b", 2, b);
+		assertNull(cache.get("id", "a", "a", 2)); // dropped, not just hidden
+		assertNull(cache.get("id", "a", "a", 1));
+		assertSame(b, cache.get("id", "b", "b", 2));
+
+		cache.clear();
+		assertNull(cache.get("id", "b", "b", 2));
+	}
+
+	@Test
+	void revalidatesAfterPageChange()
+	{
+		FakePage page = new FakePage();
+		PageEpoch pageEpoch = new PageEpoch(page);
+		HandleCache cache = new HandleCache(10);
+		WebElement stale = element("stale"), fresh = element("fresh");
+
+		long before = pageEpoch.current();
+		cache.put("id", "a", "a", before, stale);
+		assertSame(stale, cache.get("id", "a", "a", pageEpoch.current()));
+
+		page.mutate(); // e.g. the element was re-rendered, leaving the cached reference stale
+		long after = pageEpoch.current();
+		assertNull(cache.get("id", "a", "a", after)); // looked up again rather than reused
+
+		cache.put("id", "a", "a", after, fresh);
+		cache.put("id", "a", "a", before, stale); // a lookup which started before the change finishing late
+		assertSame(fresh, cache.get("id", "a", "a", pageEpoch.current()));
+
+		page.navigate();
+		assertNull(cache.get("id", "a", "a", pageEpoch.current()));
+	}
+}
@@ -0,0 +1,232 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Races requests through a {@link Hedger} against a local stand-in server whose responses are delayed or dropped.
+ */
+class HedgerTest
+{
+	/**
+	 * Counts the calls which were cancelled.
+	 */
+	private static class CancelCounter extends EventListener
+	{
+		/**
+		 * The number of calls which were cancelled
+		 */
+		final AtomicInteger canceled = new AtomicInteger();
+
+		@Override
+		public void canceled(Call call)
+		{
+			canceled.incrementAndGet();
+		}
+	}
+
+	/**
+	 * The stand-in server
+	 */
+	private MockWebServer server;
+
+	/**
+	 * Counts the calls cancelled by {@code client}
+	 */
+	private CancelCounter cancels;
+
+	/**
+	 * The client to send requests with. It does not retry failed connections, so that each leg of a race is exactly one request.
+	 */
+	private OkHttpClient client;
+
+	/**
+	 * Records hedges
+	 */
+	private PerformanceStats stats;
+
+	@BeforeEach
+	void start() throws Exception
+	{
+		server = new MockWebServer();
+		server.start();
+		cancels = new CancelCounter();
+		client = NetUtils.basicClient().retryOnConnectionFailure(false).readTimeout(Duration.ofSeconds(1)).eventListener(cancels).build();
+		stats = new PerformanceStats();
+	}
+
+	@AfterEach
+	void stop() throws Exception
+	{
+		client.dispatcher().executorService().shutdownNow();
+		server.shutdown();
+	}
+
+	/**
+	 * Creates a call to the stand-in server.
+	 * 
+	 * @return The call
+	 */
+	private Call call()
+	{
+		return NetUtils.newPOST(client, server.url("/"), "classify", NetUtils.formBody(Map.of("label", "cart")));
+	}
+
+	/**
+	 * Sends enough fast requests through a {@code Hedger} for it to start hedging.
+	 * 
+	 * @param hedger The {@code Hedger}
+	 * @throws IOException If a request failed
+	 */
+	private void warmUp(Hedger hedger) throws IOException
+	{
+		for (int i = 0; i < 20; i++)
+		{
+			server.enqueue(new MockResponse().setBody("warm"));
+			try (Response r = hedger.execute(call()))
+			{
+				r.body().string();
+			}
+		}
+	}
+
+	/**
+	 * Gets a counter from {@code stats}.
+	 * 
+	 * @param name The name of the counter
+	 * @return The value of the counter
+	 */
+	private long count(String name)
+	{
+		return stats.report().getAsJsonObject("counts").get(name).getAsLong();
+	}
+
+	@Test
+	void hedgeWinsAndLoserIsCancelled() throws Exception
+	{
+		Hedger hedger = new Hedger(100, stats);
+		warmUp(hedger);
+
+		server.enqueue(new MockResponse().setBody("original").setHeadersDelay(800, TimeUnit.MILLISECONDS));
+		server.enqueue(new MockResponse().setBody("hedge"));
+
+		Call call = call();
+		long start = System.nanoTime();
+		try (Response r = hedger.execute(call))
+		{
+			assertEquals("hedge", r.body().string());
+		}
+
+		assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(800));
+		assertTrue(call.isCanceled());
+		assertEquals(1, count("hedges"));
+		assertEquals(1, count("hedge_wins"));
+	}
+
+	@Test
+	void originalWinsAndHedgeIsCancelled() throws Exception
+	{
+		Hedger hedger = new Hedger(100, stats);
+		warmUp(hedger);
+
+		server.enqueue(new MockResponse().setBody("original").setHeadersDelay(200, TimeUnit.MILLISECONDS));
+		server.enqueue(new MockResponse().setBody("hedge").setHeadersDelay(800, TimeUnit.MILLISECONDS));
+
+		try (Response r = hedger.execute(call()))
+		{
+			assertEquals("original", r.body().string());
+		}
+
+		assertEquals(1, count("hedges"));
+		assertEquals(0, count("hedge_wins"));
+		assertEquals(1, cancels.canceled.get());
+	}
+
+	@Test
+	void budgetCapsHedges() throws Exception
+	{
+		Hedger hedger = new Hedger(5, stats);
+		warmUp(hedger);
+
+		server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(200, TimeUnit.MILLISECONDS));
+		server.enqueue(new MockResponse().setBody("hedge"));
+		server.enqueue(new MockResponse().setBody("slow").setHeadersDelay(200, TimeUnit.MILLISECONDS));
+
+		try (Response r = hedger.execute(call())) // 1 hedge in 21 requests is within 5%
+		{
+			assertEquals("hedge", r.body().string());
+		}
+		try (Response r = hedger.execute(call())) // 2 in 22 is not
+		{
+			assertEquals("slow", r.body().string());
+		}
+
+		assertEquals(1, count("hedges"));
+		assertEquals(20 + 3, server.getRequestCount());
+	}
+
+	@Test
+	void failedHedgeDoesNotFailRace() throws Exception
+	{
+		Hedger hedger = new Hedger(100, stats);
+		warmUp(hedger);
+
+		server.enqueue(new MockResponse().setBody("original").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+
+		try (Response r = hedger.execute(call()))
+		{
+			assertEquals("original", r.body().string());
+		}
+		assertEquals(1, count("hedges"));
+	}
+
+	@Test
+	void failsOnlyOnceEveryLegFails() throws Exception
+	{
+		Hedger hedger = new Hedger(100, stats);
+		warmUp(hedger);
+
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE)); // times out after a second
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST));
+
+		CompletableFuture<Response> result = CompletableFuture.supplyAsync(() -> {
+			try
+			{
+				return hedger.execute(call());
+			}
+			catch (IOException e)
+			{
+				throw new RuntimeException(e);
+			}
+		});
+
+		Thread.sleep(400); // the hedge has been sent and has failed, the original is still waiting
+		assertEquals(22, server.getRequestCount());
+		assertFalse(result.isDone());
+
+		assertThrows(Exception.class, () -> result.get(5, TimeUnit.SECONDS));
+		assertEquals(1, count("hedges"));
+	}
+}
@@ -0,0 +1,56 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.Rectangle;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Checks the region-of-interest geometry in {@link ImageUtils}.
+ */
+class ImageUtilsTest
+{
+	@Test
+	void padsAndScalesRegion()
+	{
+		Rectangle roi = ImageUtils.regionOfInterest(new Rectangle(100, 50, 20, 40), 10, 2, 1000, 1000); // x, y, height, width
+
+		assertEquals(180, roi.x);
+		assertEquals(80, roi.y);
+		assertEquals(120, roi.width);
+		assertEquals(80, roi.height);
+	}
+
+	@Test
+	void clampsRegionToScreenshot()
+	{
+		Rectangle roi = ImageUtils.regionOfInterest(new Rectangle(5, 490, 30, 20), 10, 1, 200, 500);
+
+		assertEquals(0, roi.x);
+		assertEquals(480, roi.y);
+		assertEquals(35, roi.width);
+		assertEquals(20, roi.height);
+
+		assertNull(ImageUtils.regionOfInterest(new Rectangle(300, 10, 10, 10), 10, 1, 200, 500)); // scrolled out of view
+	}
+
+	@Test
+	void translatesBoxIntoScreenshot()
+	{
+		JsonObject box = new JsonObject();
+		box.addProperty("x", 12.5);
+		box.addProperty("y", 3);
+		box.addProperty("width", 40);
+		box.addProperty("height", 20);
+
+		ImageUtils.translateBox(box, 180, 80);
+
+		assertEquals(192.5, box.get("x").getAsDouble());
+		assertEquals(83, box.get("y").getAsDouble());
+		assertEquals(40, box.get("width").getAsDouble());
+		assertEquals(20, box.get("height").getAsDouble());
+	}
+}
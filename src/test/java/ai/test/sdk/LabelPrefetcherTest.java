@@ -0,0 +1,212 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Checks the URL patterns of {@link LabelPrefetcher}, and that prefetched results are only used for the page they were captured from.
+ */
+class LabelPrefetcherTest
+{
+	/**
+	 * Stands in for the browser and test.ai server, answering every classify request with success once {@code release} is counted down.
+	 */
+	private static class FakeSession implements LabelPrefetcher.Session
+	{
+		/**
+		 * The page in the browser
+		 */
+		final PageEpochTest.FakePage page = new PageEpochTest.FakePage();
+
+		/**
+		 * Tracks changes to {@code page}
+		 */
+		final PageEpoch epoch = new PageEpoch(page);
+
+		/**
+		 * Runs the prefetches
+		 */
+		final ExecutorService executor = Executors.newCachedThreadPool();
+
+		/**
+		 * Classify requests wait for this before answering. They cannot be interrupted, as a request already sent cannot be taken back.
+		 */
+		final CountDownLatch release = new CountDownLatch(1);
+
+		/**
+		 * Counted down once a classify request is in flight
+		 */
+		final CountDownLatch sent = new CountDownLatch(1);
+
+		/**
+		 * The labels classified so far
+		 */
+		final List<String> classified = new CopyOnWriteArrayList<>();
+
+		/**
+		 * The URL of the page in the browser
+		 */
+		volatile String url = "https://shop.example/item/123";
+
+		@Override
+		public String currentUrl()
+		{
+			return url;
+		}
+
+		@Override
+		public long epoch()
+		{
+			return epoch.current();
+		}
+
+		@Override
+		public String pageSource()
+		{
+			return "<html></html>";
+		}
+
+		@Override
+		public Screenshot screenshot()
+		{
+			return Screenshot.of(new byte[0]);
+		}
+
+		@Override
+		public ExecutorService executor()
+		{
+			return executor;
+		}
+
+		@Override
+		public JsonObject classify(String label, Screenshot screenshot, String pageSource)
+		{
+			sent.countDown();
+
+			boolean interrupted = false;
+			while (true)
+				try
+				{
+					release.await();
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+
+			if (interrupted)
+				Thread.currentThread().interrupt();
+
+			classified.add(label);
+			JsonObject r = new JsonObject();
+			r.addProperty("success", true);
+			r.addProperty("label", label);
+			return r;
+		}
+	}
+
+	/**
+	 * The session under test
+	 */
+	private final FakeSession session = new FakeSession();
+
+	@AfterEach
+	void stop()
+	{
+		session.executor.shutdownNow();
+	}
+
+	/**
+	 * Waits for every label to be classified.
+	 * 
+	 * @param n The number of labels
+	 * @throws InterruptedException If interrupted
+	 */
+	private void awaitClassified(int n) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (session.classified.size() < n && System.nanoTime() < deadline)
+			Thread.sleep(5);
+
+		Thread.sleep(50); // for the results to be stored
+		assertEquals(n, session.classified.size());
+	}
+
+	@Test
+	void patterns()
+	{
+		assertEquals("https://shop.example/item/*/reviews", LabelPrefetcher.pattern("https://shop.example/item/123/reviews?page=2#top"));
+		assertEquals("https://shop.example/cart", LabelPrefetcher.pattern("https://shop.example/cart#checkout"));
+		assertEquals("https://shop.example", LabelPrefetcher.pattern("https://shop.example?ref=ad"));
+		assertEquals("https://shop.example/", LabelPrefetcher.pattern("https://shop.example/"));
+		assertEquals("https://shop.example/a/*/", LabelPrefetcher.pattern("https://shop.example/a/v2/"));
+		assertEquals("shop.example/item/123", LabelPrefetcher.pattern("shop.example/item/123?x=1")); // no scheme, so no path is recognized
+		assertEquals("about:blank", LabelPrefetcher.pattern("about:blank"));
+		assertEquals("", LabelPrefetcher.pattern(null));
+	}
+
+	@Test
+	void prefetchesLikelyLabels() throws Exception
+	{
+		LabelPrefetcher prefetcher = new LabelPrefetcher(session, 2);
+		prefetcher.record("https://shop.example/item/1", "add to cart");
+		prefetcher.record("https://shop.example/item/2", "add to cart");
+		prefetcher.record("https://shop.example/item/3", "reviews");
+		prefetcher.record("https://shop.example/cart", "checkout");
+
+		session.release.countDown();
+		prefetcher.navigated();
+		awaitClassified(2);
+
+		assertTrue(session.classified.containsAll(List.of("add to cart", "reviews")));
+		assertNotNull(prefetcher.take("add to cart"));
+		assertNull(prefetcher.take("add to cart")); // each result is used once
+		assertNull(prefetcher.take("checkout"));
+	}
+
+	@Test
+	void rejectsStaleEpoch() throws Exception
+	{
+		LabelPrefetcher prefetcher = new LabelPrefetcher(session, 2);
+		prefetcher.record(session.url, "add to cart");
+
+		session.release.countDown();
+		prefetcher.navigated();
+		awaitClassified(1);
+
+		session.page.mutate();
+		assertNull(prefetcher.take("add to cart"));
+	}
+
+	@Test
+	void discardsEarlierGeneration() throws Exception
+	{
+		LabelPrefetcher prefetcher = new LabelPrefetcher(session, 2);
+		prefetcher.record(session.url, "add to cart");
+		prefetcher.navigated();
+		assertTrue(session.sent.await(5, TimeUnit.SECONDS));
+
+		session.url = "https://shop.example/cart"; // nothing to prefetch here
+		prefetcher.navigated();
+
+		session.release.countDown(); // the first prefetch's response arrives late
+		awaitClassified(1);
+
+		assertNull(prefetcher.take("add to cart"));
+	}
+}
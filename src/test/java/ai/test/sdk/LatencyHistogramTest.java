@@ -0,0 +1,101 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+
+/**
+ * Checks the bucket layout and percentiles of {@link LatencyHistogram}, and how snapshots are summarized.
+ */
+class LatencyHistogramTest
+{
+	/**
+	 * Checks that a reported value is within the precision of the histogram.
+	 * 
+	 * @param expected The value recorded
+	 * @param actual The value reported
+	 */
+	private static void assertClose(double expected, double actual)
+	{
+		assertTrue(actual >= expected && actual <= expected * 1.0625, expected + " reported as " + actual);
+	}
+
+	@Test
+	void bucketBoundaries()
+	{
+		for (int v = 0; v < 32; v++) // exact below 2^SUB_BUCKET_BITS
+			assertEquals(v, LatencyHistogram.highestEquivalentValue(LatencyHistogram.bucket(v)));
+
+		assertEquals(32, LatencyHistogram.bucket(32));
+		assertEquals(32, LatencyHistogram.bucket(33));
+		assertEquals(33, LatencyHistogram.highestEquivalentValue(32));
+		assertEquals(47, LatencyHistogram.bucket(63));
+		assertEquals(48, LatencyHistogram.bucket(64));
+		assertEquals(Long.MAX_VALUE, LatencyHistogram.highestEquivalentValue(LatencyHistogram.bucket(Long.MAX_VALUE)));
+		assertEquals(new LatencyHistogram().snapshot().length - 1, LatencyHistogram.bucket(Long.MAX_VALUE));
+
+		int last = 0;
+		for (long v = 1; v > 0 && v < Long.MAX_VALUE / 3; v = v * 3 / 2 + 1)
+		{
+			int b = LatencyHistogram.bucket(v);
+			assertTrue(b >= last);
+			assertTrue(LatencyHistogram.highestEquivalentValue(b) >= v);
+			assertTrue(b == 0 || LatencyHistogram.highestEquivalentValue(b - 1) < v);
+			assertClose(v, LatencyHistogram.highestEquivalentValue(b));
+			last = b;
+		}
+	}
+
+	@Test
+	void percentiles()
+	{
+		LatencyHistogram h = new LatencyHistogram();
+		assertEquals(0, LatencyHistogram.percentile(h.snapshot(), 50));
+
+		for (int i = 100; i >= 1; i--)
+			h.record(i * 1000L);
+		h.record(-5); // recorded as 0
+
+		long[] snapshot = h.snapshot();
+		assertEquals(101, LatencyHistogram.count(snapshot));
+		assertEquals(0, LatencyHistogram.percentile(snapshot, 0));
+		assertClose(50_000, LatencyHistogram.percentile(snapshot, 50));
+		assertClose(90_000, LatencyHistogram.percentile(snapshot, 90));
+		assertClose(100_000, LatencyHistogram.percentile(snapshot, 100));
+	}
+
+	@Test
+	void summarizesInMillis()
+	{
+		LatencyHistogram h = new LatencyHistogram();
+		for (int i = 0; i < 9; i++)
+			h.record(2_000_000);
+		h.record(40_000_000);
+
+		JsonObject summary = PerformanceStats.summarize(h.snapshot());
+		assertEquals(10, summary.get("count").getAsLong());
+		assertClose(2, summary.get("p50").getAsDouble());
+		assertClose(2, summary.get("p90").getAsDouble());
+		assertClose(40, summary.get("p99").getAsDouble());
+		assertClose(40, summary.get("max").getAsDouble());
+	}
+
+	@Test
+	void reportsCountsAndRates()
+	{
+		PerformanceStats stats = new PerformanceStats();
+		stats.add(PerformanceStats.Counter.LOOKUPS, 4);
+		stats.increment(PerformanceStats.Counter.FALLBACKS);
+		stats.add(PerformanceStats.Counter.CLASSIFY_BYTES, 1 << 20);
+
+		JsonObject report = stats.report();
+		assertEquals(4, report.getAsJsonObject("counts").get("lookups").getAsLong());
+		assertEquals(1 << 20, report.getAsJsonObject("counts").get("classify_bytes").getAsLong());
+		assertEquals(0.25, report.getAsJsonObject("rates").get("fallback").getAsDouble());
+		assertEquals(0, report.getAsJsonObject("rates").get("hedge_win").getAsDouble());
+		assertEquals(0, report.getAsJsonObject("latency_ms").getAsJsonObject("classify").get("count").getAsLong());
+	}
+}
@@ -0,0 +1,157 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import ai.test.sdk.ScoringStage.Box;
+
+/**
+ * Replays recorded page snapshots through the scoring pipeline, and reports its accuracy and latency. Run with {@code gradle benchmark}.
+ *
+ * <p>
+ * Set {@code -Dbench.matchReplay=<dir>} to replay recordings. Each {@code .json} file in the directory holds one lookup:
+ * {@code {"table": <CandidateTable.toJson()>, "box": {"x", "y", "width", "height"}, "expected": <index>}}, where the box is in page coordinates and {@code expected} is the index of the correct
+ * element in the table. Synthetic pages are generated if no directory is set.
+ * </p>
+ */
+@Tag("benchmark")
+class MatchReplayBenchmark
+{
+	/**
+	 * The number of times each lookup is ranked when measuring latency
+	 */
+	private static final int ITERATIONS = 20;
+
+	/**
+	 * A recorded lookup.
+	 */
+	private static class Lookup
+	{
+		/**
+		 * The candidates on the page
+		 */
+		final CandidateTable table;
+
+		/**
+		 * The bounding box returned by test.ai, in page coordinates
+		 */
+		final Box box;
+
+		/**
+		 * The index of the correct element in {@code table}
+		 */
+		final int expected;
+
+		/**
+		 * Constructor, creates a new Lookup
+		 * 
+		 * @param table The candidates on the page
+		 * @param box The bounding box returned by test.ai, in page coordinates
+		 * @param expected The index of the correct element in {@code table}
+		 */
+		Lookup(CandidateTable table, Box box, int expected)
+		{
+			this.table = table;
+			this.box = box;
+			this.expected = expected;
+		}
+	}
+
+	@Test
+	void replay() throws IOException
+	{
+		String dir = System.getProperty("bench.matchReplay");
+		List<Lookup> lookups = dir != null ? load(Paths.get(dir)) : synthetic(new Random(1), 200);
+
+		int correct = 0, agree = 0;
+		LatencyHistogram latencies = new LatencyHistogram();
+		for (Lookup l : lookups)
+		{
+			int best = MatchUtilsTest.best(l.table, l.box);
+			if (best == l.expected)
+				correct++;
+			if (best == MatchUtilsTest.baseline(l.table, l.box))
+				agree++;
+
+			for (int i = 0; i < ITERATIONS; i++)
+			{
+				long start = System.nanoTime();
+				l.table.rank(l.box, ScoringStage.DEFAULT);
+				latencies.record(System.nanoTime() - start);
+			}
+		}
+
+		System.out.printf("match replay: %d lookups from %s, accuracy %.3f, agreement with baseline %.3f, rank latency %s%n", lookups.size(), dir != null ? dir : "synthetic pages",
+				1.0 * correct / lookups.size(), 1.0 * agree / lookups.size(), PerformanceStats.summarize(latencies.snapshot()));
+	}
+
+	/**
+	 * Loads recorded lookups.
+	 * 
+	 * @param dir The directory containing the recordings
+	 * @return The lookups
+	 * @throws IOException If the recordings could not be read
+	 */
+	private static List<Lookup> load(Path dir) throws IOException
+	{
+		List<Lookup> l = new ArrayList<>();
+		try (Stream<Path> files = Files.list(dir))
+		{
+			for (Path p : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".json")).sorted()::iterator)
+			{
+				JsonObject jo = JsonParser.parseString(Files.readString(p)).getAsJsonObject(), box = jo.getAsJsonObject("box");
+				l.add(new Lookup(CandidateTable.fromJson(jo.getAsJsonObject("table")), MatchUtils.toBox(box, 1), jo.get("expected").getAsInt()));
+			}
+		}
+
+		return l;
+	}
+
+	/**
+	 * Generates lookups on synthetic pages: a grid of rows, each containing a few nested elements, with boxes jittered around a random target.
+	 * 
+	 * @param r The source of randomness
+	 * @param n The number of lookups to generate
+	 * @return The lookups
+	 */
+	private static List<Lookup> synthetic(Random r, int n)
+	{
+		String[] tags = { "span", "a", "input", "button", "img" };
+
+		List<Lookup> l = new ArrayList<>();
+		for (int k = 0; k < n; k++)
+		{
+			List<Object[]> rows = new ArrayList<>();
+			rows.add(new Object[] { 0, 0, 1280, 4000, "body" });
+			for (int y = 0; y < 4000; y += 40)
+			{
+				rows.add(new Object[] { 0, y, 1280, 40, "div" });
+				for (int x = 0; x < 1280; x += 160)
+					rows.add(new Object[] { x + 10, y + 5, 140, 30, tags[r.nextInt(tags.length)] });
+			}
+
+			int target = 0;
+			while (rows.get(target)[2].equals(1280))
+				target = r.nextInt(rows.size());
+
+			Object[] t = rows.get(target);
+			Box box = new Box((Integer) t[0] + r.nextGaussian() * 4, (Integer) t[1] + r.nextGaussian() * 4, (Integer) t[2] + r.nextGaussian() * 4, (Integer) t[3] + r.nextGaussian() * 4);
+
+			l.add(new Lookup(MatchUtilsTest.table(rows.toArray(new Object[0][])), box, target));
+		}
+
+		return l;
+	}
+}
@@ -0,0 +1,152 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import ai.test.sdk.ScoringStage.Box;
+import ai.test.sdk.ScoringStage.Candidate;
+
+/**
+ * Checks that the {@link ScoringStage#DEFAULT} pipeline picks the same element as the ranking used before scoring stages were introduced.
+ */
+class MatchUtilsTest
+{
+	/**
+	 * Tag names to generate candidates with
+	 */
+	private static final String[] TAGS = { "div", "span", "a", "input", "button", "img", "li" };
+
+	/**
+	 * Builds a {@code CandidateTable} from rows of {@code x, y, width, height, tagName}.
+	 * 
+	 * @param rows The candidates, in document order.
+	 * @return The table
+	 */
+	static CandidateTable table(Object[]... rows)
+	{
+		JsonArray candidates = new JsonArray();
+		for (Object[] r : rows)
+		{
+			JsonArray row = new JsonArray();
+			for (int i = 0; i < 4; i++)
+				row.add((Integer) r[i]);
+			row.add((String) r[4]);
+			row.add(true);
+			row.add(0);
+
+			candidates.add(row);
+		}
+
+		JsonObject jo = new JsonObject();
+		jo.add("candidates", candidates);
+
+		return CandidateTable.fromJson(jo);
+	}
+
+	/**
+	 * The ranking used before scoring stages were introduced: sort by IOU (stable, descending), drop candidates with no overlap or which miss the center of the box, then take the first
+	 * {@code input}, or {@code button} within 90% of the top score, falling back to the top candidate.
+	 * 
+	 * @param t The candidates
+	 * @param box The bounding box
+	 * @return The index of the best candidate, or -1 if there is none.
+	 */
+	static int baseline(CandidateTable t, Box box)
+	{
+		List<double[]> scored = new ArrayList<>();
+		for (int i = 0; i < t.size(); i++)
+			scored.add(new double[] { box.iou(t.x(i), t.y(i), t.width(i), t.height(i)), i });
+
+		scored.sort((o1, o2) -> Double.compare(o2[0], o1[0]));
+		scored.removeIf(s -> {
+			int i = (int) s[1];
+			return s[0] <= 0 || !box.centerHit(t.x(i), t.y(i), t.width(i), t.height(i));
+		});
+
+		if (scored.isEmpty())
+			return -1;
+
+		for (double[] s : scored)
+		{
+			String tag = t.tagName((int) s[1]);
+			if (tag.equals("input") || tag.equals("button") && s[0] > scored.get(0)[0] * 0.9)
+				return (int) s[1];
+		}
+
+		return (int) scored.get(0)[1];
+	}
+
+	/**
+	 * Ranks a table with the default pipeline.
+	 * 
+	 * @param t The candidates
+	 * @param box The bounding box
+	 * @return The index of the best candidate, or -1 if there is none.
+	 */
+	static int best(CandidateTable t, Box box)
+	{
+		List<Candidate> ranked = t.rank(box, ScoringStage.DEFAULT);
+		return ranked.isEmpty() ? -1 : ranked.get(0).index;
+	}
+
+	@Test
+	void matchesBaselineOnRandomPages()
+	{
+		Random r = new Random(1);
+		for (int page = 0; page < 200; page++)
+		{
+			Object[][] rows = new Object[1 + r.nextInt(300)][];
+			for (int i = 0; i < rows.length; i++)
+				rows[i] = new Object[] { r.nextInt(50) * 20, r.nextInt(50) * 20, 10 + r.nextInt(10) * 20, 10 + r.nextInt(10) * 20, TAGS[r.nextInt(TAGS.length)] };
+
+			CandidateTable t = table(rows);
+			for (int b = 0; b < 20; b++)
+			{
+				Box box = new Box(r.nextInt(1000), r.nextInt(1000), 10 + r.nextInt(200), 10 + r.nextInt(200));
+				assertEquals(baseline(t, box), best(t, box));
+			}
+		}
+	}
+
+	@Test
+	void breaksTiesInDocumentOrder()
+	{
+		CandidateTable t = table(new Object[] { 0, 0, 100, 100, "div" }, new Object[] { 0, 0, 100, 100, "span" }, new Object[] { 0, 0, 100, 100, "a" });
+		assertEquals(0, best(t, new Box(0, 0, 100, 100)));
+	}
+
+	@Test
+	void prefersInputs()
+	{
+		CandidateTable t = table(new Object[] { 0, 0, 100, 100, "div" }, new Object[] { 0, 0, 400, 400, "input" });
+		assertEquals(1, best(t, new Box(0, 0, 100, 100)));
+	}
+
+	@Test
+	void prefersButtonsWithinNinetyPercent()
+	{
+		Box box = new Box(0, 0, 100, 100);
+
+		CandidateTable close = table(new Object[] { 0, 0, 100, 100, "div" }, new Object[] { 0, 0, 100, 105, "button" });
+		assertEquals(1, best(close, box));
+
+		CandidateTable far = table(new Object[] { 0, 0, 100, 100, "div" }, new Object[] { 0, 0, 100, 200, "button" });
+		assertEquals(0, best(far, box));
+	}
+
+	@Test
+	void requiresCenterHit()
+	{
+		CandidateTable t = table(new Object[] { 0, 0, 40, 40, "div" }, new Object[] { 60, 60, 40, 40, "input" });
+		assertTrue(t.rank(new Box(0, 0, 100, 100), ScoringStage.DEFAULT).isEmpty());
+	}
+}
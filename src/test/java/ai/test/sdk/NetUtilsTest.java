@@ -0,0 +1,230 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okhttp3.mockwebserver.SocketPolicy;
+
+/**
+ * Checks the request helpers in {@link NetUtils} against a local stand-in server.
+ */
+class NetUtilsTest
+{
+	/**
+	 * Answers every request after a delay, and tracks the most requests in flight at once.
+	 */
+	private static class SlowDispatcher extends okhttp3.mockwebserver.Dispatcher
+	{
+		/**
+		 * The number of requests in flight
+		 */
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		/**
+		 * The most requests which were in flight at once
+		 */
+		private final AtomicInteger maxInFlight = new AtomicInteger();
+
+		@Override
+		public MockResponse dispatch(RecordedRequest request) throws InterruptedException
+		{
+			maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+			try
+			{
+				Thread.sleep(200);
+			}
+			finally
+			{
+				inFlight.decrementAndGet();
+			}
+
+			return new MockResponse().setBody("ok");
+		}
+	}
+
+	/**
+	 * The stand-in server
+	 */
+	private MockWebServer server;
+
+	/**
+	 * The client to send requests with
+	 */
+	private OkHttpClient client;
+
+	@BeforeEach
+	void start() throws Exception
+	{
+		server = new MockWebServer();
+		server.start();
+		client = NetUtils.basicClient().build();
+	}
+
+	@AfterEach
+	void stop() throws Exception
+	{
+		client.dispatcher().executorService().shutdownNow();
+		server.shutdown();
+	}
+
+	@Test
+	void executesCalls() throws Exception
+	{
+		server.enqueue(new MockResponse().setBody("ok"));
+
+		try (Response r = NetUtils.execute(NetUtils.newPOST(client, server.url("/"), "classify", NetUtils.formBody(Map.of("a", "b c")))))
+		{
+			assertEquals("ok", r.body().string());
+		}
+		assertEquals("a=b+c", server.takeRequest().getBody().readUtf8());
+	}
+
+	@Test
+	void interruptCancelsCall() throws Exception
+	{
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+		Call call = NetUtils.newPOST(client, server.url("/"), "classify", NetUtils.formBody(Map.of("a", "b")));
+		Thread caller = Thread.currentThread();
+		ScheduledExecutorService s = Executors.newSingleThreadScheduledExecutor();
+		try
+		{
+			s.schedule(caller::interrupt, 200, TimeUnit.MILLISECONDS);
+
+			long start = System.nanoTime();
+			assertThrows(InterruptedIOException.class, () -> NetUtils.execute(call));
+			assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+			assertTrue(call.isCanceled());
+			assertTrue(Thread.interrupted());
+		}
+		finally
+		{
+			s.shutdownNow();
+		}
+	}
+
+	@Test
+	void countsBodyBytes() throws Exception
+	{
+		StringBuilder screenshot = new StringBuilder();
+		while (screenshot.length() < 3 * BufferPool.CHUNK_SIZE)
+			screenshot.append("iVBORw0KGgo+/=\u00e9 ");
+
+		for (String value : new String[] { "small", screenshot.toString() })
+		{
+			server.enqueue(new MockResponse().setBody("ok"));
+
+			AtomicLong written = new AtomicLong();
+			try (Response r = NetUtils.execute(NetUtils.newPOST(client, server.url("/"), "classify", NetUtils.counted(NetUtils.formBody(Map.of("screenshot", value)), written::addAndGet))))
+			{
+				assertEquals("ok", r.body().string());
+			}
+
+			RecordedRequest request = server.takeRequest();
+			assertEquals(request.getBodySize(), written.get());
+			assertEquals(String.valueOf(request.getBodySize()), request.getHeader("Content-Length"));
+		}
+	}
+
+	@Test
+	void multiplexesWithinLimit() throws Exception
+	{
+		server.shutdown();
+		server = new MockWebServer();
+		server.setProtocols(List.of(Protocol.H2_PRIOR_KNOWLEDGE));
+		SlowDispatcher dispatcher = new SlowDispatcher();
+		server.setDispatcher(dispatcher);
+		server.start();
+
+		client.dispatcher().executorService().shutdownNow();
+		client = NetUtils.priorKnowledge(NetUtils.basicClient().dispatcher(NetUtils.dispatcher(3))).build();
+
+		ExecutorService callers = Executors.newFixedThreadPool(8);
+		try
+		{
+			List<Future<Protocol>> results = new ArrayList<>();
+			for (int i = 0; i < 8; i++)
+				results.add(callers.submit(() -> {
+					try (Response r = NetUtils.basicPOST(client, server.url("/"), "classify", new HashMap<>(Map.of("a", "b"))))
+					{
+						r.body().string();
+						return r.protocol();
+					}
+				}));
+
+			for (Future<Protocol> f : results)
+				assertEquals(Protocol.H2_PRIOR_KNOWLEDGE, f.get(10, TimeUnit.SECONDS));
+		}
+		finally
+		{
+			callers.shutdownNow();
+		}
+
+		assertEquals(3, dispatcher.maxInFlight.get());
+		assertEquals(1, client.connectionPool().connectionCount());
+	}
+
+	@Test
+	void sendsJsonWithLength() throws Exception
+	{
+		server.enqueue(new MockResponse().setBody("ok"));
+
+		Payloads.Checkin payload = new Payloads.Checkin("key", "1.0", "run");
+		AtomicLong written = new AtomicLong();
+		try (Response r = NetUtils.basicPOST(client, server.url("/"), "sdk_checkin", payload, written::addAndGet))
+		{
+			assertEquals("ok", r.body().string());
+		}
+
+		RecordedRequest request = server.takeRequest();
+		assertEquals(payload.toJson(), request.getBody().readUtf8());
+		assertEquals(String.valueOf(request.getBodySize()), request.getHeader("Content-Length"));
+		assertEquals(request.getBodySize(), written.get());
+	}
+
+	@Test
+	void sendsLargeBodiesWithLength() throws Exception
+	{
+		String big = "a b&c=\u00e9\u4e2d".repeat(100_000);
+		Map<String, RequestBody> files = Map.of("screenshot", Screenshot.of(new byte[200_000]).body());
+		for (RequestBody body : List.of(NetUtils.formBody(Map.of("source", big, "label", "x")), NetUtils.multipartBody(Map.of("source", big), files)))
+		{
+			server.enqueue(new MockResponse().setBody("ok"));
+			try (Response r = NetUtils.execute(NetUtils.newPOST(client, server.url("/"), "classify", body)))
+			{
+				assertEquals("ok", r.body().string());
+			}
+
+			RecordedRequest request = server.takeRequest();
+			assertNull(request.getHeader("Transfer-Encoding"));
+			assertEquals(String.valueOf(request.getBodySize()), request.getHeader("Content-Length"));
+		}
+	}
+}
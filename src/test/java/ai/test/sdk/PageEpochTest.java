@@ -0,0 +1,139 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import org.junit.jupiter.api.Test;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriverException;
+
+/**
+ * Checks that {@link PageEpoch} moves on exactly when the page changes, against a stand-in for the injected counter.
+ */
+class PageEpochTest
+{
+	/**
+	 * Stands in for a page with the epoch counter injected, answering the epoch script as the browser would. Used by the tests of everything validated with a {@link PageEpoch}.
+	 */
+	static class FakePage implements JavascriptExecutor
+	{
+		/**
+		 * The token of the installed counter, or {@code null} if the document has none yet.
+		 */
+		private String token;
+
+		/**
+		 * The number of changes counted since the counter was installed
+		 */
+		private int count;
+
+		/**
+		 * Set to make scripts fail, as they do in browsers which reject them
+		 */
+		volatile boolean failing;
+
+		/**
+		 * The number of scripts run
+		 */
+		int scripts;
+
+		/**
+		 * Changes the page, as a DOM mutation or scroll would.
+		 */
+		synchronized void mutate()
+		{
+			count++;
+		}
+
+		/**
+		 * Loads a new document, which discards the installed counter.
+		 */
+		synchronized void navigate()
+		{
+			token = null;
+			count = 0;
+		}
+
+		@Override
+		public synchronized Object executeScript(String script, Object... args)
+		{
+			scripts++;
+			if (failing)
+				throw new WebDriverException("scripts are disabled");
+
+			if (token == null)
+				token = (String) args[0];
+
+			return token + ":" + count;
+		}
+
+		@Override
+		public Object executeAsyncScript(String script, Object... args)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	@Test
+	void stableWhileUnchanged()
+	{
+		PageEpoch epoch = new PageEpoch(new FakePage());
+		long e = epoch.current();
+
+		assertEquals(e, epoch.current());
+		assertEquals(e, epoch.current());
+	}
+
+	@Test
+	void bumpsOncePerChange()
+	{
+		FakePage page = new FakePage();
+		PageEpoch epoch = new PageEpoch(page);
+		long e = epoch.current();
+
+		page.mutate();
+		page.mutate();
+		assertEquals(e + 1, epoch.current());
+		assertEquals(e + 1, epoch.current());
+	}
+
+	@Test
+	void navigationReplacesToken()
+	{
+		FakePage page = new FakePage();
+		PageEpoch epoch = new PageEpoch(page);
+		long e = epoch.current();
+
+		page.navigate(); // a new document with the same count
+		assertEquals(e + 1, epoch.current());
+		assertEquals(e + 1, epoch.current());
+	}
+
+	@Test
+	void invalidateForcesChange()
+	{
+		PageEpoch epoch = new PageEpoch(new FakePage());
+		long e = epoch.current();
+
+		epoch.invalidate();
+		assertEquals(e + 1, epoch.current());
+		assertEquals(e + 1, epoch.current());
+	}
+
+	@Test
+	void failedScriptsCountAsChanges()
+	{
+		FakePage page = new FakePage();
+		PageEpoch epoch = new PageEpoch(page);
+		long e = epoch.current();
+
+		page.failing = true;
+		long f = epoch.current();
+		assertNotEquals(e, f);
+		assertNotEquals(f, epoch.current()); // never trusted while scripts fail
+
+		page.failing = false;
+		long g = epoch.current();
+		assertEquals(g, epoch.current());
+	}
+}
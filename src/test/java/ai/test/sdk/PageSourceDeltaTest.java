@@ -0,0 +1,219 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.JsonParser;
+
+/**
+ * Round-trips page sources through {@link PageSourceDelta} and a stand-in for the server, which keeps the last snapshot of the run and reconstructs deltas against it.
+ */
+class PageSourceDeltaTest
+{
+	/**
+	 * Stands in for the server, which keeps the last snapshot it received and reconstructs page sources from deltas against it.
+	 */
+	private static class StandInServer
+	{
+		/**
+		 * The last snapshot received, keyed by fingerprint
+		 */
+		private final Map<String, String> snapshots = new HashMap<>();
+
+		/**
+		 * Receives an upload.
+		 * 
+		 * @param fields The form fields of the upload
+		 * @return The page source reconstructed from {@code fields}
+		 */
+		String receive(Map<String, String> fields)
+		{
+			if (fields.containsKey("source_delta"))
+			{
+				String snapshot = snapshots.get(fields.get("source_base"));
+				assertNotNull(snapshot, "delta sent against a snapshot the server does not have");
+
+				return PageSourceDelta.apply(snapshot, JsonParser.parseString(fields.get("source_delta")).getAsJsonArray());
+			}
+
+			String source = fields.get("source");
+			if (fields.containsKey("source_fingerprint"))
+			{
+				assertEquals(PageSourceDelta.fingerprint(source), fields.get("source_fingerprint"));
+				snapshots.clear();
+				snapshots.put(fields.get("source_fingerprint"), source);
+			}
+
+			return source;
+		}
+	}
+
+	/**
+	 * Generates a page source.
+	 * 
+	 * @param r The source of randomness
+	 * @param elements The number of elements on the page
+	 * @return The page source
+	 */
+	private static String page(Random r, int elements)
+	{
+		StringBuilder sb = new StringBuilder("<html><body>");
+		for (int i = 0; i < elements; i++)
+			sb.append("<div class=\"row\" id=\"row").append(i).append("\"><span>").append(r.nextInt(1000)).append("</span><button>Add to cart</button></div>\n");
+
+		return sb.append("</body></html>").toString();
+	}
+
+	/**
+	 * Edits a few chars of a page source.
+	 * 
+	 * @param r The source of randomness
+	 * @param s The page source
+	 * @return The edited page source
+	 */
+	private static String edit(Random r, String s)
+	{
+		StringBuilder sb = new StringBuilder(s);
+		for (int i = 0; i < 5; i++)
+			sb.insert(r.nextInt(sb.length()), "<i>" + r.nextInt() + "</i>");
+
+		return sb.toString();
+	}
+
+	/**
+	 * Encodes a page source, sends it to the server, and reports the upload as successful.
+	 * 
+	 * @param delta The encoder
+	 * @param server The server
+	 * @param source The page source
+	 * @return The form fields which were sent
+	 */
+	private static HashMap<String, String> roundTrip(PageSourceDelta delta, StandInServer server, String source)
+	{
+		HashMap<String, String> fields = delta.encode(source);
+		assertEquals(source, server.receive(fields));
+		delta.uploaded(fields, true);
+
+		return fields;
+	}
+
+	@Test
+	void roundTripsDeltas()
+	{
+		Random r = new Random(1);
+		PageSourceDelta delta = new PageSourceDelta();
+		StandInServer server = new StandInServer();
+
+		String source = page(r, 200);
+		assertTrue(roundTrip(delta, server, source).containsKey("source_fingerprint"));
+
+		for (int i = 0; i < 10; i++)
+		{
+			String edited = edit(r, source);
+			HashMap<String, String> fields = roundTrip(delta, server, edited);
+
+			assertTrue(fields.containsKey("source_delta"));
+			assertTrue(fields.get("source_delta").length() < edited.length() / 4);
+		}
+	}
+
+	@Test
+	void sendsSnapshotsPeriodically()
+	{
+		Random r = new Random(2);
+		PageSourceDelta delta = new PageSourceDelta();
+		StandInServer server = new StandInServer();
+
+		String source = page(r, 100);
+		roundTrip(delta, server, source);
+		for (int i = 0; i < 20; i++)
+			assertTrue(roundTrip(delta, server, edit(r, source)).containsKey("source_delta"));
+
+		assertTrue(roundTrip(delta, server, edit(r, source)).containsKey("source_fingerprint"));
+		assertTrue(roundTrip(delta, server, edit(r, source)).containsKey("source_delta"));
+	}
+
+	@Test
+	void sendsSnapshotWhenDiffIsTooLarge()
+	{
+		PageSourceDelta delta = new PageSourceDelta();
+		StandInServer server = new StandInServer();
+
+		roundTrip(delta, server, page(new Random(3), 100));
+
+		HashMap<String, String> fields = roundTrip(delta, server, page(new Random(4), 100).replace("row", "col"));
+		assertTrue(fields.containsKey("source_fingerprint"));
+		assertFalse(fields.containsKey("source_delta"));
+	}
+
+	@Test
+	void neverSendsDeltasAgainstPendingSnapshot()
+	{
+		Random r = new Random(5);
+		PageSourceDelta delta = new PageSourceDelta();
+		StandInServer server = new StandInServer();
+
+		String source = page(r, 100);
+		HashMap<String, String> snapshot = delta.encode(source);
+
+		// the snapshot is still in flight, so the next upload is sent in full without replacing it
+		String edited = edit(r, source);
+		HashMap<String, String> fields = delta.encode(edited);
+		assertEquals(edited, fields.get("source"));
+		assertNull(fields.get("source_fingerprint"));
+		assertNull(fields.get("source_delta"));
+
+		assertEquals(source, server.receive(snapshot));
+		delta.uploaded(snapshot, true);
+		assertEquals(edited, server.receive(fields));
+		delta.uploaded(fields, true);
+
+		assertTrue(roundTrip(delta, server, edit(r, source)).containsKey("source_delta"));
+	}
+
+	@Test
+	void sendsSnapshotAfterFailedUpload()
+	{
+		Random r = new Random(6);
+		PageSourceDelta delta = new PageSourceDelta();
+		StandInServer server = new StandInServer();
+
+		String source = page(r, 100);
+		delta.uploaded(delta.encode(source), false);
+
+		assertTrue(roundTrip(delta, server, edit(r, source)).containsKey("source_fingerprint"));
+
+		HashMap<String, String> fields = delta.encode(edit(r, source));
+		assertTrue(fields.containsKey("source_delta"));
+		delta.uploaded(fields, false);
+
+		assertTrue(roundTrip(delta, server, edit(r, source)).containsKey("source_fingerprint"));
+	}
+
+	@Test
+	void resendsSnapshotsByReference()
+	{
+		Random r = new Random(5);
+		PageSourceDelta delta = new PageSourceDelta();
+		StandInServer server = new StandInServer();
+
+		String source = page(r, 200);
+		HashMap<String, String> again = PageSourceDelta.resend(roundTrip(delta, server, source));
+		assertFalse(again.containsKey("source"));
+		assertEquals(source, server.receive(again));
+
+		String edited = edit(r, source);
+		HashMap<String, String> fields = roundTrip(delta, server, edited);
+		assertEquals(fields, PageSourceDelta.resend(fields)); // deltas are sent as they were
+		assertEquals(edited, server.receive(PageSourceDelta.resend(fields)));
+	}
+}
@@ -0,0 +1,121 @@
+package ai.test.sdk;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Minifies page sources, and reports the throughput, latency, and how much smaller they get. Run with {@code gradle benchmark}.
+ *
+ * <p>
+ * Set {@code -Dbench.pageSources=<dir>} to minify recorded page sources, one per {@code .html} file in the directory. Synthetic pages are generated if no directory is set.
+ * </p>
+ */
+@Tag("benchmark")
+class PageSourceMinifierBenchmark
+{
+	/**
+	 * The number of times each page is minified before measuring, so that the JIT has compiled the minifier
+	 */
+	private static final int WARMUP = 20;
+
+	/**
+	 * The number of times each page is minified when measuring
+	 */
+	private static final int ITERATIONS = 50;
+
+	@Test
+	void minify() throws IOException
+	{
+		String dir = System.getProperty("bench.pageSources");
+		List<String> pages = dir != null ? load(Paths.get(dir)) : synthetic(new Random(1), 10);
+
+		PageSourceMinifier minifier = new PageSourceMinifier();
+		for (int i = 0; i < WARMUP; i++)
+			for (String p : pages)
+				minifier.minify(p);
+
+		long in = 0, out = 0, total = 0;
+		LatencyHistogram latencies = new LatencyHistogram();
+		for (int i = 0; i < ITERATIONS; i++)
+			for (String p : pages)
+			{
+				long start = System.nanoTime();
+				String m = minifier.minify(p);
+				long elapsed = System.nanoTime() - start;
+
+				latencies.record(elapsed);
+				total += elapsed;
+				in += p.length();
+				out += m.length();
+			}
+
+		System.out.printf("page source minifier: %d pages from %s, %.1f MB/s, output %.3f of input, latency %s%n", pages.size(), dir != null ? dir : "synthetic pages",
+				in / (total / 1e9) / 1e6, 1.0 * out / in, PerformanceStats.summarize(latencies.snapshot()));
+	}
+
+	/**
+	 * Loads recorded page sources.
+	 * 
+	 * @param dir The directory containing the page sources
+	 * @return The page sources
+	 * @throws IOException If the page sources could not be read
+	 */
+	private static List<String> load(Path dir) throws IOException
+	{
+		List<String> l = new ArrayList<>();
+		try (Stream<Path> files = Files.list(dir))
+		{
+			for (Path p : (Iterable<Path>) files.filter(f -> f.toString().endsWith(".html")).sorted()::iterator)
+				l.add(Files.readString(p));
+		}
+
+		return l;
+	}
+
+	/**
+	 * Generates synthetic pages of about 1 MB each, mixing indented markup with the scripts, styles, icons, comments, and inlined images that the minifier strips.
+	 * 
+	 * @param r The source of randomness
+	 * @param n The number of pages to generate
+	 * @return The pages
+	 */
+	private static List<String> synthetic(Random r, int n)
+	{
+		List<String> l = new ArrayList<>();
+		for (int k = 0; k < n; k++)
+		{
+			StringBuilder sb = new StringBuilder("<html><head><style>body { margin: 0 }\n.row > a { color: red }</style></head><body>\n");
+			while (sb.length() < 1_000_000)
+				switch (r.nextInt(6))
+				{
+					case 0:
+						sb.append("  <script>var x = \"<div>\"; if (a < b) { f('it\\'s'); }</script>\n");
+						break;
+					case 1:
+						sb.append("  <svg viewBox=\"0 0 24 24\"><g><path d=\"M12 2L2 7l10 5 10-5-10-5z\"/></g></svg>\n");
+						break;
+					case 2:
+						sb.append("  <img src=\"data:image/png;base64,").append("A".repeat(200 + r.nextInt(2000))).append("\" alt=\"icon\">\n");
+						break;
+					case 3:
+						sb.append("  <!-- row ").append(r.nextInt()).append(" -->\n");
+						break;
+					default:
+						sb.append("  <div class=\"row\">\n    <a href=\"/item/").append(r.nextInt(1000)).append("\">    Item    </a>\n  </div>\n");
+				}
+
+			l.add(sb.append("</body></html>").toString());
+		}
+
+		return l;
+	}
+}
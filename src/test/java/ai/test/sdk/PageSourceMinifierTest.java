@@ -0,0 +1,61 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link PageSourceMinifier} strips only what it should, without losing track of where tags start and end.
+ */
+class PageSourceMinifierTest
+{
+	@Test
+	void stripsNestedSvg()
+	{
+		String s = "<div><svg viewBox=\"0 0 1 1\"><svg><path d=\"M0\"/></svg><svg/><path d=\"M1\"/></svg><p>x</p></div>";
+
+		assertEquals("<div><svg viewBox=\"0 0 1 1\"></svg><p>x</p></div>", new PageSourceMinifier().minify(s));
+	}
+
+	@Test
+	void keepsScriptVerbatim()
+	{
+		String script = "<script>if (a<b && s == \"it's\") x = '>';\n  y = \"<p>\";</script>";
+
+		assertEquals(script + "<p> y </p>", new PageSourceMinifier().setStripScripts(false).minify(script + "<!-- c --><p>  y  </p>"));
+		assertEquals("<script></script><p> y </p>", new PageSourceMinifier().minify(script + "<p>  y  </p>"));
+	}
+
+	@Test
+	void keepsCommentVerbatim()
+	{
+		String s = "<!-- don't <p> --><style>a{}</style><p>x</p>";
+
+		assertEquals("<!-- don't <p> --><style></style><p>x</p>", new PageSourceMinifier().setStripComments(false).minify(s));
+	}
+
+	@Test
+	void keepsPreformattedWhitespace()
+	{
+		String s = "<pre class=\"x\">  a\n   <b> b </b></pre>  <textarea>  <c>  </textarea>  <p>  d  </p>";
+
+		assertEquals("<pre class=\"x\">  a\n   <b> b </b></pre> <textarea>  <c>  </textarea> <p> d </p>", new PageSourceMinifier().minify(s));
+	}
+
+	@Test
+	void truncatesBetweenTags()
+	{
+		String s = "<p>abc</p><a href=\"x\">link</a>";
+
+		assertEquals("<p>abc</p>", new PageSourceMinifier().setMaxLength(15).minify(s));
+		assertEquals("<p>abc</p><a href=\"x\">li", new PageSourceMinifier().setMaxLength(24).minify(s));
+	}
+
+	@Test
+	void truncatesDataUris()
+	{
+		String s = "<img src=\"data:image/png;base64,AAAAAAAAAAAAAAAA\" alt='y'>";
+
+		assertEquals("<img src=\"data:image/png\" alt='y'>", new PageSourceMinifier().setDataUriLength(14).minify(s));
+	}
+}
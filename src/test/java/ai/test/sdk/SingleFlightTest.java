@@ -0,0 +1,145 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link SingleFlight} shares one call between concurrent callers, and hands off to a waiting caller when the leader is interrupted.
+ */
+class SingleFlightTest
+{
+	/**
+	 * Runs the callers
+	 */
+	private final ExecutorService pool = Executors.newCachedThreadPool();
+
+	/**
+	 * The number of calls run
+	 */
+	private final AtomicInteger calls = new AtomicInteger();
+
+	@AfterEach
+	void stop()
+	{
+		pool.shutdownNow();
+	}
+
+	/**
+	 * Starts a caller which waits for the call in flight, once a leader is running.
+	 * 
+	 * @param flight The single flight
+	 * @param value The value the caller returns if it becomes the leader
+	 * @return The result of the caller
+	 * @throws InterruptedException If interrupted
+	 */
+	private Future<String> waiter(SingleFlight<String, String> flight, String value) throws InterruptedException
+	{
+		Future<String> f = pool.submit(() -> flight.run("k", () -> {
+			calls.incrementAndGet();
+			return value;
+		}, 5, TimeUnit.SECONDS));
+		Thread.sleep(100); // waiting on the leader
+
+		return f;
+	}
+
+	@Test
+	void sharesResult() throws Exception
+	{
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CountDownLatch release = new CountDownLatch(1), started = new CountDownLatch(1);
+		String shared = new String("leader");
+
+		Future<String> leader = pool.submit(() -> flight.run("k", () -> {
+			calls.incrementAndGet();
+			started.countDown();
+			release.await();
+			return shared;
+		}, 5, TimeUnit.SECONDS));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		Future<String> w1 = waiter(flight, "w1"), w2 = waiter(flight, "w2");
+		release.countDown();
+
+		assertSame(shared, leader.get(5, TimeUnit.SECONDS));
+		assertSame(shared, w1.get(5, TimeUnit.SECONDS));
+		assertSame(shared, w2.get(5, TimeUnit.SECONDS));
+		assertEquals(1, calls.get());
+	}
+
+	@Test
+	void sharesFailure() throws Exception
+	{
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CountDownLatch release = new CountDownLatch(1), started = new CountDownLatch(1);
+
+		pool.submit(() -> flight.run("k", () -> {
+			started.countDown();
+			release.await();
+			throw new IOException("offline");
+		}, 5, TimeUnit.SECONDS));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		Future<String> w = waiter(flight, "w");
+		release.countDown();
+
+		ExecutionException e = assertThrows(ExecutionException.class, () -> w.get(5, TimeUnit.SECONDS));
+		assertEquals("offline", e.getCause().getMessage());
+		assertEquals(0, calls.get());
+	}
+
+	@Test
+	void interruptedLeaderHandsOff() throws Exception
+	{
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CountDownLatch started = new CountDownLatch(1);
+
+		Future<String> leader = pool.submit(() -> flight.run("k", () -> {
+			started.countDown();
+			Thread.sleep(10_000); // until the lookup is cancelled
+			return "leader";
+		}, 5, TimeUnit.SECONDS));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		Future<String> w = waiter(flight, "w");
+		leader.cancel(true);
+
+		assertEquals("w", w.get(5, TimeUnit.SECONDS)); // ran its own call rather than sharing the cancelled one
+		assertEquals(1, calls.get());
+		assertEquals("again", flight.run("k", () -> "again", 1, TimeUnit.SECONDS)); // nothing left in flight
+	}
+
+	@Test
+	void waiterTimesOutAlone() throws Exception
+	{
+		SingleFlight<String, String> flight = new SingleFlight<>();
+		CountDownLatch release = new CountDownLatch(1), started = new CountDownLatch(1);
+
+		Future<String> leader = pool.submit(() -> flight.run("k", () -> {
+			started.countDown();
+			release.await();
+			return "leader";
+		}, 5, TimeUnit.SECONDS));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		assertThrows(TimeoutException.class, () -> flight.run("k", () -> "w", 50, TimeUnit.MILLISECONDS));
+
+		release.countDown();
+		assertEquals("leader", leader.get(5, TimeUnit.SECONDS));
+	}
+}
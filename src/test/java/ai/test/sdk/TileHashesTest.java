@@ -0,0 +1,112 @@
+package ai.test.sdk;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that {@link TileHashes} tolerates pixel noise, but not visible changes.
+ */
+class TileHashesTest
+{
+	/**
+	 * The size of the tiles used in these tests
+	 */
+	private static final int TILE = 32;
+
+	/**
+	 * Draws a screen: a gray background with a button of text-like stripes.
+	 * 
+	 * @param button The color of the button
+	 * @param text The seed for the pattern of the text on the button
+	 * @return The screen
+	 */
+	private static BufferedImage screen(int button, long text)
+	{
+		BufferedImage img = new BufferedImage(200, 150, BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < img.getHeight(); y++)
+			for (int x = 0; x < img.getWidth(); x++)
+				img.setRGB(x, y, 0x3f3f40 + (x + y) % 2); // dithered, and right on a boundary of the low bits
+
+		Random r = new Random(text);
+		for (int y = 40; y < 72; y++)
+			for (int x = 64; x < 128; x++)
+				img.setRGB(x, y, y >= 50 && y < 62 && r.nextInt(3) == 0 ? 0xffffff : button);
+
+		return img;
+	}
+
+	/**
+	 * Adds noise of up to 2 levels to every color channel of every pixel.
+	 * 
+	 * @param img The image to add noise to. This is modified in place.
+	 * @param seed The seed for the noise
+	 * @return {@code img}
+	 */
+	private static BufferedImage noise(BufferedImage img, long seed)
+	{
+		Random r = new Random(seed);
+		for (int y = 0; y < img.getHeight(); y++)
+			for (int x = 0; x < img.getWidth(); x++)
+			{
+				int rgb = img.getRGB(x, y), out = 0;
+				for (int shift = 0; shift <= 16; shift += 8)
+					out |= Math.max(0, Math.min(255, (rgb >> shift & 0xff) + r.nextInt(5) - 2)) << shift;
+
+				img.setRGB(x, y, out);
+			}
+
+		return img;
+	}
+
+	@Test
+	void noiseIsUnchanged()
+	{
+		TileHashes before = TileHashes.of(screen(0x2060c0, 1), TILE), after = TileHashes.of(noise(screen(0x2060c0, 1), 7), TILE);
+
+		assertEquals(0, after.changed(before));
+		assertTrue(after.unchanged(before, 64, 40, 64, 32));
+	}
+
+	@Test
+	void textIsChanged()
+	{
+		TileHashes before = TileHashes.of(screen(0x2060c0, 1), TILE), after = TileHashes.of(screen(0x2060c0, 2), TILE);
+
+		assertFalse(after.unchanged(before, 64, 40, 64, 32));
+		assertTrue(after.unchanged(before, 0, 100, 40, 40));
+	}
+
+	@Test
+	void colorIsChanged()
+	{
+		TileHashes before = TileHashes.of(screen(0x2060c0, 1), TILE), after = TileHashes.of(screen(0x20c060, 1), TILE);
+
+		assertFalse(after.unchanged(before, 64, 40, 64, 32));
+	}
+
+	@Test
+	void singlePixelIsChanged()
+	{
+		BufferedImage img = screen(0x2060c0, 1);
+		TileHashes before = TileHashes.of(img, TILE);
+		img.setRGB(10, 10, 0xffffff);
+		img.setRGB(11, 10, 0xffffff);
+
+		assertEquals(1, TileHashes.of(img, TILE).changed(before));
+	}
+
+	@Test
+	void differentSizesAreNotComparable()
+	{
+		TileHashes before = TileHashes.of(screen(0x2060c0, 1), TILE), after = TileHashes.of(screen(0x2060c0, 1), TILE / 2);
+
+		assertEquals(-1, after.changed(before));
+		assertFalse(after.unchanged(before, 64, 40, 64, 32));
+	}
+}